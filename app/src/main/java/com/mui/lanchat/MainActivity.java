@@ -13,11 +13,16 @@ import androidx.navigation.Navigation;
 import androidx.navigation.ui.AppBarConfiguration;
 import androidx.navigation.ui.NavigationUI;
 import com.mui.lanchat.databinding.ActivityMainBinding;
+import com.mui.lanchat.storage.MessageLog;
 import com.mui.lanchat.ui.home.HomeFragment; // Import HomeFragment
 import com.mui.lanchat.ui.settings.SettingsFragment; // Import SettingsFragment
 
+import java.io.IOException;
+
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
     private ActivityMainBinding binding;
     private NavController navController;
 
@@ -65,8 +70,21 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    // This method will be called by SettingsFragment through MainActivity to clear chat history
+    // This method will be called by SettingsFragment through MainActivity to clear chat history.
+    // The history lives in the message log, so clearing it deletes the log's segments; HomeFragment
+    // only has to drop what it is showing, if its view exists at all.
     public void onClearChatHistoryRequested() {
+        // Queued ahead of anything HomeFragment appends once it has dropped its rows below
+        MessageLog.openSharedAsync(this, log -> {
+            if (log == null) {
+                return;
+            }
+            try {
+                log.clear();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot clear chat history: " + e.getMessage());
+            }
+        });
         Fragment navHostFragment = getSupportFragmentManager().findFragmentById(R.id.nav_host_fragment_activity_main);
         if (navHostFragment != null) {
             Fragment currentFragment = navHostFragment.getChildFragmentManager().getPrimaryNavigationFragment();
@@ -1,8 +1,25 @@
 package com.mui.lanchat.model;
 
-import com.google.gson.Gson;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatMessage {
+    // Random per-process prefix plus a counter: unique across devices without coordination
+    private static final long ID_PREFIX = ((long) new SecureRandom().nextInt()) << 32;
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger();
+
+    // Control messages carry a type; chat messages leave it null so their JSON is unchanged
+    public static final String TYPE_PING = "ping";
+    public static final String TYPE_PONG = "pong";
+    // Sender table of a binary session: a client registers its identity, the hub acknowledges it
+    // with a compact sender ID and announces the IDs of other senders before referencing them
+    public static final String TYPE_REGISTER = "register";
+    public static final String TYPE_REGISTERED = "registered";
+    public static final String TYPE_SENDER = "sender";
+
+    private String type;
+    private long messageId; // 0 means "not stamped" (messages from older peers)
+    private int senderId;   // Only set on sender table control messages; never in JSON
     private String senderIp;
     private String senderName; // <--- NEW FIELD
     private String message;
@@ -14,6 +31,81 @@ public class ChatMessage {
         this.senderName = senderName; // <--- ASSIGN NEW FIELD
         this.message = message;
         this.timestamp = System.currentTimeMillis();
+        this.messageId = nextMessageId();
+    }
+
+    // Used by the codecs to rebuild a message exactly as it was sent
+    public ChatMessage(String type, long messageId, String senderIp, String senderName, String message, long timestamp) {
+        this(type, 0, messageId, senderIp, senderName, message, timestamp);
+    }
+
+    public ChatMessage(String type, int senderId, long messageId, String senderIp, String senderName,
+                       String message, long timestamp) {
+        this.type = type;
+        this.senderId = senderId;
+        this.messageId = messageId;
+        this.senderIp = senderIp;
+        this.senderName = senderName;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    private ChatMessage(String type) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public static ChatMessage ping() {
+        return new ChatMessage(TYPE_PING);
+    }
+
+    public static ChatMessage pong() {
+        return new ChatMessage(TYPE_PONG);
+    }
+
+    /** A sender table control message binding {@code senderId} to an identity. */
+    public static ChatMessage senderControl(String type, int senderId, String senderIp, String senderName) {
+        ChatMessage control = new ChatMessage(type);
+        control.senderId = senderId;
+        control.senderIp = senderIp;
+        control.senderName = senderName;
+        return control;
+    }
+
+    private static long nextMessageId() {
+        long id;
+        do {
+            id = ID_PREFIX | (ID_COUNTER.incrementAndGet() & 0xFFFFFFFFL);
+        } while (id == 0);
+        return id;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    // Messages from peers that predate message IDs are stamped by the first hub that sees them
+    public void assignMessageIdIfMissing() {
+        if (messageId == 0) {
+            messageId = nextMessageId();
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    // Heartbeats and other protocol traffic that is never shown, relayed or deduplicated
+    public boolean isControl() {
+        return type != null;
+    }
+
+    public boolean isPing() {
+        return TYPE_PING.equals(type);
+    }
+
+    public int getSenderId() {
+        return senderId;
     }
 
     // Getter for senderName
@@ -35,13 +127,11 @@ public class ChatMessage {
 
     // Convert ChatMessage object to JSON string
     public String toJson() {
-        Gson gson = new Gson();
-        return gson.toJson(this);
+        return JsonChatMessageCodec.getInstance().encode(this);
     }
 
     // Convert JSON string back to ChatMessage object
     public static ChatMessage fromJson(String json) {
-        Gson gson = new Gson();
-        return gson.fromJson(json, ChatMessage.class);
+        return JsonChatMessageCodec.getInstance().decode(json);
     }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.mui.lanchat.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Turns {@link ChatMessage}s into wire text and back. Implementations must be thread-safe: one
+ * instance is shared by every connection of a hub.
+ */
+public interface ChatMessageCodec {
+
+    String encode(ChatMessage message);
+
+    /** Throws {@link com.google.gson.JsonParseException} if the text is not a message. */
+    ChatMessage decode(String text);
+
+    void write(ChatMessage message, Writer out) throws IOException;
+
+    /** Reads exactly one message from the stream. */
+    ChatMessage read(Reader in) throws IOException;
+}
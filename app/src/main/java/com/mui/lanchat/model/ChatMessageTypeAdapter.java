@@ -0,0 +1,88 @@
+package com.mui.lanchat.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming adapter for {@link ChatMessage}: no reflection and no intermediate tree.
+ * Produces the same field names as reflective Gson, omits null fields the same way, and skips
+ * fields it does not know so newer peers can add them.
+ */
+final class ChatMessageTypeAdapter extends TypeAdapter<ChatMessage> {
+
+    @Override
+    public void write(JsonWriter out, ChatMessage message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (message.getType() != null) {
+            out.name("type").value(message.getType());
+        }
+        out.name("messageId").value(message.getMessageId());
+        if (message.getSenderIp() != null) {
+            out.name("senderIp").value(message.getSenderIp());
+        }
+        if (message.getSenderName() != null) {
+            out.name("senderName").value(message.getSenderName());
+        }
+        if (message.getMessage() != null) {
+            out.name("message").value(message.getMessage());
+        }
+        out.name("timestamp").value(message.getTimestamp());
+        out.endObject();
+    }
+
+    @Override
+    public ChatMessage read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String type = null;
+        long messageId = 0;
+        String senderIp = null;
+        String senderName = null;
+        String message = null;
+        long timestamp = 0;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type":
+                    type = in.nextString();
+                    break;
+                case "messageId":
+                    messageId = in.nextLong();
+                    break;
+                case "senderIp":
+                    senderIp = in.nextString();
+                    break;
+                case "senderName":
+                    senderName = in.nextString();
+                    break;
+                case "message":
+                    message = in.nextString();
+                    break;
+                case "timestamp":
+                    timestamp = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return new ChatMessage(type, messageId, senderIp, senderName, message, timestamp);
+    }
+}
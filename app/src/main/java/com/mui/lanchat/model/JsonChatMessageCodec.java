@@ -0,0 +1,65 @@
+package com.mui.lanchat.model;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * The JSON wire format, one object per message. The adapter holds no state, so a single shared
+ * instance serves every thread.
+ */
+public final class JsonChatMessageCodec implements ChatMessageCodec {
+
+    private static final JsonChatMessageCodec INSTANCE = new JsonChatMessageCodec();
+
+    private final ChatMessageTypeAdapter adapter = new ChatMessageTypeAdapter();
+
+    private JsonChatMessageCodec() {
+    }
+
+    public static JsonChatMessageCodec getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String encode(ChatMessage message) {
+        StringWriter out = new StringWriter(128);
+        try {
+            write(message, out);
+        } catch (IOException e) {
+            throw new JsonIOException(e); // StringWriter never throws
+        }
+        return out.toString();
+    }
+
+    @Override
+    public ChatMessage decode(String text) {
+        try {
+            return read(new StringReader(text));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException("Malformed chat message", e);
+        }
+    }
+
+    @Override
+    public void write(ChatMessage message, Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(false); // Nothing here is embedded in HTML; keep the text short
+        adapter.write(writer, message);
+        writer.flush();
+    }
+
+    @Override
+    public ChatMessage read(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true); // Same leniency as Gson.fromJson
+        return adapter.read(reader);
+    }
+}
@@ -0,0 +1,75 @@
+package com.mui.lanchat.network;
+
+/**
+ * Protects the hub from flooding peers: caps on concurrent connections (per IP and in total) and
+ * token-bucket limits on the messages and bytes each connection may send. A limit of 0 disables
+ * that check.
+ */
+public class AdmissionPolicy {
+
+    public enum RateLimitAction {
+        THROTTLE, // Stop reading from the peer until its bucket refills; TCP pushes back on the sender
+        DROP      // Keep reading but discard messages over the limit
+    }
+
+    private final int maxConnectionsPerIp;
+    private final int maxConnectionsTotal;
+    private final double messagesPerSecond;
+    private final int messageBurst;
+    private final double bytesPerSecond;
+    private final int byteBurst;
+    private final RateLimitAction action;
+
+    public AdmissionPolicy(int maxConnectionsPerIp, int maxConnectionsTotal,
+                           double messagesPerSecond, int messageBurst,
+                           double bytesPerSecond, int byteBurst, RateLimitAction action) {
+        if (maxConnectionsPerIp < 0 || maxConnectionsTotal < 0 || messagesPerSecond < 0
+                || messageBurst < 0 || bytesPerSecond < 0 || byteBurst < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.maxConnectionsTotal = maxConnectionsTotal;
+        this.messagesPerSecond = messagesPerSecond;
+        this.messageBurst = messageBurst;
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = byteBurst;
+        this.action = action;
+    }
+
+    /** Roomy enough for people typing and pasting, tight enough to stop a runaway sender. */
+    public static AdmissionPolicy defaultPolicy() {
+        return new AdmissionPolicy(4, 256, 20, 100, 256 * 1024, 1024 * 1024, RateLimitAction.THROTTLE);
+    }
+
+    public static AdmissionPolicy unlimited() {
+        return new AdmissionPolicy(0, 0, 0, 0, 0, 0, RateLimitAction.THROTTLE);
+    }
+
+    public int getMaxConnectionsPerIp() {
+        return maxConnectionsPerIp;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public int getMessageBurst() {
+        return messageBurst;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getByteBurst() {
+        return byteBurst;
+    }
+
+    public RateLimitAction getAction() {
+        return action;
+    }
+}
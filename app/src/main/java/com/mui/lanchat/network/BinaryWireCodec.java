@@ -0,0 +1,340 @@
+package com.mui.lanchat.network;
+
+import com.mui.lanchat.model.ChatMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of {@link ChatMessage} (protocol version 1). A frame is a varint body length
+ * followed by the body; the body is a sequence of fields, each a varint tag
+ * ({@code field << 3 | wireType}) and a value:
+ *
+ * <pre>
+ *   1 messageId   fixed64, little-endian; always first
+ *   2 type        length-delimited UTF-8, absent for chat
+ *   3 senderIp    length-delimited UTF-8
+ *   4 senderName  length-delimited UTF-8
+ *   5 message     length-delimited UTF-8
+ *   6 timestamp   varint
+ *   7 senderId    varint; in chat messages it replaces fields 3 and 4 with an entry of the
+ *                 session's sender table, in sender table control messages it names the entry
+ *  15 compressed  length-delimited; fields 3-6 deflated by {@link FrameCompressor}, only on
+ *                 connections that negotiated compression
+ * </pre>
+ *
+ * Fields 1, 2 and 7 are the routing header. They are never compressed and come before the rest,
+ * so a relay can route and deduplicate a frame without inflating it or decoding any strings.
+ *
+ * Readers skip fields they do not know, so later versions can add fields without breaking peers.
+ */
+final class BinaryWireCodec {
+
+    // Also used by DiscoveryBeacon, which is laid out the same way
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private static final int FIELD_MESSAGE_ID = 1;
+    private static final int FIELD_TYPE = 2;
+    private static final int FIELD_SENDER_IP = 3;
+    private static final int FIELD_SENDER_NAME = 4;
+    private static final int FIELD_MESSAGE = 5;
+    private static final int FIELD_TIMESTAMP = 6;
+    private static final int FIELD_SENDER_ID = 7;
+    private static final int FIELD_COMPRESSED = 15;
+
+    private BinaryWireCodec() {
+    }
+
+    /** The complete frame: length prefix and body. */
+    static EncodedFrame encode(ChatMessage message) {
+        return encode(message, null, null);
+    }
+
+    /**
+     * As {@link #encode(ChatMessage)}, deflating the body if the compressor finds it worthwhile.
+     * With a sender, the message refers to it by ID; the receiving connection must have been sent
+     * the sender's announcement first.
+     */
+    static EncodedFrame encode(ChatMessage message, FrameCompressor compressor, SenderIdentity sender) {
+        int senderId = sender != null ? sender.id : message.getSenderId();
+        byte[] type = utf8(message.getType());
+        byte[] content = encodeContent(message, sender);
+        int contentTag = -1; // Plain fields follow the header directly
+        if (compressor != null) {
+            byte[] compressed = compressor.compress(content);
+            if (compressed != null) {
+                content = compressed;
+                contentTag = tag(FIELD_COMPRESSED, WIRE_LENGTH_DELIMITED);
+            }
+        }
+
+        int bodyLength = 1 + 8 + stringFieldSize(type)
+                + (senderId != 0 ? 1 + Varint.size(senderId) : 0) + content.length;
+        if (contentTag >= 0) {
+            bodyLength += 1 + Varint.size(content.length);
+        }
+        byte[] frame = new byte[Varint.size(bodyLength) + bodyLength];
+        int offset = Varint.write(bodyLength, frame, 0);
+        frame[offset++] = (byte) tag(FIELD_MESSAGE_ID, WIRE_FIXED64);
+        long id = message.getMessageId();
+        for (int i = 0; i < 8; i++) {
+            frame[offset++] = (byte) (id >>> (8 * i));
+        }
+        offset = writeString(FIELD_TYPE, type, frame, offset);
+        if (senderId != 0) {
+            frame[offset++] = (byte) tag(FIELD_SENDER_ID, WIRE_VARINT);
+            offset = Varint.write(senderId, frame, offset);
+        }
+        if (contentTag >= 0) {
+            frame[offset++] = (byte) contentTag;
+            offset = Varint.write(content.length, frame, offset);
+        }
+        System.arraycopy(content, 0, frame, offset, content.length);
+        return EncodedFrame.of(frame);
+    }
+
+    // Fields 3-6, the part worth compressing
+    private static byte[] encodeContent(ChatMessage message, SenderIdentity sender) {
+        byte[] senderIp = sender != null ? null : utf8(message.getSenderIp());
+        byte[] senderName = sender != null ? null : utf8(message.getSenderName());
+        byte[] text = utf8(message.getMessage());
+        int length = stringFieldSize(senderIp) + stringFieldSize(senderName) + stringFieldSize(text)
+                + 1 + Varint.size(message.getTimestamp());
+        byte[] fields = new byte[length];
+        int offset = writeString(FIELD_SENDER_IP, senderIp, fields, 0);
+        offset = writeString(FIELD_SENDER_NAME, senderName, fields, offset);
+        offset = writeString(FIELD_MESSAGE, text, fields, offset);
+        fields[offset++] = (byte) tag(FIELD_TIMESTAMP, WIRE_VARINT);
+        Varint.write(message.getTimestamp(), fields, offset);
+        return fields;
+    }
+
+    /**
+     * Reads only the routing header of a frame body into {@code header}: no strings are decoded and
+     * compressed content is not inflated. False if the body is malformed.
+     */
+    static boolean readHeader(byte[] data, int offset, int length, RelayHeader header) {
+        header.reset();
+        FieldReader in = new FieldReader(data, offset, length);
+        try {
+            while (in.hasMore()) {
+                long tag = in.readVarint();
+                int field = (int) (tag >>> 3);
+                switch ((int) (tag & 0x7)) {
+                    case WIRE_FIXED64: {
+                        long value = in.readFixed64();
+                        if (field == FIELD_MESSAGE_ID) {
+                            header.messageId = value;
+                        }
+                        break;
+                    }
+                    case WIRE_VARINT: {
+                        long value = in.readVarint();
+                        if (field == FIELD_SENDER_ID) {
+                            header.senderId = (int) value;
+                        }
+                        break;
+                    }
+                    case WIRE_LENGTH_DELIMITED: {
+                        int valueLength = (int) in.readVarint();
+                        if (field == FIELD_TYPE) {
+                            header.control = true;
+                        } else if (field == FIELD_COMPRESSED) {
+                            header.compressed = true;
+                        }
+                        in.skip(valueLength);
+                        break;
+                    }
+                    default:
+                        return false;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes one frame body, without its length prefix. The compressor may be null on connections
+     * that did not negotiate compression, in which case compressed frames are rejected. Sender IDs
+     * in chat messages are resolved through the table; the decoded message shares its strings.
+     * A compressed frame may not expand beyond {@code maxFrameBytes}.
+     */
+    static ChatMessage decode(byte[] data, int offset, int length, FrameCompressor compressor,
+                              SenderIdentity.Table senders, int maxFrameBytes) throws IOException {
+        Fields fields = new Fields();
+        readFields(new FieldReader(data, offset, length), fields, compressor, maxFrameBytes);
+        if (fields.type != null) {
+            return new ChatMessage(fields.type, fields.senderId, fields.messageId, fields.senderIp,
+                    fields.senderName, fields.message, fields.timestamp);
+        }
+        if (fields.senderId != 0) {
+            SenderIdentity sender = senders == null ? null : senders.lookup(fields.senderId);
+            if (sender == null) {
+                throw new IOException("Unknown sender " + fields.senderId);
+            }
+            fields.senderIp = sender.senderIp;
+            fields.senderName = sender.senderName;
+        }
+        return new ChatMessage(null, fields.messageId, fields.senderIp, fields.senderName,
+                fields.message, fields.timestamp);
+    }
+
+    private static void readFields(FieldReader in, Fields fields, FrameCompressor compressor,
+                                   int maxFrameBytes) throws IOException {
+        while (in.hasMore()) {
+            long tag = in.readVarint();
+            int field = (int) (tag >>> 3);
+            int wireType = (int) (tag & 0x7);
+            switch (wireType) {
+                case WIRE_FIXED64: {
+                    long value = in.readFixed64();
+                    if (field == FIELD_MESSAGE_ID) {
+                        fields.messageId = value;
+                    }
+                    break;
+                }
+                case WIRE_VARINT: {
+                    long value = in.readVarint();
+                    if (field == FIELD_TIMESTAMP) {
+                        fields.timestamp = value;
+                    } else if (field == FIELD_SENDER_ID) {
+                        fields.senderId = (int) value;
+                    }
+                    break;
+                }
+                case WIRE_LENGTH_DELIMITED: {
+                    int valueLength = (int) in.readVarint();
+                    switch (field) {
+                        case FIELD_TYPE:
+                            fields.type = in.readString(valueLength);
+                            break;
+                        case FIELD_SENDER_IP:
+                            fields.senderIp = in.readString(valueLength);
+                            break;
+                        case FIELD_SENDER_NAME:
+                            fields.senderName = in.readString(valueLength);
+                            break;
+                        case FIELD_MESSAGE:
+                            fields.message = in.readString(valueLength);
+                            break;
+                        case FIELD_COMPRESSED: {
+                            if (compressor == null) {
+                                throw new IOException("Compressed frame on a connection without compression");
+                            }
+                            byte[] inflated = in.readCompressed(valueLength, compressor, maxFrameBytes);
+                            readFields(new FieldReader(inflated, 0, inflated.length), fields, null, maxFrameBytes);
+                            break;
+                        }
+                        default:
+                            in.skip(valueLength);
+                            break;
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown wire type " + wireType + " for field " + field);
+            }
+        }
+    }
+
+    private static final class Fields {
+        long messageId;
+        int senderId;
+        String type;
+        String senderIp;
+        String senderName;
+        String message;
+        long timestamp;
+    }
+
+    static int tag(int field, int wireType) {
+        return field << 3 | wireType;
+    }
+
+    static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int stringFieldSize(byte[] value) {
+        return value == null ? 0 : 1 + Varint.size(value.length) + value.length;
+    }
+
+    static int writeString(int field, byte[] value, byte[] out, int offset) {
+        if (value == null) {
+            return offset;
+        }
+        out[offset++] = (byte) tag(field, WIRE_LENGTH_DELIMITED);
+        offset = Varint.write(value.length, out, offset);
+        System.arraycopy(value, 0, out, offset, value.length);
+        return offset + value.length;
+    }
+
+    static final class FieldReader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        FieldReader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readFixed64() throws IOException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (data[position++] & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+
+        String readString(int length) throws IOException {
+            require(length);
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readCompressed(int length, FrameCompressor compressor, int maxBytes) throws IOException {
+            require(length);
+            byte[] inflated = compressor.decompress(data, position, length, maxBytes);
+            position += length;
+            return inflated;
+        }
+
+        void skip(int length) throws IOException {
+            require(length);
+            position += length;
+        }
+
+        private void require(int length) throws IOException {
+            if (length < 0 || end - position < length) {
+                throw new IOException("Truncated field");
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.mui.lanchat.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles byte arrays in power-of-two size classes, so read buffers and partial-frame buffers
+ * are not reallocated for every connection and every split frame. Retention is capped in bytes;
+ * arrays released beyond the cap are left to the GC.
+ */
+final class BufferPool {
+
+    private static final int MIN_SHIFT = 6;  // 64 bytes, a short relayed message
+    private static final int MAX_SHIFT = 24; // 16 MiB; larger requests are never pooled
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 4L * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final List<Queue<byte[]>> free = new ArrayList<>();
+
+    BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            free.add(new ConcurrentLinkedQueue<byte[]>());
+        }
+    }
+
+    static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /** An array of at least {@code minLength} bytes, with unspecified contents. */
+    byte[] acquire(int minLength) {
+        int shift = shiftFor(minLength);
+        if (shift > MAX_SHIFT) {
+            return new byte[minLength];
+        }
+        byte[] buffer = free.get(shift - MIN_SHIFT).poll();
+        if (buffer == null) {
+            return new byte[1 << shift];
+        }
+        retainedBytes.addAndGet(-buffer.length);
+        return buffer;
+    }
+
+    /** Hands an array back; the caller must not touch it afterwards. */
+    void release(byte[] buffer) {
+        int length = buffer.length;
+        if (Integer.bitCount(length) != 1 || length < (1 << MIN_SHIFT) || length > (1 << MAX_SHIFT)) {
+            return; // Not one of ours
+        }
+        if (retainedBytes.addAndGet(length) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-length);
+            return;
+        }
+        free.get(Integer.numberOfTrailingZeros(length) - MIN_SHIFT).add(buffer);
+    }
+
+    long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private static int shiftFor(int length) {
+        if (length <= (1 << MIN_SHIFT)) {
+            return MIN_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
@@ -3,25 +3,60 @@ package com.mui.lanchat.network;
 import android.util.Log;
 
 import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.model.ChatMessageCodec;
+import com.mui.lanchat.model.JsonChatMessageCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class ChatClient {
 
     private static final String TAG = "ChatClient";
+    private static final int SEND_QUEUE_CAPACITY = 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private CoalescingOutput out;
+    private InputStream in;
     private String serverIp;
-    private ExecutorService executorService;
+    private final int serverPort;
+    private final NetworkScheduler scheduler;
     private Future<?> listenTask;
+    private volatile Future<?> writerTask; // Started by the listener once the handshake settles the format
+    private ScheduledFuture<?> heartbeatTask;
+    private HeartbeatPolicy heartbeatPolicy = HeartbeatPolicy.defaultPolicy();
+    private ChatMessageCodec codec = JsonChatMessageCodec.getInstance();
+    private FrameDecoder decoder; // Created per connection with the profile's frame limit
+    private volatile WireFormat format; // Null until the hub answers the hello or the handshake times out
+    // Binary sessions only. Senders the hub has announced; touched by the listener thread only
+    private final Map<Integer, SenderIdentity> senders = new HashMap<>();
+    private volatile SenderIdentity registered; // Our own entry, once the hub has acknowledged it
+    private SenderIdentity registering;          // Writer thread only: last registration sent
+    private volatile long lastReadNanos;
+    // Hubs that predate heartbeats never ping; only time out a hub once it has shown it will
+    private volatile boolean hubSendsHeartbeats;
+    private TransportProfile transportProfile = TransportProfile.lowLatency();
+    private final TransportStats transportStats = new TransportStats();
+    private CompressionPolicy compressionPolicy = CompressionPolicy.defaultPolicy();
+    private final CompressionStats compressionStats = new CompressionStats();
+    private FrameCompressor compressor;
+    // Outgoing messages in submission order; a single writer thread drains it
+    private final BlockingQueue<PendingSend> sendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private volatile boolean closed;
 
     private OnMessageReceivedListener messageListener;
     private OnConnectionStatusListener connectionStatusListener;
@@ -36,51 +71,142 @@ public class ChatClient {
         void onChatClientError(String message); // <--- MODIFIED LINE
     }
 
+    private static final class PendingSend {
+        final ChatMessage message;
+        final CompletableFuture<Void> result;
+
+        PendingSend(ChatMessage message, CompletableFuture<Void> result) {
+            this.message = message;
+            this.result = result;
+        }
+    }
+
     public ChatClient(String serverIp, OnMessageReceivedListener messageListener, OnConnectionStatusListener connectionStatusListener) {
+        this(serverIp, messageListener, connectionStatusListener, NetworkScheduler.getShared());
+    }
+
+    public ChatClient(String serverIp, OnMessageReceivedListener messageListener,
+                      OnConnectionStatusListener connectionStatusListener, NetworkScheduler scheduler) {
+        this(serverIp, ChatServer.CHAT_PORT, messageListener, connectionStatusListener, scheduler);
+    }
+
+    /** Connects to a hub on another port, such as the one its discovery beacon advertises. */
+    public ChatClient(String serverIp, int serverPort, OnMessageReceivedListener messageListener,
+                      OnConnectionStatusListener connectionStatusListener) {
+        this(serverIp, serverPort, messageListener, connectionStatusListener, NetworkScheduler.getShared());
+    }
+
+    public ChatClient(String serverIp, int serverPort, OnMessageReceivedListener messageListener,
+                      OnConnectionStatusListener connectionStatusListener, NetworkScheduler scheduler) {
         this.serverIp = serverIp;
+        this.serverPort = serverPort;
         this.messageListener = messageListener;
         this.connectionStatusListener = connectionStatusListener;
-        this.executorService = Executors.newSingleThreadExecutor(); // For listening to incoming messages
+        this.scheduler = scheduler; // Connect, listen and write tasks all come out of the shared budget
+    }
+
+    /**
+     * Must be called before {@link #connect()}.
+     */
+    public void setTransportProfile(TransportProfile profile) {
+        this.transportProfile = profile;
+    }
+
+    /**
+     * Must be called before {@link #connect()}. The hub pings a quiet client, so the client only
+     * answers pings and disconnects once nothing has arrived from the hub for the timeout.
+     */
+    public void setHeartbeatPolicy(HeartbeatPolicy policy) {
+        this.heartbeatPolicy = policy;
+    }
+
+    /**
+     * Must be called before {@link #connect()}; the hub must speak the same codec.
+     */
+    public void setCodec(ChatMessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Must be called before {@link #connect()}. Compression is only used if the hub agrees to it.
+     */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        this.compressionPolicy = policy;
+    }
+
+    public TransportStats getTransportStats() {
+        return transportStats;
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
     }
 
     public void connect() {
-        new Thread(() -> {
-            try {
-                socket = new Socket(serverIp, ChatServer.CHAT_PORT);
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                Log.d(TAG, "Connected to chat server: " + serverIp);
-                if (connectionStatusListener != null) {
-                    connectionStatusListener.onConnected(serverIp);
-                }
-                startListening();
-            } catch (IOException e) {
-                Log.e(TAG, "Error connecting to server " + serverIp + ": " + e.getMessage());
-                if (connectionStatusListener != null) {
-                    connectionStatusListener.onChatClientError("Connection failed: " + e.getMessage()); // <--- MODIFIED LINE
-                }
-                close();
+        try {
+            scheduler.execute("chat-connect " + serverIp, this::runConnect);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Cannot connect to " + serverIp + ": " + e.getMessage());
+            if (connectionStatusListener != null) {
+                connectionStatusListener.onChatClientError("Connection failed: " + e.getMessage());
             }
-        }).start();
+        }
+    }
+
+    private void runConnect() {
+        try {
+            socket = new Socket();
+            transportProfile.applyTo(socket); // Buffer sizes must be set before connecting
+            socket.connect(new InetSocketAddress(serverIp, serverPort));
+            out = new CoalescingOutput(socket.getOutputStream(), transportProfile, transportStats);
+            in = socket.getInputStream();
+            compressor = new FrameCompressor(compressionPolicy, compressionStats);
+            decoder = new FrameDecoder(transportProfile.getMaxFrameBytes(), BufferPool.getShared());
+            out.write(Handshake.hello(Handshake.CURRENT_VERSION, compressor.isEnabled()));
+            out.flush();
+            lastReadNanos = System.nanoTime();
+            if (heartbeatPolicy.isEnabled()) {
+                long tickMillis = Math.max(1, heartbeatPolicy.getIntervalMillis() / 2);
+                heartbeatTask = scheduler.scheduleWithFixedDelay(this::checkHeartbeat,
+                        tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+            }
+            Log.d(TAG, "Connected to chat server: " + serverIp);
+            if (connectionStatusListener != null) {
+                connectionStatusListener.onConnected(serverIp);
+            }
+            startListening();
+        } catch (IOException | RejectedExecutionException e) {
+            Log.e(TAG, "Error connecting to server " + serverIp + ": " + e.getMessage());
+            if (connectionStatusListener != null) {
+                connectionStatusListener.onChatClientError("Connection failed: " + e.getMessage()); // <--- MODIFIED LINE
+            }
+            close();
+        }
     }
 
     private void startListening() {
         if (listenTask != null && !listenTask.isDone()) {
             listenTask.cancel(true); // Cancel previous listener if any
         }
-        listenTask = executorService.submit(() -> {
+        listenTask = scheduler.executeLoop("chat-listen " + serverIp, () -> {
+            byte[] buffer = BufferPool.getShared().acquire(READ_BUFFER_SIZE);
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    Log.d(TAG, "Received from server: " + line);
+                socket.setSoTimeout((int) Handshake.TIMEOUT_MILLIS); // Only until the hub answers the hello
+                Receiver receiver = new Receiver();
+                while (true) {
+                    int read;
                     try {
-                        ChatMessage receivedMessage = ChatMessage.fromJson(line);
-                        if (messageListener != null) {
-                            messageListener.onMessageReceived(receivedMessage);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error parsing received message: " + e.getMessage());
+                        read = in.read(buffer);
+                    } catch (SocketTimeoutException e) {
+                        Log.d(TAG, "No handshake reply from " + serverIp + ", using JSON lines.");
+                        settleFormat(WireFormat.JSON_LINES);
+                        continue;
+                    }
+                    if (read == -1) {
+                        break;
                     }
+                    lastReadNanos = System.nanoTime();
+                    decoder.feed(buffer, 0, read, receiver);
                 }
             } catch (IOException e) {
                 if (!socket.isClosed()) { // Only log if not explicitly closed
@@ -90,35 +216,218 @@ public class ChatClient {
                     }
                 }
             } finally {
+                BufferPool.getShared().release(buffer);
+                decoder.release();
                 close();
             }
         });
     }
 
-    public void sendMessage(ChatMessage message) {
-        String jsonMessage = message.toJson();
-        new Thread(() -> {
-            if (out != null && !socket.isClosed()) {
-                out.println(jsonMessage);
-                Log.d(TAG, "Sent message: " + jsonMessage);
+    // Listener thread only. Sends were held back until now; the writer starts in the agreed format
+    private void settleFormat(WireFormat settled) throws IOException {
+        format = settled;
+        decoder.setFormat(settled);
+        socket.setSoTimeout(0);
+        try {
+            writerTask = scheduler.executeLoop("chat-send " + serverIp, this::runWriter);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("No writer available: " + e.getMessage(), e);
+        }
+    }
+
+    private final class Receiver implements FrameDecoder.Sink {
+        @Override
+        public void onLine(byte[] data, int offset, int length) throws IOException {
+            String line = new String(data, offset, length, StandardCharsets.UTF_8);
+            if (format == null) {
+                Handshake reply = Handshake.parse(line);
+                if (reply != null) {
+                    // Never trust the hub to stay within what we offered
+                    settleFormat(reply.agree(compressor.isEnabled()).format());
+                    return;
+                }
+                settleFormat(WireFormat.JSON_LINES); // An older hub answered with chat traffic
+            }
+            Log.d(TAG, "Received from server: " + line);
+            try {
+                deliver(codec.decode(line));
+            } catch (Exception e) {
+                Log.e(TAG, "Error parsing received message: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onFrame(byte[] data, int offset, int length) {
+            try {
+                deliver(BinaryWireCodec.decode(data, offset, length,
+                        format == WireFormat.BINARY_COMPRESSED ? compressor : null, senders::get,
+                        transportProfile.getMaxFrameBytes()));
+            } catch (Exception e) {
+                Log.e(TAG, "Error decoding received frame: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onOversizedFrame(int length) {
+            Log.e(TAG, "Skipping " + length + "-byte frame from " + serverIp);
+        }
+    }
+
+    private void deliver(ChatMessage message) {
+        if (message.isControl()) {
+            onControlMessage(message);
+        } else if (messageListener != null) {
+            messageListener.onMessageReceived(message);
+        }
+    }
+
+    private void onControlMessage(ChatMessage message) {
+        if (message.isPing()) {
+            hubSendsHeartbeats = true;
+            sendMessage(ChatMessage.pong());
+        } else if (ChatMessage.TYPE_SENDER.equals(message.getType())
+                || ChatMessage.TYPE_REGISTERED.equals(message.getType())) {
+            SenderIdentity identity = new SenderIdentity(message.getSenderId(),
+                    message.getSenderIp(), message.getSenderName());
+            senders.put(identity.id, identity);
+            if (ChatMessage.TYPE_REGISTERED.equals(message.getType())) {
+                registered = identity;
+            }
+        }
+    }
+
+    // Timer thread: a hub that stopped talking is gone even if TCP has not noticed yet
+    private void checkHeartbeat() {
+        if (!hubSendsHeartbeats || closed) {
+            return;
+        }
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (silentMillis >= heartbeatPolicy.getTimeoutMillis()) {
+            Log.w(TAG, "Server " + serverIp + " silent for " + silentMillis + " ms, disconnecting.");
+            close(); // Fires onDisconnected
+        }
+    }
+
+    /**
+     * Queues a message for the writer thread and returns immediately. Messages are written in the
+     * order they were submitted; the returned future completes once the message has been handed to
+     * the socket, or fails if the queue is full or the connection is closed.
+     */
+    public CompletableFuture<Void> sendMessage(ChatMessage message) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (closed) {
+            Log.w(TAG, "Cannot send message, client is closed.");
+            result.completeExceptionally(new IOException("Client is closed"));
+            return result;
+        }
+        if (!sendQueue.offer(new PendingSend(message, result))) {
+            Log.w(TAG, "Send queue full, dropping message.");
+            result.completeExceptionally(new IOException("Send queue full"));
+            return result;
+        }
+        if (closed) {
+            failPendingSends(new IOException("Client is closed")); // Raced with close()
+        }
+        return result;
+    }
+
+    private void runWriter() {
+        List<PendingSend> batch = new ArrayList<>();
+        long flushWindow = transportProfile.getFlushWindowMillis();
+        try {
+            while (!closed) {
+                PendingSend next = sendQueue.take();
+                boolean waited = false;
+                while (next != null) {
+                    batch.add(next);
+                    write(next.message);
+                    next = sendQueue.poll();
+                    // Give a burst one window to catch up so it leaves in a single write
+                    if (next == null && flushWindow > 0 && !waited) {
+                        waited = true;
+                        next = sendQueue.poll(flushWindow, TimeUnit.MILLISECONDS);
+                    }
+                }
+                out.flush();
+                Log.d(TAG, "Sent " + batch.size() + " message(s)");
+                for (PendingSend sent : batch) {
+                    sent.result.complete(null);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // close() interrupts the writer
+        } catch (IOException e) {
+            Log.e(TAG, "Error sending message: " + e.getMessage());
+            for (PendingSend failed : batch) {
+                failed.result.completeExceptionally(e);
+            }
+            batch.clear();
+            close();
+        } finally {
+            for (PendingSend unsent : batch) {
+                unsent.result.completeExceptionally(new IOException("Client is closed"));
+            }
+            failPendingSends(new IOException("Client is closed"));
+        }
+    }
+
+    // Writer thread only
+    private void write(ChatMessage message) throws IOException {
+        if (format == WireFormat.JSON_LINES) {
+            if (message.isControl()) {
+                return; // An older hub knows no control messages
+            }
+            out.write(EncodedFrame.ofLine(codec.encode(message)));
+            return;
+        }
+        FrameCompressor frameCompressor = format == WireFormat.BINARY_COMPRESSED ? compressor : null;
+        SenderIdentity sender = null;
+        if (!message.isControl()) {
+            if (registering == null || !registering.matches(message)) {
+                // First message of the session, or the nickname changed: register once, and send
+                // in full until the hub acknowledges. The hub reads in order, so everything after
+                // the registration is resolved against it.
+                registering = new SenderIdentity(0, message.getSenderIp(), message.getSenderName());
+                out.write(BinaryWireCodec.encode(registering.toControl(ChatMessage.TYPE_REGISTER)));
             } else {
-                Log.w(TAG, "Cannot send message, client not connected or output stream is null.");
+                SenderIdentity own = registered;
+                if (own != null && own.matches(message)) {
+                    sender = own;
+                }
             }
-        }).start();
+        }
+        out.write(BinaryWireCodec.encode(message, frameCompressor, sender));
+    }
+
+    private void failPendingSends(IOException reason) {
+        PendingSend pending;
+        while ((pending = sendQueue.poll()) != null) {
+            pending.result.completeExceptionally(reason);
+        }
     }
 
     public void close() {
+        closed = true;
         if (listenTask != null) {
             listenTask.cancel(true); // Interrupt the listening thread
         }
-        if (executorService != null) {
-            executorService.shutdownNow();
+        if (writerTask != null) {
+            writerTask.cancel(true); // Writer fails whatever is still queued on its way out
+        }
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
         }
+        failPendingSends(new IOException("Client is closed"));
         try {
+            // Close the socket first: it unblocks a reader or writer that still holds the stream locks
+            boolean wasOpen = socket != null && !socket.isClosed();
+            if (wasOpen) {
+                socket.close();
+            }
             if (in != null) in.close();
             if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (wasOpen) {
                 Log.d(TAG, "Chat client closed.");
                 if (connectionStatusListener != null) {
                     connectionStatusListener.onDisconnected(); // Notify about disconnect on explicit close
@@ -3,29 +3,66 @@ package com.mui.lanchat.network;
 import android.util.Log;
 
 import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.model.ChatMessageCodec;
+import com.mui.lanchat.model.JsonChatMessageCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer {
 
     private static final String TAG = "ChatServer";
     public static final int CHAT_PORT = 8080; // Port for TCP chat communication
 
+    /**
+     * How the server multiplexes its clients. THREAD_PER_CLIENT keeps one blocking reader per
+     * connection; SELECTOR serves every connection from a small fixed set of NIO threads.
+     */
+    public enum Engine {
+        THREAD_PER_CLIENT,
+        SELECTOR
+    }
+
+    private final Engine engine;
+    private SelectorChatEngine selectorEngine;
     private ServerSocket serverSocket;
     private boolean running = false;
-    private ExecutorService clientThreadPool;
+    private final NetworkScheduler scheduler;
+    private Future<?> acceptTask;
+    private ScheduledFuture<?> heartbeatTask;
     private List<ClientHandler> connectedClients;
     private OnMessageReceivedListener messageListener;
     private OnClientConnectionListener connectionListener;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.defaultPolicy();
+    private TransportProfile transportProfile = TransportProfile.lowLatency();
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.defaultPolicy();
+    private ConnectionAdmission admission;
+    private HeartbeatPolicy heartbeatPolicy = HeartbeatPolicy.defaultPolicy();
+    private ChatMessageCodec codec = JsonChatMessageCodec.getInstance();
+    private CompressionPolicy compressionPolicy = CompressionPolicy.defaultPolicy();
+    private FrameCompressor compressor;
+    private OutboundMessage pingMessage;
+    private OutboundMessage pongMessage;
+    private final AtomicInteger nextSenderId = new AtomicInteger();
+    private final ChatServerStats stats = new ChatServerStats();
+    private final SeenMessageWindow seenMessages = new SeenMessageWindow();
+    private volatile boolean relayEnabled = false;
+    private int port = CHAT_PORT;
+    private volatile int boundPort;       // 0 until listening
+    private volatile long startedNanos;
+    private volatile String nickname = "";
 
     public interface OnMessageReceivedListener {
         void onMessageReceived(ChatMessage message);
@@ -38,10 +75,100 @@ public class ChatServer {
     }
 
     public ChatServer(OnMessageReceivedListener messageListener, OnClientConnectionListener connectionListener) {
+        this(messageListener, connectionListener, Engine.THREAD_PER_CLIENT);
+    }
+
+    public ChatServer(OnMessageReceivedListener messageListener, OnClientConnectionListener connectionListener, Engine engine) {
+        this(messageListener, connectionListener, engine, NetworkScheduler.getShared());
+    }
+
+    public ChatServer(OnMessageReceivedListener messageListener, OnClientConnectionListener connectionListener,
+                      Engine engine, NetworkScheduler scheduler) {
+        this.engine = engine;
+        this.scheduler = scheduler;
         this.messageListener = messageListener;
         this.connectionListener = connectionListener;
-        this.connectedClients = new ArrayList<>();
-        this.clientThreadPool = Executors.newCachedThreadPool(); // Flexible thread pool for clients
+        // Copy-on-write: broadcasts iterate a snapshot and never contend with accept/disconnect
+        this.connectedClients = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Must be called before {@link #startServer()}; connections keep the policy they were created with.
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+        this.slowConsumerPolicy = policy;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}.
+     */
+    public void setTransportProfile(TransportProfile profile) {
+        this.transportProfile = profile;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}.
+     */
+    public void setAdmissionPolicy(AdmissionPolicy policy) {
+        this.admissionPolicy = policy;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}.
+     */
+    public void setHeartbeatPolicy(HeartbeatPolicy policy) {
+        this.heartbeatPolicy = policy;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}. Clients must speak the same codec.
+     */
+    public void setCodec(ChatMessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}. Only clients that ask for compression in their
+     * handshake get compressed frames.
+     */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        this.compressionPolicy = policy;
+    }
+
+    /**
+     * In relay mode the server acts as a hub: every message received from one client is forwarded
+     * to all other clients, never back to its origin, and duplicates are dropped by message ID.
+     */
+    public void setRelayEnabled(boolean relayEnabled) {
+        this.relayEnabled = relayEnabled;
+    }
+
+    /**
+     * Must be called before {@link #startServer()}. Port 0 picks any free port, so several
+     * instances can run on one host; discovery advertises the port actually bound.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /** The port the server listens on, or 0 while it is not listening. */
+    public int getPort() {
+        return boundPort;
+    }
+
+    /** The name discovery beacons advertise for this hub; may change at any time. */
+    public void setNickname(String nickname) {
+        this.nickname = nickname == null ? "" : nickname;
+    }
+
+    /** Clients connected right now, over either engine. */
+    public int getClientCount() {
+        SelectorChatEngine selector = selectorEngine;
+        return selector != null ? selector.getConnectionCount() : connectedClients.size();
+    }
+
+    public ChatServerStats getStats() {
+        return stats;
     }
 
     public void startServer() {
@@ -51,41 +178,145 @@ public class ChatServer {
         }
 
         running = true;
-        new Thread(() -> {
-            try {
-                serverSocket = new ServerSocket(CHAT_PORT);
-                Log.d(TAG, "Chat Server started on port " + CHAT_PORT);
+        startedNanos = System.nanoTime();
+        admission = new ConnectionAdmission(admissionPolicy);
+        compressor = new FrameCompressor(compressionPolicy, stats.compression);
+        pingMessage = new OutboundMessage(ChatMessage.ping(), codec, compressor);
+        pongMessage = new OutboundMessage(ChatMessage.pong(), codec, compressor);
+        startHeartbeats();
+        if (engine == Engine.SELECTOR) {
+            startSelectorEngine();
+            return;
+        }
+        try {
+            acceptTask = scheduler.executeLoop("chat-accept", this::runAcceptLoop);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Cannot start Chat Server: " + e.getMessage());
+            running = false;
+            if (connectionListener != null) {
+                connectionListener.onChatServerError("Server error: " + e.getMessage());
+            }
+        }
+    }
 
-                while (running) {
-                    Socket clientSocket = serverSocket.accept(); // Blocks until a client connects
-                    Log.d(TAG, "New client connected: " + clientSocket.getInetAddress().getHostAddress());
+    private void runAcceptLoop() {
+        try {
+            serverSocket = new ServerSocket();
+            transportProfile.applyTo(serverSocket);
+            serverSocket.bind(new InetSocketAddress(port));
+            boundPort = serverSocket.getLocalPort();
+            DiscoveryResponder.getShared().setServer(this);
+            Log.d(TAG, "Chat Server started on port " + boundPort);
 
-                    ClientHandler clientHandler = new ClientHandler(clientSocket);
-                    synchronized (connectedClients) {
-                        connectedClients.add(clientHandler);
-                    }
-                    clientThreadPool.execute(clientHandler);
+            while (running) {
+                Socket clientSocket = serverSocket.accept(); // Blocks until a client connects
+                String ip = clientSocket.getInetAddress().getHostAddress();
+                if (!admission.tryAdmit(ip)) {
+                    stats.rejectedConnections.incrementAndGet();
+                    Log.w(TAG, "Refusing client " + ip + ": connection limit reached");
+                    closeQuietly(clientSocket);
+                    continue;
+                }
+                transportProfile.applyTo(clientSocket);
+                Log.d(TAG, "New client connected: " + ip);
 
-                    if (connectionListener != null) {
-                        connectionListener.onClientConnected(clientSocket.getInetAddress().getHostAddress());
-                    }
+                ClientHandler clientHandler = new ClientHandler(clientSocket);
+                connectedClients.add(clientHandler);
+                try {
+                    scheduler.executeLoop("chat-client " + clientHandler.clientIp, clientHandler);
+                    scheduler.schedule(clientHandler::onHandshakeTimeout, Handshake.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Out of thread budget: refuse the peer rather than growing the thread count
+                    Log.w(TAG, "Refusing client " + clientHandler.clientIp + ": " + e.getMessage());
+                    connectedClients.remove(clientHandler);
+                    clientHandler.close();
+                    admission.release(ip);
+                    continue;
                 }
-            } catch (IOException e) {
-                if (running) { // Only log if server was supposed to be running
-                    Log.e(TAG, "IOException in Chat Server: " + e.getMessage());
-                    if (connectionListener != null) {
-                        connectionListener.onChatServerError("Server error: " + e.getMessage()); // <--- MODIFIED LINE
-                    }
+
+                if (connectionListener != null) {
+                    connectionListener.onClientConnected(ip);
                 }
-            } finally {
-                stopServer(); // Ensure server is stopped on error or explicit stop
-                Log.d(TAG, "Chat Server stopped.");
             }
-        }).start();
+        } catch (IOException e) {
+            if (running) { // Only log if server was supposed to be running
+                Log.e(TAG, "IOException in Chat Server: " + e.getMessage());
+                if (connectionListener != null) {
+                    connectionListener.onChatServerError("Server error: " + e.getMessage()); // <--- MODIFIED LINE
+                }
+            }
+        } finally {
+            stopServer(); // Ensure server is stopped on error or explicit stop
+            Log.d(TAG, "Chat Server stopped.");
+        }
+    }
+
+    private void startHeartbeats() {
+        if (!heartbeatPolicy.isEnabled()) {
+            return;
+        }
+        long tickMillis = Math.max(1, heartbeatPolicy.getIntervalMillis() / 2);
+        heartbeatTask = scheduler.scheduleWithFixedDelay(this::checkHeartbeats,
+                tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Timer thread: ping peers that have gone quiet, reap the ones that stayed quiet too long.
+    // Only peers that understand controls take part; the rest are left to TCP.
+    private void checkHeartbeats() {
+        long now = System.nanoTime();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatPolicy.getIntervalMillis());
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatPolicy.getTimeoutMillis());
+        SelectorChatEngine selector = selectorEngine;
+        Iterable<? extends PeerConnection> peers = selector != null ? selector.getConnections() : connectedClients;
+        for (PeerConnection peer : peers) {
+            if (!peer.understandsControls()) {
+                continue; // Clients that predate the handshake never answer a ping
+            }
+            long silentNanos = now - peer.getLastReadNanos();
+            if (silentNanos >= timeoutNanos) {
+                stats.heartbeatTimeouts.incrementAndGet();
+                Log.w(TAG, "Client " + peer.getClientIp() + " silent for "
+                        + TimeUnit.NANOSECONDS.toMillis(silentNanos) + " ms, disconnecting.");
+                peer.close(); // Both engines run their usual disconnect path from here
+            } else if (silentNanos >= intervalNanos) {
+                peer.send(pingMessage);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing refused socket: " + e.getMessage());
+        }
+    }
+
+    private void startSelectorEngine() {
+        selectorEngine = new SelectorChatEngine(port, SelectorChatEngine.defaultIoThreads(),
+                slowConsumerPolicy, transportProfile, admissionPolicy, admission, codec, compressor, stats, scheduler,
+                this, connectionListener);
+        try {
+            selectorEngine.start();
+            boundPort = Math.max(0, selectorEngine.getLocalPort());
+            DiscoveryResponder.getShared().setServer(this);
+        } catch (IOException | RejectedExecutionException e) {
+            Log.e(TAG, "IOException starting selector engine: " + e.getMessage());
+            if (connectionListener != null) {
+                connectionListener.onChatServerError("Server error: " + e.getMessage());
+            }
+            stopServer();
+        }
     }
 
     public void stopServer() {
         running = false;
+        boundPort = 0;
+        DiscoveryResponder.getShared().clearServer(this);
+        if (selectorEngine != null) {
+            selectorEngine.stop();
+            selectorEngine = null;
+        }
         if (serverSocket != null && !serverSocket.isClosed()) {
             try {
                 serverSocket.close();
@@ -93,39 +324,185 @@ public class ChatServer {
                 Log.e(TAG, "Error closing server socket: " + e.getMessage());
             }
         }
-        if (clientThreadPool != null) {
-            clientThreadPool.shutdownNow(); // Attempt to stop all client threads
+        if (acceptTask != null) {
+            acceptTask.cancel(true);
+            acceptTask = null;
         }
-        synchronized (connectedClients) {
-            for (ClientHandler handler : connectedClients) {
-                handler.close();
-            }
-            connectedClients.clear();
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+        for (ClientHandler handler : connectedClients) {
+            handler.close();
         }
+        connectedClients.clear();
     }
 
-    // Method to broadcast a message to all connected clients
+    /** This hub as a discovery beacon answering the scan with {@code nonce}; null if not listening. */
+    DiscoveryBeacon describe(long instanceId, long nonce) {
+        int listening = boundPort;
+        if (listening == 0) {
+            return null;
+        }
+        int features = DiscoveryBeacon.FEATURE_BINARY_FRAMES;
+        if (compressionPolicy.isEnabled()) {
+            features |= DiscoveryBeacon.FEATURE_DEFLATE;
+        }
+        if (relayEnabled) {
+            features |= DiscoveryBeacon.FEATURE_RELAY;
+        }
+        return new DiscoveryBeacon(instanceId, nonce, listening, features, getClientCount(),
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedNanos), nickname);
+    }
+
+    // Method to broadcast a message to all connected clients.
+    // Messages the server has already delivered or relayed are skipped, so it is safe to
+    // forward a message that arrived through another connection.
     public void broadcastMessage(ChatMessage message) {
-        String jsonMessage = message.toJson();
-        synchronized (connectedClients) {
-            for (ClientHandler client : connectedClients) {
-                client.sendMessage(jsonMessage);
+        message.assignMessageIdIfMissing();
+        if (!seenMessages.markSeen(message.getMessageId())) {
+            return;
+        }
+        send(new OutboundMessage(message, codec, compressor), null);
+    }
+
+    // Called by both engines for every message parsed from a client
+    void onInboundMessage(ChatMessage message, PeerConnection origin) {
+        if (message.isControl()) {
+            if (message.isPing()) {
+                origin.send(pongMessage);
+            } else if (ChatMessage.TYPE_REGISTER.equals(message.getType())) {
+                registerSender(message, origin);
             }
+            return;
+        }
+        message.assignMessageIdIfMissing();
+        if (!seenMessages.markSeen(message.getMessageId())) {
+            stats.duplicateMessagesDropped.incrementAndGet();
+            Log.d(TAG, "Dropped duplicate message " + message.getMessageId() + " from " + origin.getClientIp());
+            return;
+        }
+        if (relayEnabled) {
+            stats.relayedMessages.incrementAndGet();
+            // Messages in the origin's registered identity go to binary peers as a sender ID
+            SenderIdentity sender = origin.getSender();
+            if (sender != null && !sender.matches(message)) {
+                sender = null;
+            }
+            send(new OutboundMessage(message, codec, compressor, sender), origin);
+        }
+        if (messageListener != null) {
+            messageListener.onMessageReceived(message);
         }
     }
 
-    private class ClientHandler implements Runnable {
+    /**
+     * Relays a chat message in the encoding it arrived in, deciding from its header alone, and
+     * returns false if it needs the full decode instead: controls, messages without an ID and
+     * sender IDs the origin does not own. The message is only decoded if there is a listener or a
+     * peer that speaks another format. Called by both engines on their reader thread; the bytes
+     * are only valid during the call.
+     */
+    boolean relayAsReceived(RelayHeader header, WireFormat format, byte[] data, int offset, int length,
+                            PeerConnection origin) {
+        if (!relayEnabled || header.control || header.messageId == 0
+                || (header.compressed && format != WireFormat.BINARY_COMPRESSED)) {
+            return false;
+        }
+        final SenderIdentity sender = header.senderId != 0 ? origin.getSender() : null;
+        if (header.senderId != 0 && (sender == null || sender.id != header.senderId)) {
+            return false;
+        }
+        if (!seenMessages.markSeen(header.messageId)) {
+            stats.duplicateMessagesDropped.incrementAndGet();
+            Log.d(TAG, "Dropped duplicate message " + header.messageId + " from " + origin.getClientIp());
+            return true;
+        }
+        ChatMessage message = null;
+        if (messageListener != null) {
+            try {
+                message = format.isBinary()
+                        ? BinaryWireCodec.decode(data, offset, length, header.compressed ? compressor : null,
+                                id -> sender != null && sender.id == id ? sender : null,
+                                transportProfile.getMaxFrameBytes())
+                        : codec.decode(new String(data, offset, length, StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                Log.e(TAG, "Error decoding message from " + origin.getClientIp() + ": " + e.getMessage());
+                return true;
+            }
+        }
+        stats.relayedMessages.incrementAndGet();
+        stats.relayedAsReceived.incrementAndGet();
+        EncodedFrame frame = format.isBinary()
+                ? EncodedFrame.pooledFrame(data, offset, length, BufferPool.getShared())
+                : EncodedFrame.pooledLine(data, offset, length, BufferPool.getShared());
+        // Only frames that are actually compressed are unreadable on an uncompressed connection
+        WireFormat frameFormat = format == WireFormat.BINARY_COMPRESSED && !header.compressed
+                ? WireFormat.BINARY : format;
+        OutboundMessage relayed = OutboundMessage.relayed(frame, frameFormat, message, codec, compressor,
+                sender, transportProfile.getMaxFrameBytes());
+        send(relayed, origin);
+        relayed.release(); // Queued peers hold their own references now
+        if (message != null) {
+            messageListener.onMessageReceived(message);
+        }
+        return true;
+    }
+
+    // A client registers once per session and again for each nickname change; the ID stays the same
+    private void registerSender(ChatMessage registration, PeerConnection origin) {
+        SenderIdentity current = origin.getSender();
+        int id = current != null ? current.id : nextSenderId.incrementAndGet();
+        SenderIdentity identity = new SenderIdentity(id, registration.getSenderIp(), registration.getSenderName());
+        origin.setSender(identity);
+        origin.send(new OutboundMessage(identity.toControl(ChatMessage.TYPE_REGISTERED), codec, compressor));
+    }
+
+    // Encoded at most once per wire format; every connection shares the same immutable bytes
+    private void send(OutboundMessage message, PeerConnection exclude) {
+        SelectorChatEngine selector = selectorEngine;
+        if (selector != null) {
+            selector.broadcast(message, exclude);
+            return;
+        }
+        for (ClientHandler client : connectedClients) {
+            if (client != exclude) {
+                client.send(message);
+            }
+        }
+    }
+
+    private class ClientHandler implements Runnable, PeerConnection, FrameDecoder.Sink {
+        private static final int READ_BUFFER_SIZE = 8 * 1024;
+
         private Socket clientSocket;
-        private PrintWriter out;
-        private BufferedReader in;
+        private CoalescingOutput out;
+        private InputStream in;
         private String clientIp;
+        private final OutboundQueue<OutboundMessage> outbound =
+                new OutboundQueue<>(slowConsumerPolicy, OutboundMessage::release);
+        private final AtomicBoolean writerActive = new AtomicBoolean();
+        private final InboundRateLimiter rateLimiter = new InboundRateLimiter(admissionPolicy);
+        private final FrameDecoder decoder =
+                new FrameDecoder(transportProfile.getMaxFrameBytes(), BufferPool.getShared());
+        private volatile WireFormat format; // Null until the handshake settles it; nothing is written before
+        private volatile long lastReadNanos = System.nanoTime();
+        private volatile SenderIdentity sender;
+        // A client may only refer to the identity it registered itself
+        private final SenderIdentity.Table senderTable = id -> {
+            SenderIdentity own = sender;
+            return own != null && own.id == id ? own : null;
+        };
+        private final SenderAnnouncements announcements = new SenderAnnouncements();
+        private final RelayHeader relayHeader = new RelayHeader(); // Reader only
+        private long pauseNanos; // Reader thread only: throttling owed for the current read
 
         public ClientHandler(Socket socket) {
             this.clientSocket = socket;
             this.clientIp = socket.getInetAddress().getHostAddress();
             try {
-                out = new PrintWriter(clientSocket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                out = new CoalescingOutput(clientSocket.getOutputStream(), transportProfile, stats.transport);
+                in = clientSocket.getInputStream();
             } catch (IOException e) {
                 Log.e(TAG, "Error initializing ClientHandler streams: " + e.getMessage());
                 close();
@@ -134,53 +511,262 @@ public class ChatServer {
 
         @Override
         public void run() {
+            byte[] buffer = BufferPool.getShared().acquire(READ_BUFFER_SIZE);
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    Log.d(TAG, "Received from client " + clientIp + ": " + line);
-                    try {
-                        ChatMessage receivedMessage = ChatMessage.fromJson(line);
-                        if (messageListener != null) {
-                            messageListener.onMessageReceived(receivedMessage);
-                        }
-                        // Optionally, broadcast received message to other clients
-                        // broadcastMessage(receivedMessage); // Uncomment if you want server to re-broadcast
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error parsing received message from " + clientIp + ": " + e.getMessage());
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    lastReadNanos = System.nanoTime();
+                    decoder.feed(buffer, 0, read, this);
+                    if (pauseNanos > 0) {
+                        // Not reading lets the socket buffers fill, so TCP slows the sender down for us
+                        stats.throttledReads.incrementAndGet();
+                        stats.throttledMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(pauseNanos));
+                        TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                        pauseNanos = 0;
                     }
                 }
             } catch (IOException e) {
                 Log.e(TAG, "Client " + clientIp + " disconnected: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
+                BufferPool.getShared().release(buffer);
+                decoder.release();
                 close();
-                synchronized (connectedClients) {
-                    connectedClients.remove(this);
-                }
+                connectedClients.remove(this);
+                admission.release(clientIp);
                 if (connectionListener != null) {
                     connectionListener.onClientDisconnected(clientIp);
                 }
             }
         }
 
-        public void sendMessage(final String msg) {
-            new Thread(() -> {
-                if (out != null && !clientSocket.isClosed()) {
-                    out.println(msg);
-                    Log.d(TAG, "Sent message to " + clientIp + ": " + msg);
+        @Override
+        public void onLine(byte[] data, int offset, int length) throws IOException {
+            if (format == null) {
+                Handshake hello = Handshake.parse(new String(data, offset, length, StandardCharsets.UTF_8));
+                if (hello != null) {
+                    acceptHandshake(hello);
+                    return;
                 }
-            }).start();
+                settleFormat(WireFormat.JSON_LINES); // First line is JSON: a client that predates the handshake
+            }
+            if (!admitInbound(length + 1)) {
+                return;
+            }
+            if (relayHeader.readJsonLine(data, offset, length)
+                    && relayAsReceived(relayHeader, WireFormat.JSON_LINES, data, offset, length, this)) {
+                return;
+            }
+            String line = new String(data, offset, length, StandardCharsets.UTF_8);
+            Log.d(TAG, "Received from client " + clientIp + ": " + line);
+            try {
+                onInboundMessage(codec.decode(line), this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error parsing received message from " + clientIp + ": " + e.getMessage());
+            }
         }
 
+        @Override
+        public void onFrame(byte[] data, int offset, int length) {
+            if (!admitInbound(length + 1)) {
+                return;
+            }
+            if (relayHeader.readFrame(data, offset, length)
+                    && relayAsReceived(relayHeader, format, data, offset, length, this)) {
+                return;
+            }
+            try {
+                onInboundMessage(BinaryWireCodec.decode(data, offset, length,
+                        format == WireFormat.BINARY_COMPRESSED ? compressor : null, senderTable,
+                        transportProfile.getMaxFrameBytes()), this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error decoding frame from " + clientIp + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onOversizedFrame(int length) {
+            Log.e(TAG, "Skipping " + length + "-byte frame from " + clientIp);
+            stats.oversizedFramesSkipped.incrementAndGet();
+            // Skipped bytes still cost bandwidth, so a stream of them is throttled like messages
+            if (rateLimiter.isThrottling()) {
+                pauseNanos = Math.max(pauseNanos, rateLimiter.acquire(length));
+            } else {
+                rateLimiter.tryAcquire(length);
+            }
+        }
+
+        // False if the message must be dropped; in throttle mode records how long to stop reading
+        private boolean admitInbound(int messageBytes) {
+            if (rateLimiter.isThrottling()) {
+                pauseNanos = Math.max(pauseNanos, rateLimiter.acquire(messageBytes));
+                return true;
+            }
+            if (!rateLimiter.tryAcquire(messageBytes)) {
+                stats.rateLimitedMessagesDropped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private synchronized void acceptHandshake(Handshake hello) throws IOException {
+            if (format != null) {
+                return; // Too late: already fell back to JSON lines, and the client will too
+            }
+            Handshake reply = hello.agree(compressor.isEnabled());
+            // The writer only starts once the format is settled, so the reply is the first thing sent
+            out.write(reply.toFrame());
+            out.flush();
+            WireFormat agreedFormat = reply.format();
+            decoder.setFormat(agreedFormat);
+            settleFormat(agreedFormat);
+        }
+
+        // Timer thread: a client that has not spoken yet predates the handshake
+        void onHandshakeTimeout() {
+            settleFormat(WireFormat.JSON_LINES);
+        }
+
+        private synchronized void settleFormat(WireFormat settled) {
+            if (format != null) {
+                return;
+            }
+            format = settled;
+            if (!outbound.isEmpty()) {
+                startWriter();
+            }
+        }
+
+        @Override
+        public String getClientIp() {
+            return clientIp;
+        }
+
+        @Override
+        public long getLastReadNanos() {
+            return lastReadNanos;
+        }
+
+        @Override
+        public boolean understandsControls() {
+            WireFormat settled = format;
+            return settled != null && settled.isBinary();
+        }
+
+        @Override
+        public SenderIdentity getSender() {
+            return sender;
+        }
+
+        @Override
+        public void setSender(SenderIdentity sender) {
+            this.sender = sender;
+        }
+
+        // Never blocks the caller: the message is queued and a single writer task drains it in order
+        @Override
+        public void send(final OutboundMessage message) {
+            if (clientSocket.isClosed()) {
+                return;
+            }
+            message.retain(); // Before the writer can see it
+            switch (outbound.offer(message)) {
+                case EVICT:
+                    message.release();
+                    stats.slowConsumerEvictions.incrementAndGet();
+                    Log.w(TAG, "Client " + clientIp + " is too slow (" + outbound.size() + " queued), disconnecting.");
+                    close(); // Reader loop sees the closed socket and runs the disconnect path
+                    return;
+                case DROPPED_BACKLOG:
+                    long dropped = outbound.takeDroppedCount();
+                    stats.droppedOutboundMessages.addAndGet(dropped);
+                    Log.w(TAG, "Client " + clientIp + " is too slow, dropped " + dropped + " queued message(s).");
+                    break;
+                default:
+                    break;
+            }
+            if (format != null) {
+                startWriter();
+            }
+        }
+
+        private void startWriter() {
+            if (writerActive.compareAndSet(false, true)) {
+                try {
+                    scheduler.execute("chat-writer " + clientIp, this::drainOutbound);
+                } catch (RejectedExecutionException e) {
+                    writerActive.set(false);
+                    Log.w(TAG, "No writer available for " + clientIp + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private void drainOutbound() {
+            long flushWindow = transportProfile.getFlushWindowMillis();
+            WireFormat wireFormat = format;
+            while (true) {
+                try {
+                    boolean waited = false;
+                    while (true) {
+                        OutboundMessage message;
+                        while ((message = outbound.poll()) != null) {
+                            try {
+                                if (out == null || clientSocket.isClosed()) {
+                                    outbound.clear();
+                                    break;
+                                }
+                                EncodedFrame frame = message.frameFor(wireFormat);
+                                if (frame == null) {
+                                    continue;
+                                }
+                                EncodedFrame announcement = announcements.before(message, wireFormat);
+                                if (announcement != null) {
+                                    out.write(announcement);
+                                }
+                                out.write(frame); // Copied or written through: the frame is not kept
+                            } finally {
+                                message.release();
+                            }
+                        }
+                        // Give a burst one window to catch up so it leaves in a single write
+                        if (flushWindow == 0 || waited || out == null || !out.hasPending()) {
+                            break;
+                        }
+                        waited = true;
+                        Thread.sleep(flushWindow);
+                    }
+                    if (out != null) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error writing to client " + clientIp + ": " + e.getMessage());
+                    close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Pool is shutting down
+                    return;
+                }
+                writerActive.set(false);
+                // A frame may have been queued after the drain finished but before the flag cleared
+                if (outbound.isEmpty() || !writerActive.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
         public void close() {
             try {
-                if (in != null) in.close();
-                if (out != null) out.close();
+                // Close the socket first: it unblocks a reader or writer that still holds the stream locks
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
                 }
+                if (in != null) in.close();
+                if (out != null) out.close();
             } catch (IOException e) {
                 Log.e(TAG, "Error closing client socket: " + e.getMessage());
             }
+            stats.droppedOutboundMessages.addAndGet(outbound.clear());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.mui.lanchat.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters shared by every engine of a {@link ChatServer}. Values are cumulative for the life of
+ * the server instance and safe to read from any thread.
+ */
+public class ChatServerStats {
+
+    final AtomicLong slowConsumerEvictions = new AtomicLong();
+    final AtomicLong droppedOutboundMessages = new AtomicLong();
+    final AtomicLong relayedMessages = new AtomicLong();
+    final AtomicLong relayedAsReceived = new AtomicLong();
+    final AtomicLong duplicateMessagesDropped = new AtomicLong();
+    final AtomicLong heartbeatTimeouts = new AtomicLong();
+    final AtomicLong rejectedConnections = new AtomicLong();
+    final AtomicLong throttledReads = new AtomicLong();
+    final AtomicLong throttledMillis = new AtomicLong();
+    final AtomicLong rateLimitedMessagesDropped = new AtomicLong();
+    final AtomicLong oversizedFramesSkipped = new AtomicLong();
+    final TransportStats transport = new TransportStats();
+    final CompressionStats compression = new CompressionStats();
+
+    /** Peers disconnected because they could not keep up with outbound traffic. */
+    public long getSlowConsumerEvictions() {
+        return slowConsumerEvictions.get();
+    }
+
+    /** Outbound messages discarded from slow peers' backlogs. */
+    public long getDroppedOutboundMessages() {
+        return droppedOutboundMessages.get();
+    }
+
+    /** Inbound messages forwarded to the other clients in relay mode. */
+    public long getRelayedMessages() {
+        return relayedMessages.get();
+    }
+
+    /** Relayed messages forwarded in the bytes they arrived in, routed on their header alone. */
+    public long getRelayedAsReceived() {
+        return relayedAsReceived.get();
+    }
+
+    /** Inbound messages ignored because their ID was already seen. */
+    public long getDuplicateMessagesDropped() {
+        return duplicateMessagesDropped.get();
+    }
+
+    /** Peers disconnected because they stopped answering heartbeats. */
+    public long getHeartbeatTimeouts() {
+        return heartbeatTimeouts.get();
+    }
+
+    /** Connections refused by the per-IP or total connection caps. */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /** Times a client's reads were paused because it exceeded its rate limit. */
+    public long getThrottledReads() {
+        return throttledReads.get();
+    }
+
+    /** Total time clients spent paused by rate limiting. */
+    public long getThrottledMillis() {
+        return throttledMillis.get();
+    }
+
+    /** Inbound messages discarded because their sender exceeded its rate limit. */
+    public long getRateLimitedMessagesDropped() {
+        return rateLimitedMessagesDropped.get();
+    }
+
+    /** Binary frames discarded unread because they exceeded the transport profile's frame limit. */
+    public long getOversizedFramesSkipped() {
+        return oversizedFramesSkipped.get();
+    }
+
+    /** Outbound write coalescing across all client connections. */
+    public TransportStats getTransport() {
+        return transport;
+    }
+
+    /** Frame compression on connections that negotiated it. */
+    public CompressionStats getCompression() {
+        return compression;
+    }
+}
@@ -0,0 +1,58 @@
+package com.mui.lanchat.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Packs encoded frames into one buffer and hands them to the socket in a single write on
+ * {@link #flush()}. Frames larger than the buffer bypass it.
+ */
+final class CoalescingOutput {
+
+    private final OutputStream out;
+    private final TransportStats stats;
+    private final byte[] buffer;
+    private int length;
+    private int bufferedMessages;
+
+    CoalescingOutput(OutputStream out, TransportProfile profile, TransportStats stats) {
+        this.out = out;
+        this.stats = stats;
+        this.buffer = new byte[profile.getMaxCoalesceBytes()];
+    }
+
+    synchronized void write(EncodedFrame frame) throws IOException {
+        if (frame.length() > buffer.length - length) {
+            flush();
+        }
+        if (frame.length() >= buffer.length) {
+            frame.writeTo(out);
+            out.flush();
+            stats.recordWrite(1, frame.length());
+            return;
+        }
+        frame.copyTo(buffer, length);
+        length += frame.length();
+        bufferedMessages++;
+    }
+
+    synchronized boolean hasPending() {
+        return length > 0;
+    }
+
+    synchronized void flush() throws IOException {
+        if (length == 0) {
+            return;
+        }
+        out.write(buffer, 0, length);
+        out.flush();
+        stats.recordWrite(bufferedMessages, length);
+        length = 0;
+        bufferedMessages = 0;
+    }
+
+    // Not synchronized: the socket is closed first, so a writer blocked in flush() fails fast
+    void close() throws IOException {
+        out.close();
+    }
+}
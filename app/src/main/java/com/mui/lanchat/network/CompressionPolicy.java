@@ -0,0 +1,45 @@
+package com.mui.lanchat.network;
+
+import java.util.zip.Deflater;
+
+/**
+ * Optional Deflate compression of binary frames, used only when both peers ask for it in the
+ * handshake. Bodies below the threshold are sent as they are: short chat lines gain nothing and
+ * would only pay the CPU cost. A compressed body that is not smaller is also sent uncompressed.
+ */
+public class CompressionPolicy {
+
+    private final boolean enabled;
+    private final int thresholdBytes;
+    private final int level;
+
+    public CompressionPolicy(boolean enabled, int thresholdBytes, int level) {
+        if (thresholdBytes < 0 || level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression policy");
+        }
+        this.enabled = enabled;
+        this.thresholdBytes = thresholdBytes;
+        this.level = level;
+    }
+
+    /** Pasted text and logs get compressed; anything that fits in a typical chat line does not. */
+    public static CompressionPolicy defaultPolicy() {
+        return new CompressionPolicy(true, 512, Deflater.BEST_SPEED);
+    }
+
+    public static CompressionPolicy disabled() {
+        return new CompressionPolicy(false, 0, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mui.lanchat.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for negotiated frame compression. The ratio covers compressed frames only; frames below
+ * the threshold or that did not shrink are counted separately and sent as they were.
+ */
+public class CompressionStats {
+
+    private final AtomicLong framesCompressed = new AtomicLong();
+    private final AtomicLong framesBelowThreshold = new AtomicLong();
+    private final AtomicLong framesIncompressible = new AtomicLong();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong framesDecompressed = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    void recordCompressed(int before, int after, long nanos) {
+        framesCompressed.incrementAndGet();
+        bytesBeforeCompression.addAndGet(before);
+        bytesAfterCompression.addAndGet(after);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void recordBelowThreshold() {
+        framesBelowThreshold.incrementAndGet();
+    }
+
+    void recordIncompressible(long nanos) {
+        framesIncompressible.incrementAndGet();
+        compressNanos.addAndGet(nanos);
+    }
+
+    void recordDecompressed(long nanos) {
+        framesDecompressed.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    public long getFramesCompressed() {
+        return framesCompressed.get();
+    }
+
+    public long getFramesBelowThreshold() {
+        return framesBelowThreshold.get();
+    }
+
+    /** Frames over the threshold that Deflate could not shrink; their CPU time is still counted. */
+    public long getFramesIncompressible() {
+        return framesIncompressible.get();
+    }
+
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression.get();
+    }
+
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression.get();
+    }
+
+    /** Compressed size over original size for compressed frames; 1.0 before any. */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.get();
+        return before == 0 ? 1.0 : (double) bytesAfterCompression.get() / before;
+    }
+
+    public long getCompressMillis() {
+        return compressNanos.get() / 1_000_000L;
+    }
+
+    public long getFramesDecompressed() {
+        return framesDecompressed.get();
+    }
+
+    public long getDecompressMillis() {
+        return decompressNanos.get() / 1_000_000L;
+    }
+}
@@ -0,0 +1,46 @@
+package com.mui.lanchat.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts live connections per remote IP and in total, refusing new ones over the policy caps.
+ * Every successful {@link #tryAdmit} must be paired with one {@link #release}.
+ */
+final class ConnectionAdmission {
+
+    private final AdmissionPolicy policy;
+    private final ConcurrentHashMap<String, Integer> perIp = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+
+    ConnectionAdmission(AdmissionPolicy policy) {
+        this.policy = policy;
+    }
+
+    boolean tryAdmit(String ip) {
+        int maxTotal = policy.getMaxConnectionsTotal();
+        if (total.incrementAndGet() > maxTotal && maxTotal > 0) {
+            total.decrementAndGet();
+            return false;
+        }
+        final int maxPerIp = policy.getMaxConnectionsPerIp();
+        final boolean[] admitted = new boolean[1];
+        perIp.compute(ip, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (maxPerIp > 0 && current >= maxPerIp) {
+                return count;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        if (!admitted[0]) {
+            total.decrementAndGet();
+        }
+        return admitted[0];
+    }
+
+    void release(String ip) {
+        total.decrementAndGet();
+        perIp.computeIfPresent(ip, (key, count) -> count <= 1 ? null : count - 1);
+    }
+}
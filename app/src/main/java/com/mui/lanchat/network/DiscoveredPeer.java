@@ -0,0 +1,50 @@
+package com.mui.lanchat.network;
+
+import java.util.concurrent.TimeUnit;
+
+/** One entry of the {@link PeerTable}: a peer and when it was last heard from. Immutable. */
+public final class DiscoveredPeer {
+
+    final String key; // Instance ID in hex; the IP address for peers too old to have one
+    private final String ipAddress;
+    private final DiscoveryBeacon beacon; // The peer's latest beacon; null if it has not sent one
+    final long lastSeenNanos;
+
+    DiscoveredPeer(String key, String ipAddress, DiscoveryBeacon beacon, long lastSeenNanos) {
+        this.key = key;
+        this.ipAddress = ipAddress;
+        this.beacon = beacon;
+        this.lastSeenNanos = lastSeenNanos;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    /** What the peer last advertised; null if it was only seen scanning, or predates beacons. */
+    public DiscoveryBeacon getBeacon() {
+        return beacon;
+    }
+
+    /** The advertised chat port, or {@link ChatServer#CHAT_PORT} if nothing was advertised. */
+    public int getChatPort() {
+        return beacon != null ? beacon.getChatPort() : ChatServer.CHAT_PORT;
+    }
+
+    /**
+     * Whether we know where to connect: the peer sent a beacon, or predates beacons and listens on
+     * {@link ChatServer#CHAT_PORT}.
+     */
+    public boolean isConnectable() {
+        return beacon != null || key.equals(ipAddress);
+    }
+
+    public long getMillisSinceSeen() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSeenNanos);
+    }
+
+    @Override
+    public String toString() {
+        return beacon != null ? ipAddress + ":" + beacon.getChatPort() + " (" + beacon + ")" : ipAddress;
+    }
+}
@@ -0,0 +1,244 @@
+package com.mui.lanchat.network;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What a peer tells the network about itself when it answers a discovery scan: where its hub
+ * listens, who runs it, what it speaks and how busy it is. Immutable.
+ *
+ * On the wire a beacon is two magic bytes, a version byte and a sequence of fields tagged as in
+ * {@link BinaryWireCodec}:
+ *
+ * <pre>
+ *   1 instanceId   fixed64; random per process, so instances sharing a host stay apart
+ *   2 nonce        varint; the nonce of the scan being answered, 0 for an unsolicited beacon
+ *   3 chatPort     varint; the TCP port of the peer's hub
+ *   4 features     varint; FEATURE_* bits
+ *   5 clientCount  varint; clients connected to the hub
+ *   6 uptime       varint; seconds since the hub started
+ *   7 nickname     length-delimited UTF-8, at most {@link #MAX_NICKNAME_BYTES}
+ * </pre>
+ *
+ * Readers skip fields they do not know, so fields can be added without a new version; the version
+ * only changes when existing fields change meaning, and readers drop beacons newer than they know.
+ * The magic bytes are not ASCII, so a beacon is never mistaken for a text discovery message.
+ */
+public final class DiscoveryBeacon {
+
+    public static final int VERSION = 1;
+    public static final int MAX_NICKNAME_BYTES = 64;
+
+    /** The hub speaks the binary frame protocol (see {@link Handshake}). */
+    public static final int FEATURE_BINARY_FRAMES = 1;
+    /** The hub compresses frames for clients that ask for it. */
+    public static final int FEATURE_DEFLATE = 1 << 1;
+    /** The hub forwards each client's messages to its other clients. */
+    public static final int FEATURE_RELAY = 1 << 2;
+
+    private static final byte MAGIC_0 = (byte) 0xB7;
+    private static final byte MAGIC_1 = (byte) 0x4C;
+    private static final int HEADER_BYTES = 3;
+
+    private static final int FIELD_INSTANCE_ID = 1;
+    private static final int FIELD_NONCE = 2;
+    private static final int FIELD_CHAT_PORT = 3;
+    private static final int FIELD_FEATURES = 4;
+    private static final int FIELD_CLIENT_COUNT = 5;
+    private static final int FIELD_UPTIME = 6;
+    private static final int FIELD_NICKNAME = 7;
+
+    private final int version;
+    private final long instanceId;
+    final long nonce;
+    private final int chatPort;
+    private final int features;
+    private final int clientCount;
+    private final long uptimeSeconds;
+    private final String nickname;
+
+    DiscoveryBeacon(long instanceId, long nonce, int chatPort, int features, int clientCount,
+                    long uptimeSeconds, String nickname) {
+        this(VERSION, instanceId, nonce, chatPort, features, clientCount, uptimeSeconds, nickname);
+    }
+
+    private DiscoveryBeacon(int version, long instanceId, long nonce, int chatPort, int features,
+                            int clientCount, long uptimeSeconds, String nickname) {
+        this.version = version;
+        this.instanceId = instanceId;
+        this.nonce = nonce;
+        this.chatPort = chatPort;
+        this.features = features;
+        this.clientCount = clientCount;
+        this.uptimeSeconds = uptimeSeconds;
+        this.nickname = nickname == null ? "" : truncate(nickname);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    public int getChatPort() {
+        return chatPort;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) == feature;
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    public long getUptimeSeconds() {
+        return uptimeSeconds;
+    }
+
+    /** Empty if the peer has not set one; cut to {@link #MAX_NICKNAME_BYTES} of UTF-8. */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /** Whether the two describe the peer the same way; the nonce and uptime are not compared. */
+    boolean sameAdvertisement(DiscoveryBeacon other) {
+        return other != null && instanceId == other.instanceId && chatPort == other.chatPort
+                && features == other.features && clientCount == other.clientCount
+                && nickname.equals(other.nickname);
+    }
+
+    byte[] encode() {
+        byte[] name = BinaryWireCodec.utf8(nickname);
+        int length = HEADER_BYTES + 1 + 8
+                + varintFieldSize(nonce) + varintFieldSize(chatPort) + varintFieldSize(features)
+                + varintFieldSize(clientCount) + varintFieldSize(uptimeSeconds)
+                + BinaryWireCodec.stringFieldSize(name);
+        byte[] out = new byte[length];
+        out[0] = MAGIC_0;
+        out[1] = MAGIC_1;
+        out[2] = (byte) VERSION;
+        int offset = HEADER_BYTES;
+        out[offset++] = (byte) BinaryWireCodec.tag(FIELD_INSTANCE_ID, BinaryWireCodec.WIRE_FIXED64);
+        for (int i = 0; i < 8; i++) {
+            out[offset++] = (byte) (instanceId >>> (8 * i));
+        }
+        offset = writeVarintField(FIELD_NONCE, nonce, out, offset);
+        offset = writeVarintField(FIELD_CHAT_PORT, chatPort, out, offset);
+        offset = writeVarintField(FIELD_FEATURES, features, out, offset);
+        offset = writeVarintField(FIELD_CLIENT_COUNT, clientCount, out, offset);
+        offset = writeVarintField(FIELD_UPTIME, uptimeSeconds, out, offset);
+        BinaryWireCodec.writeString(FIELD_NICKNAME, name, out, offset);
+        return out;
+    }
+
+    /** Whether the datagram starts like a beacon, of any version. */
+    static boolean isBeacon(byte[] data, int offset, int length) {
+        return length >= HEADER_BYTES && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+    }
+
+    /**
+     * Decodes a beacon datagram. Null if it is not a beacon, is malformed, is of a version this
+     * reader does not know, or lacks an instance ID or chat port.
+     */
+    static DiscoveryBeacon decode(byte[] data, int offset, int length) {
+        if (!isBeacon(data, offset, length)) {
+            return null;
+        }
+        int version = data[offset + 2] & 0xFF;
+        if (version < 1 || version > VERSION) {
+            return null;
+        }
+        long instanceId = 0;
+        long nonce = 0;
+        long chatPort = 0;
+        long features = 0;
+        long clientCount = 0;
+        long uptimeSeconds = 0;
+        String nickname = null;
+        BinaryWireCodec.FieldReader in = new BinaryWireCodec.FieldReader(
+                data, offset + HEADER_BYTES, length - HEADER_BYTES);
+        try {
+            while (in.hasMore()) {
+                long tag = in.readVarint();
+                int field = (int) (tag >>> 3);
+                switch ((int) (tag & 0x7)) {
+                    case BinaryWireCodec.WIRE_FIXED64: {
+                        long value = in.readFixed64();
+                        if (field == FIELD_INSTANCE_ID) {
+                            instanceId = value;
+                        }
+                        break;
+                    }
+                    case BinaryWireCodec.WIRE_VARINT: {
+                        long value = in.readVarint();
+                        if (field == FIELD_NONCE) {
+                            nonce = value;
+                        } else if (field == FIELD_CHAT_PORT) {
+                            chatPort = value;
+                        } else if (field == FIELD_FEATURES) {
+                            features = value;
+                        } else if (field == FIELD_CLIENT_COUNT) {
+                            clientCount = value;
+                        } else if (field == FIELD_UPTIME) {
+                            uptimeSeconds = value;
+                        }
+                        break;
+                    }
+                    case BinaryWireCodec.WIRE_LENGTH_DELIMITED: {
+                        int valueLength = (int) in.readVarint();
+                        if (field == FIELD_NICKNAME && valueLength <= MAX_NICKNAME_BYTES) {
+                            nickname = in.readString(valueLength);
+                        } else {
+                            in.skip(valueLength);
+                        }
+                        break;
+                    }
+                    default:
+                        return null;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (instanceId == 0 || chatPort < 1 || chatPort > 0xFFFF) {
+            return null;
+        }
+        return new DiscoveryBeacon(version, instanceId, nonce, (int) chatPort, (int) features,
+                (int) Math.min(clientCount, Integer.MAX_VALUE), uptimeSeconds, nickname);
+    }
+
+    // Cuts the nickname at a character boundary so its UTF-8 fits MAX_NICKNAME_BYTES
+    private static String truncate(String nickname) {
+        String value = nickname;
+        while (value.getBytes(StandardCharsets.UTF_8).length > MAX_NICKNAME_BYTES) {
+            int end = value.length() - 1;
+            if (end > 0 && Character.isLowSurrogate(value.charAt(end))) {
+                end--;
+            }
+            value = value.substring(0, end);
+        }
+        return value;
+    }
+
+    private static int varintFieldSize(long value) {
+        return 1 + Varint.size(value);
+    }
+
+    private static int writeVarintField(int field, long value, byte[] out, int offset) {
+        out[offset++] = (byte) BinaryWireCodec.tag(field, BinaryWireCodec.WIRE_VARINT);
+        return Varint.write(value, out, offset);
+    }
+
+    @Override
+    public String toString() {
+        return (nickname.isEmpty() ? "?" : nickname) + " port " + chatPort + ", " + clientCount
+                + " client(s), up " + uptimeSeconds + " s";
+    }
+}
@@ -0,0 +1,41 @@
+package com.mui.lanchat.network;
+
+/**
+ * Pacing of continuous peer discovery. Scans start at the minimum interval and double after every
+ * scan that leaves the peer table unchanged, up to the maximum; any change to the table or to the
+ * network drops back to the minimum. A peer not heard from for the TTL is removed, so the TTL must
+ * cover at least two scans at the slowest rate.
+ */
+public class DiscoveryPolicy {
+
+    private final long minScanIntervalMillis;
+    private final long maxScanIntervalMillis;
+    private final long peerTtlMillis;
+
+    public DiscoveryPolicy(long minScanIntervalMillis, long maxScanIntervalMillis, long peerTtlMillis) {
+        if (minScanIntervalMillis <= 0 || maxScanIntervalMillis < minScanIntervalMillis
+                || peerTtlMillis <= 2 * maxScanIntervalMillis) {
+            throw new IllegalArgumentException("Require 0 < min <= max interval and TTL > 2 * max interval");
+        }
+        this.minScanIntervalMillis = minScanIntervalMillis;
+        this.maxScanIntervalMillis = maxScanIntervalMillis;
+        this.peerTtlMillis = peerTtlMillis;
+    }
+
+    /** Scans every 2 seconds while peers come and go, every 30 once settled; peers expire after 75. */
+    public static DiscoveryPolicy defaultPolicy() {
+        return new DiscoveryPolicy(2000, 30000, 75000);
+    }
+
+    public long getMinScanIntervalMillis() {
+        return minScanIntervalMillis;
+    }
+
+    public long getMaxScanIntervalMillis() {
+        return maxScanIntervalMillis;
+    }
+
+    public long getPeerTtlMillis() {
+        return peerTtlMillis;
+    }
+}
@@ -0,0 +1,118 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decides whether and when this device answers a discovery scan, for both the broadcast server and
+ * the multicast group, so a scan reaching us over both is answered once. The answer is a
+ * {@link DiscoveryBeacon} describing the running {@link ChatServer}; with no server running there
+ * is nothing to advertise and scans go unanswered.
+ *
+ * Answers are spread over a random delay instead of all peers replying the instant a scan lands,
+ * and a peer the requester lists as recently heard does not answer at all: the requester already
+ * has that answer. On a busy subnet most scans are then answered by the few peers that are new to
+ * the requester or about to go stale in its table. Only the delay runs on the scheduler's timer; the
+ * answer is built and sent on an I/O thread, as a send can block on a dozing interface.
+ *
+ * One per process; its instance ID tells this process apart from others on the same host.
+ */
+final class DiscoveryResponder {
+
+    private static final String TAG = "DiscoveryResponder";
+    static final long MIN_REPLY_DELAY_MILLIS = 20;
+    static final long MAX_REPLY_DELAY_MILLIS = 500;
+    private static final int ANSWERED_WINDOW = 256;
+
+    private static final DiscoveryResponder shared = new DiscoveryResponder();
+
+    private final SeenMessageWindow answered = new SeenMessageWindow(ANSWERED_WINDOW);
+    private final Random random = new Random();
+    private final long instanceId;
+    private volatile ChatServer server;
+
+    private DiscoveryResponder() {
+        long id;
+        do {
+            id = random.nextLong() & Long.MAX_VALUE; // Positive, as scans carry it in hex
+        } while (id == 0);
+        instanceId = id;
+    }
+
+    static DiscoveryResponder getShared() {
+        return shared;
+    }
+
+    long getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Whether a discovery message came from this process. Messages without an instance ID come
+     * from older peers, which run one instance per address.
+     */
+    boolean isOwn(long senderInstanceId, String senderIp, String localIp) {
+        if (senderInstanceId != 0) {
+            return senderInstanceId == instanceId;
+        }
+        return localIp != null && localIp.equals(senderIp);
+    }
+
+    synchronized void setServer(ChatServer server) {
+        this.server = server;
+    }
+
+    /** Stops advertising {@code stopped}, unless another server has replaced it already. */
+    synchronized void clearServer(ChatServer stopped) {
+        if (server == stopped) {
+            server = null;
+        }
+    }
+
+    /**
+     * Calls {@code sendReply} with the answer on an I/O thread after a random delay, unless there is nothing to
+     * advertise, the scan lists this instance as already heard, or this scan has been answered
+     * before. Returns whether a reply was scheduled.
+     */
+    boolean answer(final DiscoveryScan scan, final String localIp, NetworkScheduler scheduler,
+                   final Consumer<byte[]> sendReply) {
+        if (server == null || scan.knownInstances.contains(instanceId)) {
+            return false;
+        }
+        if (!answered.markSeen(DiscoveryScan.answerKey(scan.instanceId, scan.nonce))) {
+            return false; // Arrived over the other transport too
+        }
+        long delay = MIN_REPLY_DELAY_MILLIS
+                + (long) (random.nextDouble() * (MAX_REPLY_DELAY_MILLIS - MIN_REPLY_DELAY_MILLIS));
+        scheduler.schedule(() -> {
+            try {
+                scheduler.execute("udp-discovery-reply", () -> {
+                    byte[] reply = reply(scan, localIp); // Built late, so the load it reports is current
+                    if (reply != null) {
+                        sendReply.accept(reply);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Skipping discovery reply: " + e.getMessage()); // The requester scans again
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private byte[] reply(DiscoveryScan scan, String localIp) {
+        ChatServer current = server;
+        if (current == null) {
+            return null;
+        }
+        if (scan.instanceId == 0) {
+            return DiscoveryScan.formatLegacyReply(localIp).getBytes(StandardCharsets.UTF_8);
+        }
+        DiscoveryBeacon beacon = current.describe(instanceId, scan.nonce);
+        return beacon == null ? null : beacon.encode();
+    }
+}
@@ -0,0 +1,117 @@
+package com.mui.lanchat.network;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A discovery scan as sent on the wire:
+ * {@code LAN_CHAT_DISCOVER:<ip>:<nonce>:<instance>:<known>}, where the nonce is a random positive
+ * hex number identifying the scan, the instance is the requester's instance ID in hex (see
+ * {@link DiscoveryBeacon}) and {@code known} is a comma-separated list of the instances the
+ * requester heard from recently. Those need not answer; everyone else answers with a
+ * {@link DiscoveryBeacon} echoing the nonce, so the requester can match answers to the scan and
+ * drop the copies that arrive over both transports.
+ *
+ * Join and leave announcements are {@code <type>:<ip>:<instance>}, and parse as scans with no
+ * nonce. Older peers send just {@code LAN_CHAT_DISCOVER:<ip>}; such a scan has nonce and instance 0
+ * and lists no one, so it is always answered, with the plain {@code LAN_CHAT_HELLO:<ip>} those
+ * peers understand.
+ */
+final class DiscoveryScan {
+
+    /** Scans stay within one Ethernet frame; peers that do not fit in the known list just answer. */
+    static final int MAX_SCAN_BYTES = 1400;
+    /** Receive buffers must hold the largest scan. */
+    static final int RECEIVE_BUFFER_BYTES = 2048;
+
+    final String senderIp;
+    final long nonce;
+    final long instanceId;
+    final Set<Long> knownInstances;
+
+    private DiscoveryScan(String senderIp, long nonce, long instanceId, Set<Long> knownInstances) {
+        this.senderIp = senderIp;
+        this.nonce = nonce;
+        this.instanceId = instanceId;
+        this.knownInstances = knownInstances;
+    }
+
+    /** The scan message, listing as many of {@code knownInstances} as fit. */
+    static String format(String localIp, long nonce, long instanceId, List<Long> knownInstances) {
+        StringBuilder message = new StringBuilder(UdpDiscoveryServer.DISCOVERY_MESSAGE)
+                .append(':').append(localIp)
+                .append(':').append(Long.toHexString(nonce))
+                .append(':').append(Long.toHexString(instanceId))
+                .append(':');
+        int listStart = message.length();
+        for (long known : knownInstances) {
+            String hex = Long.toHexString(known);
+            if (message.length() + hex.length() + 1 > MAX_SCAN_BYTES) {
+                break;
+            }
+            if (message.length() > listStart) {
+                message.append(',');
+            }
+            message.append(hex);
+        }
+        return message.toString();
+    }
+
+    /** Parses a scan, or returns null if the message is not one. */
+    static DiscoveryScan parse(String message) {
+        if (!message.startsWith(UdpDiscoveryServer.DISCOVERY_MESSAGE)) {
+            return null;
+        }
+        String[] parts = message.split(":", 5);
+        String senderIp = parts.length > 1 ? parts[1] : null;
+        long nonce = parts.length > 2 ? parseHex(parts[2]) : 0;
+        long instanceId = parts.length > 3 ? parseHex(parts[3]) : 0;
+        if (parts.length < 5 || parts[4].isEmpty()) {
+            return new DiscoveryScan(senderIp, nonce, instanceId, Collections.<Long>emptySet());
+        }
+        Set<Long> known = new HashSet<>();
+        for (String hex : parts[4].split(",")) {
+            known.add(parseHex(hex));
+        }
+        return new DiscoveryScan(senderIp, nonce, instanceId, known);
+    }
+
+    static String formatAnnouncement(String type, String localIp, long instanceId) {
+        return type + ":" + localIp + ":" + Long.toHexString(instanceId);
+    }
+
+    /** A join or leave announcement as a scan with no nonce and no known instances. */
+    static DiscoveryScan parseAnnouncement(String message) {
+        String[] parts = message.split(":", 4);
+        return new DiscoveryScan(parts.length > 1 ? parts[1] : null, 0,
+                parts.length > 2 ? parseHex(parts[2]) : 0, Collections.<Long>emptySet());
+    }
+
+    /** The text reply to a scan from an older peer. */
+    static String formatLegacyReply(String localIp) {
+        return UdpDiscoveryServer.DISCOVERY_RESPONSE + ":" + localIp;
+    }
+
+    /**
+     * Identifies one answer to one scan, for de-duplication in a {@link SeenMessageWindow}; 0, never
+     * a duplicate, when there is no nonce to tell scans apart.
+     */
+    static long answerKey(long instanceId, long nonce) {
+        if (nonce == 0) {
+            return 0;
+        }
+        long key = nonce ^ (instanceId * 0x9E3779B97F4A7C15L);
+        return key == 0 ? nonce : key;
+    }
+
+    // Nonces and instance IDs are positive, so they fit parseLong
+    private static long parseHex(String text) {
+        try {
+            return Long.parseLong(text, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.mui.lanchat.network;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.util.Log;
+
+import com.mui.lanchat.utils.NetworkUtils;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running peer discovery. Scans on an adaptive interval (see {@link DiscoveryPolicy}), keeps
+ * every peer that answers in a {@link PeerTable}, and expires peers that stop answering. Consumers
+ * get add, update and remove events rather than raw replies. Network changes reported by the
+ * system trigger an immediate rescan; losing the network empties the table.
+ *
+ * Scans go to the {@link MulticastDiscovery} group when it can be joined, where peers also
+ * announce their arrival and departure. Subnet broadcast is the fallback, and is still used for a
+ * sweep on start and on every rescan, and whenever a known peer has gone quiet for half its TTL,
+ * to reach peers that only listen for broadcasts.
+ *
+ * Peers answer with a {@link DiscoveryBeacon} saying where and how to connect to them. Every scan
+ * carries a fresh nonce and lists the peers whose beacon arrived in the last quarter of their TTL,
+ * which need not answer (see {@link DiscoveryScan}); peers also refresh each other by hearing one
+ * another's scans. A beacon that arrives over both transports is recorded once.
+ *
+ * Each transport reads replies on one loop thread for the life of the service. The scheduler's
+ * timer paces the scans, but each scan is sent from the I/O pool.
+ */
+public class DiscoveryService {
+
+    private static final String TAG = "DiscoveryService";
+    private static final int REPLY_WINDOW = 1024; // Replies remembered for de-duplication
+
+    public interface Listener {
+        void onPeerAdded(DiscoveredPeer peer);
+        void onPeerUpdated(DiscoveredPeer peer);
+        void onPeerRemoved(DiscoveredPeer peer);
+        void onDiscoveryError(String message);
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final NetworkScheduler scheduler;
+    private final DiscoveryPolicy policy;
+    private final PeerTable table = new PeerTable();
+    private final MulticastDiscovery multicast;
+    private final DiscoveryResponder responder = DiscoveryResponder.getShared();
+    private final SeenMessageWindow repliesSeen = new SeenMessageWindow(REPLY_WINDOW);
+    private final Random random = new Random();
+    private volatile boolean running;
+    private volatile DatagramSocket socket;
+    private volatile boolean changedSinceScan;
+    private volatile boolean broadcastSweepDue;
+    private Future<?> receiverTask;
+    private Future<?> multicastTask;
+    private ScheduledFuture<?> scanTask;
+    private long scanIntervalMillis;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    public DiscoveryService(Context context, Listener listener) {
+        this(context, listener, NetworkScheduler.getShared(), DiscoveryPolicy.defaultPolicy());
+    }
+
+    public DiscoveryService(Context context, Listener listener, NetworkScheduler scheduler, DiscoveryPolicy policy) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.policy = policy;
+        this.multicast = new MulticastDiscovery(this.context, new MulticastDiscovery.Callback() {
+            @Override
+            public void onPeerSeen(String ipAddress, long instanceId) {
+                record(PeerTable.keyFor(ipAddress, instanceId), ipAddress, null);
+            }
+
+            @Override
+            public void onBeacon(String ipAddress, DiscoveryBeacon beacon) {
+                recordBeacon(ipAddress, beacon);
+            }
+
+            @Override
+            public void onPeerLeft(String ipAddress, long instanceId) {
+                DiscoveredPeer peer = table.remove(PeerTable.keyFor(ipAddress, instanceId));
+                if (peer != null) {
+                    changedSinceScan = true;
+                    listener.onPeerRemoved(peer);
+                }
+            }
+        }, scheduler);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            Log.w(TAG, "Discovery already running.");
+            return;
+        }
+        running = true;
+        scanIntervalMillis = policy.getMinScanIntervalMillis();
+        broadcastSweepDue = true;
+        try {
+            receiverTask = scheduler.executeLoop("udp-discovery", this::runReceiver);
+        } catch (RejectedExecutionException e) {
+            running = false;
+            Log.e(TAG, "Cannot start discovery: " + e.getMessage());
+            listener.onDiscoveryError("Discovery unavailable: " + e.getMessage());
+            return;
+        }
+        try {
+            multicastTask = scheduler.executeLoop("udp-multicast", this::runMulticast);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Multicast discovery not started, broadcast only: " + e.getMessage());
+        }
+        registerNetworkCallback();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (scanTask != null) {
+            scanTask.cancel(false);
+            scanTask = null;
+        }
+        if (receiverTask != null) {
+            receiverTask.cancel(true);
+            receiverTask = null;
+        }
+        DatagramSocket current = socket;
+        if (current != null) {
+            current.close(); // Unblocks receive()
+        }
+        if (multicastTask != null) {
+            multicastTask = null;
+            try {
+                // Sending the leave is network I/O, which may not run on the caller's thread
+                scheduler.execute("udp-multicast-leave", multicast::leave);
+            } catch (RejectedExecutionException e) {
+                multicast.close(); // Peers will expire us instead
+            }
+        }
+        unregisterNetworkCallback();
+        Log.d(TAG, "Discovery stopped.");
+    }
+
+    /** Scans now and restarts the back-off, e.g. after losing the connected peer. */
+    public synchronized void rescanNow() {
+        if (!running) {
+            return;
+        }
+        scanIntervalMillis = policy.getMinScanIntervalMillis();
+        changedSinceScan = true; // Keeps the interval at the minimum after this scan
+        broadcastSweepDue = true;
+        scheduleScan(0);
+    }
+
+    /**
+     * Records a peer seen by other means, such as its own scan reaching our discovery server;
+     * {@code scanMessage} is the scan it sent, or null. Its beacon is left as it was.
+     */
+    public void reportPeer(String ipAddress, String scanMessage) {
+        DiscoveryScan scan = scanMessage == null ? null : DiscoveryScan.parse(scanMessage);
+        record(PeerTable.keyFor(ipAddress, scan == null ? 0 : scan.instanceId), ipAddress, null);
+    }
+
+    /** The known peers, in the order they were discovered. */
+    public List<DiscoveredPeer> getPeers() {
+        return table.snapshot();
+    }
+
+    private void runReceiver() {
+        DatagramSocket current = null;
+        try {
+            current = new DatagramSocket();
+            current.setBroadcast(true);
+            socket = current;
+            synchronized (this) {
+                if (running) {
+                    scheduleScan(0);
+                }
+            }
+            byte[] buffer = new byte[DiscoveryScan.RECEIVE_BUFFER_BYTES];
+            while (running) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                current.receive(packet);
+                String senderIp = packet.getAddress().getHostAddress();
+                if (DiscoveryBeacon.isBeacon(packet.getData(), packet.getOffset(), packet.getLength())) {
+                    DiscoveryBeacon beacon = DiscoveryBeacon.decode(packet.getData(), packet.getOffset(), packet.getLength());
+                    if (beacon != null && !responder.isOwn(beacon.getInstanceId(), senderIp, null)) {
+                        recordBeacon(senderIp, beacon);
+                    }
+                    continue;
+                }
+                String response = new String(packet.getData(), packet.getOffset(), packet.getLength());
+
+                // Ignore messages from self or malformed responses; text replies come from older peers
+                String localIp = NetworkUtils.getLocalIpAddress(context);
+                if (responder.isOwn(0, senderIp, localIp)) {
+                    continue;
+                }
+                if (response.startsWith(UdpDiscoveryServer.DISCOVERY_RESPONSE)) {
+                    record(senderIp, senderIp, null);
+                }
+            }
+        } catch (IOException e) {
+            if (running) { // Only report if it's an unexpected error, not due to stop()
+                Log.e(TAG, "Discovery socket failed: " + e.getMessage());
+                listener.onDiscoveryError("Socket error: " + e.getMessage());
+            }
+        } finally {
+            if (current != null) {
+                current.close();
+            }
+            Log.d(TAG, "Discovery receiver finished.");
+        }
+    }
+
+    private void runMulticast() {
+        if (!multicast.open()) {
+            Log.d(TAG, "Multicast unavailable; discovering by broadcast only.");
+            return;
+        }
+        try {
+            if (!running) {
+                return;
+            }
+            multicast.announceJoin();
+            multicast.runReceiver();
+        } catch (IOException e) {
+            if (running && multicast.isOpen()) {
+                Log.e(TAG, "Multicast discovery failed, broadcast only: " + e.getMessage());
+            }
+        } finally {
+            if (!running || multicast.isOpen()) {
+                multicast.close(); // Unless stop() is already leaving the group
+            }
+            Log.d(TAG, "Multicast receiver finished.");
+        }
+    }
+
+    // Timer thread: sending may block on a dozing or changing interface, which would hold up every
+    // heartbeat and timeout in the process, so the scan runs on the I/O pool
+    private void queueScan() {
+        try {
+            scheduler.execute("udp-discovery-scan", this::scan);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Skipping discovery scan: " + e.getMessage());
+            synchronized (this) {
+                if (running) {
+                    scheduleScan(scanIntervalMillis); // Keep pacing; the next one may find room
+                }
+            }
+        }
+    }
+
+    // I/O thread: expires silent peers, paces the next scan and sends this one
+    private void scan() {
+        if (!running) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (DiscoveredPeer peer : table.expire(now, TimeUnit.MILLISECONDS.toNanos(policy.getPeerTtlMillis()))) {
+            changedSinceScan = true;
+            listener.onPeerRemoved(peer);
+        }
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            scanIntervalMillis = changedSinceScan ? policy.getMinScanIntervalMillis()
+                    : Math.min(scanIntervalMillis * 2, policy.getMaxScanIntervalMillis());
+            changedSinceScan = false;
+            scheduleScan(scanIntervalMillis);
+        }
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(policy.getPeerTtlMillis());
+        // Both transports carry the same scan, so peers reached by both answer it once
+        String message = DiscoveryScan.format(NetworkUtils.getLocalIpAddress(context),
+                random.nextLong() & Long.MAX_VALUE, responder.getInstanceId(),
+                table.recentlyAnswered(now, ttlNanos / 4));
+        if (multicast.isOpen()) {
+            multicast.sendScan(message);
+            if (!broadcastSweepDue && !table.hasPeerSilentFor(now, ttlNanos / 2)) {
+                return;
+            }
+        }
+        broadcastSweepDue = false;
+        sendBroadcastScan(message);
+    }
+
+    private void sendBroadcastScan(String message) {
+        DatagramSocket current = socket;
+        InetAddress broadcastAddress = NetworkUtils.getBroadcastAddress(context);
+        if (current == null || broadcastAddress == null) {
+            return; // No Wi-Fi yet; the network callback rescans when it comes up
+        }
+        byte[] sendData = message.getBytes();
+        try {
+            current.send(new DatagramPacket(sendData, sendData.length, broadcastAddress,
+                    UdpDiscoveryServer.DISCOVERY_PORT));
+            Log.d(TAG, "Sent discovery packet to " + broadcastAddress.getHostAddress()
+                    + "; next in " + scanIntervalMillis + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot send discovery packet: " + e.getMessage());
+        }
+    }
+
+    private void recordBeacon(String ipAddress, DiscoveryBeacon beacon) {
+        if (!repliesSeen.markSeen(DiscoveryScan.answerKey(beacon.getInstanceId(), beacon.nonce))) {
+            return; // The same answer already came in over the other transport
+        }
+        record(PeerTable.keyFor(ipAddress, beacon.getInstanceId()), ipAddress, beacon);
+    }
+
+    private void record(String key, String ipAddress, DiscoveryBeacon beacon) {
+        switch (table.record(key, ipAddress, beacon, System.nanoTime())) {
+            case ADDED:
+                changedSinceScan = true;
+                listener.onPeerAdded(table.get(key));
+                break;
+            case UPDATED:
+                changedSinceScan = true;
+                listener.onPeerUpdated(table.get(key));
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Caller holds the lock
+    private void scheduleScan(long delayMillis) {
+        if (scanTask != null) {
+            scanTask.cancel(false);
+        }
+        scanTask = scheduler.schedule(this::queueScan, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                rescanNow();
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                rescanNow(); // New address or subnet: the old broadcast address may be wrong
+            }
+
+            @Override
+            public void onLost(Network network) {
+                for (DiscoveredPeer peer : table.clear()) {
+                    listener.onPeerRemoved(peer);
+                }
+            }
+        };
+        try {
+            connectivity.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e) {
+            networkCallback = null; // Rescans still happen on the timer
+            Log.w(TAG, "Cannot watch network changes: " + e.getMessage());
+        }
+    }
+
+    private void unregisterNetworkCallback() {
+        if (networkCallback == null) {
+            return;
+        }
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            try {
+                connectivity.unregisterNetworkCallback(networkCallback);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cannot unregister network callback: " + e.getMessage());
+            }
+        }
+        networkCallback = null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.mui.lanchat.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message already encoded for the wire. The bytes are never modified after construction, so one
+ * instance can be queued to any number of connections; each writer gets its own read-only view.
+ *
+ * A frame copied into a {@link BufferPool} array goes back to the pool when its last reference is
+ * released. A reference that is never released only costs the pool that array; releasing one
+ * twice would hand out bytes still being written, so every holder releases exactly once.
+ */
+final class EncodedFrame {
+
+    private final byte[] bytes;
+    private final int length;
+    private final BufferPool pool;    // Null for frames the GC owns
+    private final AtomicInteger refs; // Null for frames the GC owns
+
+    private EncodedFrame(byte[] bytes, int length, BufferPool pool) {
+        this.bytes = bytes;
+        this.length = length;
+        this.pool = pool;
+        this.refs = pool != null ? new AtomicInteger(1) : null;
+    }
+
+    /** Takes ownership of already framed bytes; the caller must not modify them afterwards. */
+    static EncodedFrame of(byte[] framed) {
+        return new EncodedFrame(framed, framed.length, null);
+    }
+
+    /** Newline-terminated UTF-8 line, the JSON-lines framing used by ChatClient. */
+    static EncodedFrame ofLine(String line) {
+        byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+        byte[] framed = new byte[encoded.length + 1];
+        System.arraycopy(encoded, 0, framed, 0, encoded.length);
+        framed[encoded.length] = '\n';
+        return new EncodedFrame(framed, framed.length, null);
+    }
+
+    /** A received line, re-terminated, in a pooled array. Holds one reference for the caller. */
+    static EncodedFrame pooledLine(byte[] data, int offset, int length, BufferPool pool) {
+        byte[] framed = pool.acquire(length + 1);
+        System.arraycopy(data, offset, framed, 0, length);
+        framed[length] = '\n';
+        return new EncodedFrame(framed, length + 1, pool);
+    }
+
+    /** A received frame body, re-prefixed with its length, in a pooled array. Holds one reference for the caller. */
+    static EncodedFrame pooledFrame(byte[] body, int offset, int length, BufferPool pool) {
+        int header = Varint.size(length);
+        byte[] framed = pool.acquire(header + length);
+        Varint.write(length, framed, 0);
+        System.arraycopy(body, offset, framed, header, length);
+        return new EncodedFrame(framed, header + length, pool);
+    }
+
+    void retain() {
+        if (refs != null) {
+            refs.incrementAndGet();
+        }
+    }
+
+    void release() {
+        if (refs != null && refs.decrementAndGet() == 0) {
+            pool.release(bytes);
+        }
+    }
+
+    /** Independent position/limit over the shared bytes; no copy is made. */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes, 0, length).asReadOnlyBuffer();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    void copyTo(byte[] destination, int offset) {
+        System.arraycopy(bytes, 0, destination, offset, length);
+    }
+
+    int length() {
+        return length;
+    }
+
+    /** The backing array, for reading only; the frame is its first {@link #length()} bytes. */
+    byte[] array() {
+        return bytes;
+    }
+}
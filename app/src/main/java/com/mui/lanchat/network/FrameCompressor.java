@@ -0,0 +1,126 @@
+package com.mui.lanchat.network;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with a preset dictionary of common chat text, for the BINARY_COMPRESSED wire format.
+ * Compressed output is the original length as a varint followed by the raw deflate stream.
+ *
+ * Deflater and Inflater hold native buffers and are not thread-safe, so each thread keeps one of
+ * each and resets it per frame.
+ */
+final class FrameCompressor {
+
+    // Both peers must use the same bytes: changing them needs a new handshake feature name
+    private static final byte[] DICTIONARY = (
+            "http://https://www.com/ .jpg.png.pdf.txt.log.zip Exception at java. Error: error failed "
+            + "warning INFO DEBUG null true false 192.168.10.0. "
+            + "the and you that have for not with this but your all was what can are just know "
+            + "like get about will there when out from they how one would think time some good "
+            + "now yes okay thanks please here going to see you later sorry lol haha :) :( "
+            + "\n\n    \t").getBytes(StandardCharsets.UTF_8);
+
+    private final CompressionPolicy policy;
+    private final CompressionStats stats;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    FrameCompressor(final CompressionPolicy policy, CompressionStats stats) {
+        this.policy = policy;
+        this.stats = stats;
+        this.deflaters = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(policy.getLevel(), true);
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return policy.isEnabled();
+    }
+
+    /** The compressed form of {@code data}, or null if it is below the threshold or would not shrink. */
+    byte[] compress(byte[] data) {
+        if (data.length < policy.getThresholdBytes()) {
+            stats.recordBelowThreshold();
+            return null;
+        }
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(data);
+        deflater.finish();
+
+        int header = Varint.size(data.length);
+        byte[] out = new byte[header + data.length]; // Anything longer is not worth sending
+        Varint.write(data.length, out, 0);
+        int length = header;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        long nanos = System.nanoTime() - start;
+        if (!deflater.finished()) {
+            stats.recordIncompressible(nanos);
+            return null;
+        }
+        stats.recordCompressed(data.length, length, nanos);
+        byte[] packed = new byte[length];
+        System.arraycopy(out, 0, packed, 0, length);
+        return packed;
+    }
+
+    /** Inverse of {@link #compress}; refuses output larger than {@code maxBytes}. */
+    byte[] decompress(byte[] data, int offset, int length, int maxBytes) throws IOException {
+        long start = System.nanoTime();
+        int end = offset + length;
+        int originalLength = 0;
+        int position = offset;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= end || shift >= 7 * Varint.MAX_INT_BYTES) {
+                throw new IOException("Malformed compressed length");
+            }
+            byte b = data[position++];
+            originalLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (originalLength < 0 || originalLength > maxBytes) {
+            throw new IOException("Compressed frame expands to " + originalLength + " bytes");
+        }
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(data, position, end - position);
+        byte[] out = new byte[originalLength];
+        int inflated = 0;
+        try {
+            while (inflated < originalLength) {
+                int n = inflater.inflate(out, inflated, originalLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame: " + e.getMessage(), e);
+        }
+        if (inflated != originalLength) {
+            throw new IOException("Compressed frame is truncated");
+        }
+        stats.recordDecompressed(System.nanoTime() - start);
+        return out;
+    }
+}
@@ -0,0 +1,164 @@
+package com.mui.lanchat.network;
+
+import java.io.IOException;
+
+/**
+ * Push-based splitter for the bytes read from one connection. Feed it whatever each read returned;
+ * it calls back once per complete line or binary frame and keeps only an incomplete tail between
+ * reads, in a buffer borrowed from a {@link BufferPool}. The sink may switch the format from
+ * inside a callback (after a handshake line); the bytes that follow in the same read are split
+ * with the new format.
+ *
+ * Memory per connection is bounded by the maximum frame size. A binary frame announcing a larger
+ * body is skipped as it streams past without being buffered, and reported to the sink. A longer
+ * line has no length to skip by and fails the connection.
+ *
+ * Not thread-safe: owned by the connection's reader.
+ */
+final class FrameDecoder {
+
+    interface Sink {
+        /** A line without its terminator. The bytes are only valid during the call. */
+        void onLine(byte[] data, int offset, int length) throws IOException;
+
+        /** A binary frame body without its length prefix. The bytes are only valid during the call. */
+        void onFrame(byte[] data, int offset, int length) throws IOException;
+
+        /** A binary frame over the limit is being skipped. */
+        void onOversizedFrame(int length) throws IOException;
+    }
+
+    private final int maxFrameBytes;
+    private final BufferPool pool;
+    private WireFormat format = WireFormat.JSON_LINES;
+    // Bytes of a line or frame that has not fully arrived yet; only borrowed when a read splits one
+    private byte[] pending;
+    private int pendingLength;
+    private int skipRemaining; // Bytes left of an oversized frame being discarded
+
+    FrameDecoder(int maxFrameBytes, BufferPool pool) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.pool = pool;
+    }
+
+    void setFormat(WireFormat format) {
+        this.format = format;
+    }
+
+    WireFormat getFormat() {
+        return format;
+    }
+
+    void feed(byte[] data, int offset, int length, Sink sink) throws IOException {
+        if (pendingLength == 0) {
+            int consumed = split(data, offset, offset + length, sink);
+            if (consumed < offset + length) {
+                append(data, consumed, offset + length - consumed);
+            }
+            return;
+        }
+        append(data, offset, length);
+        int consumed = split(pending, 0, pendingLength, sink);
+        int remaining = pendingLength - consumed;
+        if (remaining > 0 && consumed > 0) {
+            System.arraycopy(pending, consumed, pending, 0, remaining);
+        }
+        pendingLength = remaining;
+        if (pendingLength == 0) {
+            release();
+        }
+    }
+
+    /** Returns the partial-frame buffer to the pool; call when the connection closes. */
+    void release() {
+        if (pending != null) {
+            pool.release(pending);
+            pending = null;
+            pendingLength = 0;
+        }
+    }
+
+    /** Returns the position of the first byte that is not part of a complete line or frame. */
+    private int split(byte[] data, int position, int end, Sink sink) throws IOException {
+        while (position < end) {
+            if (skipRemaining > 0) {
+                int skipped = Math.min(skipRemaining, end - position);
+                skipRemaining -= skipped;
+                position += skipped;
+                continue;
+            }
+            if (format.isBinary()) {
+                int bodyLength = 0;
+                int cursor = position;
+                boolean complete = false;
+                for (int shift = 0; cursor < end; shift += 7) {
+                    if (shift >= 7 * Varint.MAX_INT_BYTES) {
+                        throw new IOException("Malformed frame length");
+                    }
+                    byte b = data[cursor++];
+                    bodyLength |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) {
+                        complete = true;
+                        break;
+                    }
+                }
+                if (!complete) {
+                    return position;
+                }
+                if (bodyLength < 0) {
+                    throw new IOException("Malformed frame length");
+                }
+                if (bodyLength > maxFrameBytes) {
+                    sink.onOversizedFrame(bodyLength);
+                    skipRemaining = bodyLength;
+                    position = cursor;
+                    continue;
+                }
+                if (end - cursor < bodyLength) {
+                    return position;
+                }
+                sink.onFrame(data, cursor, bodyLength);
+                position = cursor + bodyLength;
+            } else {
+                int newline = position;
+                while (newline < end && data[newline] != '\n') {
+                    newline++;
+                }
+                if (newline == end) {
+                    if (end - position > maxFrameBytes) {
+                        throw new IOException("Line exceeds " + maxFrameBytes + " bytes");
+                    }
+                    return position;
+                }
+                int lineEnd = newline;
+                if (lineEnd > position && data[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd - position > maxFrameBytes) {
+                    throw new IOException("Line exceeds " + maxFrameBytes + " bytes");
+                }
+                if (lineEnd > position) {
+                    sink.onLine(data, position, lineEnd - position);
+                }
+                position = newline + 1;
+            }
+        }
+        return position;
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        int needed = pendingLength + length;
+        if (pending == null || pending.length < needed) {
+            byte[] grown = pool.acquire(needed);
+            if (pendingLength > 0) {
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+            }
+            if (pending != null) {
+                pool.release(pending);
+            }
+            pending = grown;
+        }
+        System.arraycopy(data, offset, pending, pendingLength, length);
+        pendingLength = needed;
+    }
+}
@@ -0,0 +1,70 @@
+package com.mui.lanchat.network;
+
+/**
+ * Protocol negotiation. A client opens with a hello line naming the highest protocol version it
+ * speaks and the optional features it wants, e.g. {@code LANCHAT/1 deflate}. A hub that
+ * understands it answers with the version both will use and the features it accepted, and from
+ * then on both directions switch to that format. Version 0 is JSON lines.
+ *
+ * Older hubs cannot parse the hello, log it and carry on, so a client that hears JSON or nothing
+ * within {@link #TIMEOUT_MILLIS} falls back to JSON lines. A hub treats a first line of JSON, or
+ * silence for the same timeout, as an older client. Unknown features are ignored.
+ */
+final class Handshake {
+
+    static final int JSON_LINES_VERSION = 0;
+    static final int BINARY_VERSION = 1;
+    static final int CURRENT_VERSION = BINARY_VERSION;
+    static final long TIMEOUT_MILLIS = 2000;
+
+    private static final String PREFIX = "LANCHAT/";
+    private static final String FEATURE_DEFLATE = "deflate";
+
+    final int version;
+    final boolean deflate;
+
+    private Handshake(int version, boolean deflate) {
+        this.version = version;
+        this.deflate = deflate;
+    }
+
+    static EncodedFrame hello(int version, boolean deflate) {
+        return EncodedFrame.ofLine(PREFIX + version + (deflate ? " " + FEATURE_DEFLATE : ""));
+    }
+
+    /** The hello carried by the line, or null if the line is not a hello. */
+    static Handshake parse(String line) {
+        if (!line.startsWith(PREFIX)) {
+            return null;
+        }
+        String[] tokens = line.substring(PREFIX.length()).trim().split("\\s+");
+        int version;
+        try {
+            version = Math.max(0, Integer.parseInt(tokens[0]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        boolean deflate = false;
+        for (int i = 1; i < tokens.length; i++) {
+            deflate |= FEATURE_DEFLATE.equals(tokens[i]);
+        }
+        return new Handshake(version, deflate);
+    }
+
+    /** What to answer a client's hello with, given what this side is willing to do. */
+    Handshake agree(boolean deflateEnabled) {
+        int agreed = Math.min(version, CURRENT_VERSION);
+        return new Handshake(agreed, deflate && deflateEnabled && agreed >= BINARY_VERSION);
+    }
+
+    EncodedFrame toFrame() {
+        return hello(version, deflate);
+    }
+
+    WireFormat format() {
+        if (version < BINARY_VERSION) {
+            return WireFormat.JSON_LINES;
+        }
+        return deflate ? WireFormat.BINARY_COMPRESSED : WireFormat.BINARY;
+    }
+}
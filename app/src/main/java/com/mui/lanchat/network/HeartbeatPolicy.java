@@ -0,0 +1,42 @@
+package com.mui.lanchat.network;
+
+/**
+ * Application-level keepalive. When nothing has been read from a peer for one interval it is sent
+ * a ping; a peer that stays silent for the whole timeout is treated as dead and disconnected. This
+ * catches half-open connections (a phone leaving Wi-Fi without a FIN) long before TCP would.
+ * An interval of 0 disables heartbeats.
+ */
+public class HeartbeatPolicy {
+
+    private final long intervalMillis;
+    private final long timeoutMillis;
+
+    public HeartbeatPolicy(long intervalMillis, long timeoutMillis) {
+        if (intervalMillis < 0 || (intervalMillis > 0 && timeoutMillis <= intervalMillis)) {
+            throw new IllegalArgumentException("Require timeout > interval >= 0");
+        }
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** A ping every 5 seconds of silence, dead after 15: three missed pongs. */
+    public static HeartbeatPolicy defaultPolicy() {
+        return new HeartbeatPolicy(5000, 15000);
+    }
+
+    public static HeartbeatPolicy disabled() {
+        return new HeartbeatPolicy(0, 0);
+    }
+
+    public boolean isEnabled() {
+        return intervalMillis > 0;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+}
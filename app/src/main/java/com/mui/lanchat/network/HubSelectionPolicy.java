@@ -0,0 +1,68 @@
+package com.mui.lanchat.network;
+
+/**
+ * How a client picks the hub to join. Beacons are gathered for a window long enough for jittered
+ * discovery replies to arrive, then each candidate's round trip is measured and it is scored as
+ * its RTT plus a penalty per client it already serves; the lowest score wins. Hubs at or over the
+ * client cap only win if no other hub is left, and a candidate that does not answer the RTT probe
+ * counts as taking the whole probe timeout.
+ *
+ * When the joined hub's advertised load rises over the cap, its clients move to a better hub if
+ * one beats it by the margin, at most once per rebalance interval.
+ */
+public class HubSelectionPolicy {
+
+    private final long gatherWindowMillis;
+    private final long probeTimeoutMillis;
+    private final int maxClientsPerHub;
+    private final long loadPenaltyMillis;
+    private final long rebalanceMarginMillis;
+    private final long minRebalanceIntervalMillis;
+
+    public HubSelectionPolicy(long gatherWindowMillis, long probeTimeoutMillis, int maxClientsPerHub,
+                              long loadPenaltyMillis, long rebalanceMarginMillis, long minRebalanceIntervalMillis) {
+        if (gatherWindowMillis < 0 || probeTimeoutMillis <= 0 || maxClientsPerHub < 1
+                || loadPenaltyMillis < 0 || rebalanceMarginMillis < 0 || minRebalanceIntervalMillis < 0) {
+            throw new IllegalArgumentException("Require a positive probe timeout and client cap, and no negative times");
+        }
+        this.gatherWindowMillis = gatherWindowMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.maxClientsPerHub = maxClientsPerHub;
+        this.loadPenaltyMillis = loadPenaltyMillis;
+        this.rebalanceMarginMillis = rebalanceMarginMillis;
+        this.minRebalanceIntervalMillis = minRebalanceIntervalMillis;
+    }
+
+    /**
+     * Gathers for 1.5 seconds, three times the longest reply delay, and probes for 0.8; each client
+     * weighs like 25 ms of RTT, hubs take 8 clients, and a move must gain 50 ms and happens at most
+     * once a minute.
+     */
+    public static HubSelectionPolicy defaultPolicy() {
+        return new HubSelectionPolicy(1500, 800, 8, 25, 50, 60000);
+    }
+
+    public long getGatherWindowMillis() {
+        return gatherWindowMillis;
+    }
+
+    public long getProbeTimeoutMillis() {
+        return probeTimeoutMillis;
+    }
+
+    public int getMaxClientsPerHub() {
+        return maxClientsPerHub;
+    }
+
+    public long getLoadPenaltyMillis() {
+        return loadPenaltyMillis;
+    }
+
+    public long getRebalanceMarginMillis() {
+        return rebalanceMarginMillis;
+    }
+
+    public long getMinRebalanceIntervalMillis() {
+        return minRebalanceIntervalMillis;
+    }
+}
@@ -0,0 +1,188 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses which discovered hub to join, by latency and advertised load (see
+ * {@link HubSelectionPolicy}) rather than by whichever peer answered first, which piles every
+ * client onto one device.
+ *
+ * A selection waits out the gather window so the beacons of all nearby hubs are in, probes their
+ * round trips on an I/O thread, and reports the best hub to the listener. Once a hub is joined, its
+ * beacons are watched: when it advertises more clients than the cap, each of its clients moves
+ * with a probability of the excess over the client count, so about the excess moves rather than
+ * every client stampeding to the same next hub. The load seen is as fresh as the latest beacon,
+ * which discovery refreshes every few scans.
+ *
+ * The listener is called on an I/O thread.
+ */
+public class HubSelector {
+
+    private static final String TAG = "HubSelector";
+    private static final long OVERLOADED_PENALTY_MILLIS = TimeUnit.HOURS.toMillis(1); // Sorts after any real hub
+
+    public interface Listener {
+        void onHubSelected(DiscoveredPeer hub);
+    }
+
+    private final DiscoveryService discovery;
+    private final Listener listener;
+    private final NetworkScheduler scheduler;
+    private final HubSelectionPolicy policy;
+    private final Random random = new Random();
+    private DiscoveredPeer currentHub;
+    private boolean selectionPending;
+    private boolean rebalanced;       // lastRebalanceNanos is set
+    private long lastRebalanceNanos;
+    private boolean stopped;
+    private ScheduledFuture<?> selectionTask;
+
+    public HubSelector(DiscoveryService discovery, Listener listener) {
+        this(discovery, listener, NetworkScheduler.getShared(), HubSelectionPolicy.defaultPolicy());
+    }
+
+    public HubSelector(DiscoveryService discovery, Listener listener, NetworkScheduler scheduler,
+                       HubSelectionPolicy policy) {
+        this.discovery = discovery;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.policy = policy;
+    }
+
+    /** Selects a hub once the gather window has passed, unless a selection is already coming. */
+    public synchronized void selectSoon() {
+        if (stopped || selectionPending) {
+            return;
+        }
+        selectionPending = true;
+        scheduleSelection(false, policy.getGatherWindowMillis());
+    }
+
+    /** The hub now joined, or null after leaving it; only this hub is watched for overload. */
+    public synchronized void setCurrentHub(DiscoveredPeer hub) {
+        currentHub = hub;
+    }
+
+    /** Pass on discovery's peer updates; a rising load on the joined hub may start a move. */
+    public void onPeerUpdated(DiscoveredPeer peer) {
+        synchronized (this) {
+            if (stopped || currentHub == null || !currentHub.key.equals(peer.key)) {
+                return;
+            }
+            currentHub = peer;
+            DiscoveryBeacon beacon = peer.getBeacon();
+            if (beacon == null || beacon.getClientCount() <= policy.getMaxClientsPerHub() || selectionPending) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (rebalanced && now - lastRebalanceNanos < TimeUnit.MILLISECONDS.toNanos(policy.getMinRebalanceIntervalMillis())) {
+                return;
+            }
+            rebalanced = true;
+            lastRebalanceNanos = now; // Whether or not this client moves, it decides once per interval
+            int excess = beacon.getClientCount() - policy.getMaxClientsPerHub();
+            if (random.nextDouble() * beacon.getClientCount() >= excess) {
+                return;
+            }
+            selectionPending = true;
+            // Movers spread over a window, so later ones can see the load earlier ones added
+            long delay = policy.getGatherWindowMillis()
+                    + (long) (random.nextDouble() * policy.getGatherWindowMillis());
+            Log.d(TAG, "Hub " + peer.getIpAddress() + " has " + beacon.getClientCount()
+                    + " clients; looking for another in " + delay + " ms");
+            scheduleSelection(true, delay);
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (selectionTask != null) {
+            selectionTask.cancel(false);
+            selectionTask = null;
+        }
+    }
+
+    // Caller holds the lock
+    private void scheduleSelection(final boolean rebalance, long delayMillis) {
+        selectionTask = scheduler.schedule(() -> {
+            try {
+                // Probing blocks for up to the probe timeout, which the timer thread must not
+                scheduler.execute("hub-selection", () -> select(rebalance));
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Cannot select a hub: " + e.getMessage());
+                synchronized (this) {
+                    selectionPending = false;
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void select(boolean rebalance) {
+        DiscoveredPeer current;
+        synchronized (this) {
+            current = currentHub;
+        }
+        List<DiscoveredPeer> candidates = new ArrayList<>();
+        Set<String> addresses = new LinkedHashSet<>();
+        for (DiscoveredPeer peer : discovery.getPeers()) {
+            if (peer.isConnectable()) {
+                candidates.add(peer);
+                addresses.add(peer.getIpAddress());
+            }
+        }
+        Map<String, Long> rtts = RttProbe.measure(addresses, policy.getProbeTimeoutMillis());
+
+        DiscoveredPeer best = null;
+        long bestScore = Long.MAX_VALUE;
+        long currentScore = Long.MAX_VALUE;
+        for (DiscoveredPeer peer : candidates) {
+            long score = score(peer, rtts);
+            if (current != null && current.key.equals(peer.key)) {
+                currentScore = score;
+                if (rebalance) {
+                    continue;
+                }
+            }
+            if (score < bestScore) {
+                best = peer;
+                bestScore = score;
+            }
+        }
+        synchronized (this) {
+            selectionPending = false;
+            if (stopped || best == null) {
+                return;
+            }
+            if (rebalance && (currentHub == null || bestScore + policy.getRebalanceMarginMillis() >= currentScore)) {
+                Log.d(TAG, "Staying on the current hub; no hub does better by the margin");
+                return;
+            }
+        }
+        Log.d(TAG, "Selected hub " + best + " (score " + bestScore + " ms)");
+        listener.onHubSelected(best);
+    }
+
+    // Round trip plus a penalty per client served; a hub at the cap sorts after every other hub, and
+    // one that did not answer the probe counts as taking the whole timeout
+    long score(DiscoveredPeer peer, Map<String, Long> rtts) {
+        Long rttNanos = rtts.get(peer.getIpAddress());
+        long rttMillis = rttNanos != null ? TimeUnit.NANOSECONDS.toMillis(rttNanos) : policy.getProbeTimeoutMillis();
+        DiscoveryBeacon beacon = peer.getBeacon();
+        int clients = beacon != null ? beacon.getClientCount() : 0;
+        long score = rttMillis + clients * policy.getLoadPenaltyMillis();
+        if (clients >= policy.getMaxClientsPerHub()) {
+            score += OVERLOADED_PENALTY_MILLIS;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mui.lanchat.network;
+
+/**
+ * Per-connection message and byte limits from an {@link AdmissionPolicy}.
+ */
+final class InboundRateLimiter {
+
+    // Shorter pauses are skipped; the debt carries over, so the average rate still holds
+    private static final long MIN_PAUSE_NANOS = 5_000_000L;
+
+    private final AdmissionPolicy policy;
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+
+    InboundRateLimiter(AdmissionPolicy policy) {
+        this.policy = policy;
+        this.messages = policy.getMessagesPerSecond() > 0
+                ? new TokenBucket(policy.getMessagesPerSecond(), Math.max(1, policy.getMessageBurst())) : null;
+        this.bytes = policy.getBytesPerSecond() > 0
+                ? new TokenBucket(policy.getBytesPerSecond(), Math.max(1, policy.getByteBurst())) : null;
+    }
+
+    boolean isThrottling() {
+        return policy.getAction() == AdmissionPolicy.RateLimitAction.THROTTLE;
+    }
+
+    /** DROP mode: true if the message fits in both buckets, in which case it is charged. */
+    boolean tryAcquire(int messageBytes) {
+        if ((messages != null && !messages.hasTokens(1)) || (bytes != null && !bytes.hasTokens(messageBytes))) {
+            return false;
+        }
+        acquire(messageBytes);
+        return true;
+    }
+
+    /** THROTTLE mode: always charges the message and returns how long the reader should pause. */
+    long acquire(int messageBytes) {
+        long pause = 0;
+        if (messages != null) {
+            messages.consume(1);
+            pause = messages.nanosUntilSolvent();
+        }
+        if (bytes != null) {
+            bytes.consume(messageBytes);
+            pause = Math.max(pause, bytes.nanosUntilSolvent());
+        }
+        return pause < MIN_PAUSE_NANOS ? 0 : pause;
+    }
+}
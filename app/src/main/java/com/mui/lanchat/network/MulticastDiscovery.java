@@ -0,0 +1,199 @@
+package com.mui.lanchat.network;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.util.Log;
+
+import com.mui.lanchat.utils.NetworkUtils;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+/**
+ * Discovery over a dedicated multicast group, the transport {@link DiscoveryService} prefers to
+ * subnet broadcast: only hosts that joined the group receive its traffic, so scans no longer wake
+ * every device on a shared network.
+ *
+ * A peer announces itself to the group once when it joins and once when it leaves. Members answer
+ * a join or a scan with a discovery reply sent straight to the requester, so a new peer learns the
+ * whole group at once without anyone else hearing the answers. Replies go through
+ * {@link DiscoveryResponder}, which spreads them out and drops those the requester does not need.
+ * One socket on the group port does both sides; it shares the port, so instances on one host each
+ * hear the group and tell one another apart by instance ID.
+ *
+ * The socket also answers the unicast pings of {@link RttProbe}.
+ *
+ * Wi-Fi drivers drop multicast unless a multicast lock is held; it is held while the group is
+ * joined.
+ */
+final class MulticastDiscovery {
+
+    private static final String TAG = "MulticastDiscovery";
+    static final String GROUP_ADDRESS = "239.255.76.67"; // Organization-local scope, stays on the LAN
+    static final int GROUP_PORT = 8889;
+    static final String JOIN_MESSAGE = "LAN_CHAT_JOIN";
+    static final String LEAVE_MESSAGE = "LAN_CHAT_LEAVE";
+
+    interface Callback {
+        /** A member scanned or announced that it joined; instanceId is 0 for older peers. */
+        void onPeerSeen(String ipAddress, long instanceId);
+        /** A member answered one of our scans or our join. */
+        void onBeacon(String ipAddress, DiscoveryBeacon beacon);
+        void onPeerLeft(String ipAddress, long instanceId);
+    }
+
+    private final Context context;
+    private final Callback callback;
+    private final NetworkScheduler scheduler;
+    private final DiscoveryResponder responder = DiscoveryResponder.getShared();
+    private WifiManager.MulticastLock multicastLock;
+    private InetAddress group;
+    private volatile MulticastSocket socket;
+
+    MulticastDiscovery(Context context, Callback callback, NetworkScheduler scheduler) {
+        this.context = context;
+        this.callback = callback;
+        this.scheduler = scheduler;
+    }
+
+    /** Takes the multicast lock and joins the group; false if multicast is unavailable here. */
+    boolean open() {
+        try {
+            WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            if (wifi == null) {
+                return false;
+            }
+            multicastLock = wifi.createMulticastLock("LanChat-discovery");
+            multicastLock.setReferenceCounted(false);
+            multicastLock.acquire();
+            group = InetAddress.getByName(GROUP_ADDRESS);
+            MulticastSocket multicastSocket = new MulticastSocket(GROUP_PORT);
+            multicastSocket.setTimeToLive(1); // One hop: the local network only
+            multicastSocket.joinGroup(group);
+            socket = multicastSocket;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Multicast discovery unavailable: " + e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    boolean isOpen() {
+        return socket != null;
+    }
+
+    /** Reads the group until the socket is closed; blocks an I/O thread. */
+    void runReceiver() throws IOException {
+        MulticastSocket current = socket;
+        if (current == null) {
+            return;
+        }
+        byte[] buffer = new byte[DiscoveryScan.RECEIVE_BUFFER_BYTES];
+        while (!current.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            current.receive(packet);
+            String senderIp = packet.getAddress().getHostAddress();
+            if (DiscoveryBeacon.isBeacon(packet.getData(), packet.getOffset(), packet.getLength())) {
+                DiscoveryBeacon beacon = DiscoveryBeacon.decode(packet.getData(), packet.getOffset(), packet.getLength());
+                if (beacon != null && !responder.isOwn(beacon.getInstanceId(), senderIp, null)) {
+                    callback.onBeacon(senderIp, beacon);
+                }
+                continue;
+            }
+            String message = new String(packet.getData(), packet.getOffset(), packet.getLength());
+            String localIp = NetworkUtils.getLocalIpAddress(context);
+
+            DiscoveryScan scan;
+            if (message.startsWith(JOIN_MESSAGE)) {
+                scan = DiscoveryScan.parseAnnouncement(message);
+            } else if (message.startsWith(UdpDiscoveryServer.DISCOVERY_MESSAGE)) {
+                scan = DiscoveryScan.parse(message);
+            } else if (message.startsWith(LEAVE_MESSAGE)) {
+                DiscoveryScan leave = DiscoveryScan.parseAnnouncement(message);
+                if (!responder.isOwn(leave.instanceId, senderIp, localIp)) {
+                    callback.onPeerLeft(senderIp, leave.instanceId);
+                }
+                continue;
+            } else if (message.startsWith(RttProbe.PING_MESSAGE)) {
+                // Answered at once: the requester is timing the round trip
+                sendMessage(RttProbe.pongFor(message), packet.getAddress(), packet.getPort());
+                continue;
+            } else if (message.startsWith(UdpDiscoveryServer.DISCOVERY_RESPONSE)) {
+                if (!responder.isOwn(0, senderIp, localIp)) {
+                    callback.onPeerSeen(senderIp, 0); // An older peer's text reply
+                }
+                continue;
+            } else {
+                continue;
+            }
+            if (responder.isOwn(scan.instanceId, senderIp, localIp)) {
+                continue; // Our own message looped back
+            }
+            callback.onPeerSeen(senderIp, scan.instanceId);
+            reply(scan, localIp, packet);
+        }
+    }
+
+
+    void announceJoin() {
+        sendToGroup(JOIN_MESSAGE);
+    }
+
+    /** Sends a scan formatted by {@link DiscoveryScan#format}. */
+    void sendScan(String scan) {
+        sendMessage(scan, group, GROUP_PORT);
+    }
+
+    /** Tells the group we are leaving, then leaves it; blocks briefly on the send. */
+    void leave() {
+        sendToGroup(LEAVE_MESSAGE);
+        close();
+    }
+
+    void close() {
+        MulticastSocket current = socket;
+        socket = null;
+        if (current != null) {
+            try {
+                current.leaveGroup(group);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot leave multicast group: " + e.getMessage());
+            }
+            current.close();
+        }
+        if (multicastLock != null && multicastLock.isHeld()) {
+            multicastLock.release();
+        }
+    }
+
+    private void reply(DiscoveryScan scan, String localIp, DatagramPacket request) {
+        final InetAddress address = request.getAddress();
+        final int port = request.getPort();
+        responder.answer(scan, localIp, scheduler, reply -> send(reply, address, port));
+    }
+
+    private void sendToGroup(String type) {
+        String message = DiscoveryScan.formatAnnouncement(type, NetworkUtils.getLocalIpAddress(context),
+                responder.getInstanceId());
+        sendMessage(message, group, GROUP_PORT);
+    }
+
+    private void sendMessage(String message, InetAddress address, int port) {
+        send(message.getBytes(), address, port);
+    }
+
+    private void send(byte[] data, InetAddress address, int port) {
+        MulticastSocket current = socket;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.send(new DatagramPacket(data, data.length, address, port));
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot send discovery message: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide thread budget for all networking classes, in three parts:
+ *
+ * <ul>
+ *   <li>Loops that hold a thread for as long as a socket is open (read loops, long-lived writers,
+ *       accept and UDP receive loops) run on the loop pool. It hands each loop straight to a
+ *       thread and never queues one: a queued loop would wait until some other loop ended, so a
+ *       loop beyond the budget is rejected at once instead.</li>
+ *   <li>Blocking work that finishes (writer drains, connects, scans) runs on the I/O pool, which
+ *       queues what it cannot start yet. Loops never occupy it, so this work never waits behind
+ *       them.</li>
+ *   <li>Short timed work (heartbeats, timeouts) runs on a single timer thread and must never
+ *       block; anything that may block is handed to the I/O pool.</li>
+ * </ul>
+ *
+ * Work beyond the budget is rejected with {@link RejectedExecutionException} instead of silently
+ * growing the thread count, so callers decide what to drop.
+ */
+public class NetworkScheduler {
+
+    private static final String TAG = "NetworkScheduler";
+    /** A hub with 60 threaded clients, plus its own discovery, accept and client loops. */
+    public static final int DEFAULT_LOOP_THREADS = 72;
+    public static final int DEFAULT_IO_THREADS = 16;
+    public static final int DEFAULT_QUEUE_CAPACITY = 128;
+
+    private static NetworkScheduler shared;
+
+    private final ThreadPoolExecutor loopExecutor;
+    private final ThreadPoolExecutor ioExecutor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    public NetworkScheduler(int maxIoThreads, int queueCapacity) {
+        this(DEFAULT_LOOP_THREADS, maxIoThreads, queueCapacity);
+    }
+
+    public NetworkScheduler(int maxLoopThreads, int maxIoThreads, int queueCapacity) {
+        // Direct handoff: starts a thread for the loop or rejects it, never queues it
+        loopExecutor = new ThreadPoolExecutor(0, maxLoopThreads, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new NamedThreadFactory("LanChat-loop-"),
+                (task, executor) -> {
+                    rejectedTasks.incrementAndGet();
+                    throw new RejectedExecutionException("Network loop budget exhausted ("
+                            + executor.getActiveCount() + " loops running)");
+                });
+        ioExecutor = new ThreadPoolExecutor(maxIoThreads, maxIoThreads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory("LanChat-io-"),
+                (task, executor) -> {
+                    rejectedTasks.incrementAndGet();
+                    throw new RejectedExecutionException("Network thread budget exhausted ("
+                            + executor.getActiveCount() + " busy, " + executor.getQueue().size() + " queued)");
+                });
+        ioExecutor.allowCoreThreadTimeOut(true); // Idle budget costs nothing
+        timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("LanChat-timer-"));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The scheduler used by every networking class that is not given one explicitly. */
+    public static synchronized NetworkScheduler getShared() {
+        if (shared == null) {
+            shared = new NetworkScheduler(DEFAULT_IO_THREADS, DEFAULT_QUEUE_CAPACITY);
+        }
+        return shared;
+    }
+
+    /**
+     * Runs blocking work that finishes on the I/O pool, queueing it if every I/O thread is busy.
+     * While it runs, the worker thread carries the task name so thread dumps show what each thread
+     * is doing.
+     */
+    public Future<?> execute(String name, Runnable task) {
+        return ioExecutor.submit(named(name, task));
+    }
+
+    /**
+     * Runs a loop that holds its thread until its socket closes, on a thread of its own; throws
+     * {@link RejectedExecutionException} at once if the loop budget is spent.
+     */
+    public Future<?> executeLoop(String name, Runnable loop) {
+        return loopExecutor.submit(named(name, loop));
+    }
+
+    /** Non-blocking work after a delay, on the timer thread. */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(guarded(task), delay, unit);
+    }
+
+    /** Non-blocking periodic work on the timer thread. */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return timer.scheduleWithFixedDelay(guarded(task), initialDelay, delay, unit);
+    }
+
+    public int getActiveLoops() {
+        return loopExecutor.getActiveCount();
+    }
+
+    public int getActiveIoThreads() {
+        return ioExecutor.getActiveCount();
+    }
+
+    public int getIoPoolSize() {
+        return ioExecutor.getPoolSize();
+    }
+
+    public int getQueuedIoTasks() {
+        return ioExecutor.getQueue().size();
+    }
+
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    private static Runnable named(String name, Runnable task) {
+        return () -> {
+            Thread thread = Thread.currentThread();
+            String original = thread.getName();
+            thread.setName(original + " " + name);
+            try {
+                task.run();
+            } finally {
+                thread.setName(original);
+            }
+        };
+    }
+
+    // A periodic task that throws is silently cancelled by the executor; log instead
+    private static Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Timer task failed: " + e.getMessage());
+            }
+        };
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
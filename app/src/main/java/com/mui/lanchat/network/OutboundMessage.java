@@ -0,0 +1,172 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.model.ChatMessageCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One message queued to any number of peers that may speak different wire formats. Each format is
+ * encoded (and compressed) at most once, the first time a writer needs it, and shared by every
+ * peer using it.
+ *
+ * A relayed message starts out as the frame it arrived in. Peers that speak that format get those
+ * bytes back unchanged; the message is only decoded if some peer needs another format. The
+ * received frame lives in a pooled buffer: every queue holding the message takes a reference with
+ * {@link #retain()} and gives it back with {@link #release()} once written or discarded.
+ */
+final class OutboundMessage {
+
+    private static final String TAG = "OutboundMessage";
+
+    private final ChatMessageCodec textCodec;
+    private final FrameCompressor compressor;
+    private final SenderIdentity sender;
+    // Relayed messages only: the frame as received and the format it was received in
+    private final EncodedFrame received;
+    private final WireFormat receivedFormat;
+    private final int maxFrameBytes;
+    // Racing writers may both decode or encode; either result is correct and one of them wins
+    private volatile ChatMessage message;
+    private volatile EncodedFrame jsonLine;
+    private volatile EncodedFrame binary;
+    private volatile EncodedFrame compressed;
+
+    OutboundMessage(ChatMessage message, ChatMessageCodec textCodec, FrameCompressor compressor) {
+        this(message, textCodec, compressor, null);
+    }
+
+    /**
+     * With a sender, binary frames refer to it by ID; writers must send {@link #getSender()}'s
+     * announcement to a connection before its first message from that identity.
+     */
+    OutboundMessage(ChatMessage message, ChatMessageCodec textCodec, FrameCompressor compressor,
+                    SenderIdentity sender) {
+        this(message, textCodec, compressor, sender, null, null, 0);
+    }
+
+    private OutboundMessage(ChatMessage message, ChatMessageCodec textCodec, FrameCompressor compressor,
+                            SenderIdentity sender, EncodedFrame received, WireFormat receivedFormat,
+                            int maxFrameBytes) {
+        this.message = message;
+        this.textCodec = textCodec;
+        this.compressor = compressor;
+        this.sender = sender;
+        this.received = received;
+        this.receivedFormat = receivedFormat;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Relays a frame as received, taking over the caller's reference to it. The message may be null,
+     * in which case it is decoded from the frame only if a peer needs another format. A binary frame
+     * that refers to a sender ID must be given that sender.
+     */
+    static OutboundMessage relayed(EncodedFrame received, WireFormat receivedFormat, ChatMessage message,
+                                   ChatMessageCodec textCodec, FrameCompressor compressor,
+                                   SenderIdentity sender, int maxFrameBytes) {
+        return new OutboundMessage(message, textCodec, compressor, sender, received, receivedFormat,
+                maxFrameBytes);
+    }
+
+    SenderIdentity getSender() {
+        return sender;
+    }
+
+    void retain() {
+        if (received != null) {
+            received.retain();
+        }
+    }
+
+    void release() {
+        if (received != null) {
+            received.release();
+        }
+    }
+
+    /**
+     * The frame for a peer speaking {@code format}, or null if a relayed frame could not be
+     * converted to it, or if the message is a control and the peer speaks JSON lines; that peer
+     * just misses the message. The caller must hold a reference.
+     */
+    EncodedFrame frameFor(WireFormat format) {
+        if (!format.isBinary() && isControl()) {
+            return null; // JSON-lines peers predate control messages; they must never see one
+        }
+        if (received != null && (format == receivedFormat
+                || (format == WireFormat.BINARY_COMPRESSED && receivedFormat == WireFormat.BINARY))) {
+            return received; // An uncompressed frame is valid on a compressed connection too
+        }
+        EncodedFrame frame;
+        switch (format) {
+            case BINARY_COMPRESSED:
+                frame = compressed;
+                if (frame == null) {
+                    ChatMessage decoded = message();
+                    if (decoded == null) {
+                        return null;
+                    }
+                    frame = BinaryWireCodec.encode(decoded, compressor, sender);
+                    compressed = frame;
+                }
+                return frame;
+            case BINARY:
+                frame = binary;
+                if (frame == null) {
+                    ChatMessage decoded = message();
+                    if (decoded == null) {
+                        return null;
+                    }
+                    frame = BinaryWireCodec.encode(decoded, null, sender);
+                    binary = frame;
+                }
+                return frame;
+            default:
+                frame = jsonLine;
+                if (frame == null) {
+                    ChatMessage decoded = message();
+                    if (decoded == null) {
+                        return null;
+                    }
+                    frame = EncodedFrame.ofLine(textCodec.encode(decoded));
+                    jsonLine = frame;
+                }
+                return frame;
+        }
+    }
+
+    // Relayed frames are never controls: the hub handles those itself
+    private boolean isControl() {
+        ChatMessage decoded = message;
+        return received == null && decoded != null && decoded.isControl();
+    }
+
+    private ChatMessage message() {
+        ChatMessage decoded = message;
+        if (decoded != null) {
+            return decoded;
+        }
+        try {
+            if (receivedFormat.isBinary()) {
+                byte[] frame = received.array();
+                int header = 1; // Skip the length prefix
+                while ((frame[header - 1] & 0x80) != 0) {
+                    header++;
+                }
+                decoded = BinaryWireCodec.decode(frame, header, received.length() - header, compressor,
+                        id -> sender != null && sender.id == id ? sender : null, maxFrameBytes);
+            } else {
+                decoded = textCodec.decode(new String(received.array(), 0, received.length() - 1,
+                        StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot convert relayed " + receivedFormat + " frame: " + e.getMessage());
+            return null;
+        }
+        message = decoded;
+        return decoded;
+    }
+}
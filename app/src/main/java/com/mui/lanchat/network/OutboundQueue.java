@@ -0,0 +1,108 @@
+package com.mui.lanchat.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded multi-producer, single-consumer queue of frames waiting to be written to one peer.
+ * Producers learn from {@link #offer} whether the peer has been slow for too long, so the
+ * caller can apply the {@link SlowConsumerPolicy} without ever blocking on that peer.
+ * Items discarded without being polled are handed to the discard callback.
+ */
+final class OutboundQueue<T> {
+
+    enum Verdict {
+        QUEUED,
+        DROPPED_BACKLOG, // Backlog was discarded, the new item was queued
+        EVICT            // Caller should disconnect the peer
+    }
+
+    private final SlowConsumerPolicy policy;
+    private final Queue<T> items = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile long overMarkSinceNanos; // 0 while below the high-water mark
+    private final AtomicLong dropped = new AtomicLong();
+    private final Consumer<? super T> onDiscard;
+
+    OutboundQueue(SlowConsumerPolicy policy) {
+        this(policy, item -> {
+        });
+    }
+
+    OutboundQueue(SlowConsumerPolicy policy, Consumer<? super T> onDiscard) {
+        this.policy = policy;
+        this.onDiscard = onDiscard;
+    }
+
+    Verdict offer(T item) {
+        int queued = size.get();
+        if (queued >= policy.getCapacity()) {
+            return overflow(item);
+        }
+        if (queued >= policy.getHighWaterMark()) {
+            long now = System.nanoTime();
+            long since = overMarkSinceNanos;
+            if (since == 0) {
+                overMarkSinceNanos = now;
+            } else if (now - since > policy.getMaxOverMarkMillis() * 1_000_000L) {
+                return overflow(item);
+            }
+        }
+        items.add(item);
+        size.incrementAndGet();
+        return Verdict.QUEUED;
+    }
+
+    private Verdict overflow(T item) {
+        if (policy.getAction() == SlowConsumerPolicy.Action.DISCONNECT) {
+            return Verdict.EVICT;
+        }
+        dropped.addAndGet(clear());
+        items.add(item);
+        size.incrementAndGet();
+        return Verdict.DROPPED_BACKLOG;
+    }
+
+    T peek() {
+        return items.peek();
+    }
+
+    T poll() {
+        T item = items.poll();
+        if (item != null && size.decrementAndGet() < policy.getHighWaterMark()) {
+            overMarkSinceNanos = 0;
+        }
+        return item;
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Items discarded by DROPPED_BACKLOG verdicts since the last call. Each drop is reported to
+     * exactly one caller, however many producers race.
+     */
+    long takeDroppedCount() {
+        return dropped.getAndSet(0);
+    }
+
+    int clear() {
+        int removed = 0;
+        T item;
+        while ((item = items.poll()) != null) {
+            size.decrementAndGet();
+            onDiscard.accept(item);
+            removed++;
+        }
+        overMarkSinceNanos = 0;
+        return removed;
+    }
+}
@@ -0,0 +1,28 @@
+package com.mui.lanchat.network;
+
+/**
+ * One client connection on the hub, whichever engine serves it.
+ */
+interface PeerConnection {
+
+    String getClientIp();
+
+    /** Queues a message in whatever wire format this peer negotiated; never blocks on the network. */
+    void send(OutboundMessage message);
+
+    /** {@link System#nanoTime()} of the last successful read from this peer. */
+    long getLastReadNanos();
+
+    /**
+     * Whether the peer settled on a binary format in its handshake. Only such peers understand
+     * control messages; a JSON-lines client would show them as blank chat rows.
+     */
+    boolean understandsControls();
+
+    /** The identity this peer registered for its binary session, or null. */
+    SenderIdentity getSender();
+
+    void setSender(SenderIdentity sender);
+
+    void close();
+}
@@ -0,0 +1,100 @@
+package com.mui.lanchat.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The peers discovery currently knows about, each with its last-seen time. Peers are keyed by
+ * instance ID, so several instances on one host are told apart; peers too old to send one are
+ * keyed by IP address. Callers turn the returned changes into events outside the table's lock.
+ * Thread-safe.
+ */
+final class PeerTable {
+
+    enum Change {
+        ADDED,
+        UPDATED,  // The peer's beacon or address changed
+        REFRESHED // Only its last-seen time moved
+    }
+
+    private final Map<String, DiscoveredPeer> peers = new LinkedHashMap<>(); // In order of discovery
+
+    /** The key of a peer with this instance ID, or of an older peer at this address if it is 0. */
+    static String keyFor(String ipAddress, long instanceId) {
+        return instanceId != 0 ? Long.toHexString(instanceId) : ipAddress;
+    }
+
+    /** Records a sighting; a null beacon keeps the one already known. */
+    synchronized Change record(String key, String ipAddress, DiscoveryBeacon beacon, long nowNanos) {
+        DiscoveredPeer known = peers.get(key);
+        if (beacon == null && known != null) {
+            beacon = known.getBeacon();
+        }
+        peers.put(key, new DiscoveredPeer(key, ipAddress, beacon, nowNanos));
+        if (known == null) {
+            return Change.ADDED;
+        }
+        boolean changed = !ipAddress.equals(known.getIpAddress())
+                || (beacon != null && !beacon.sameAdvertisement(known.getBeacon()));
+        return changed ? Change.UPDATED : Change.REFRESHED;
+    }
+
+    synchronized DiscoveredPeer get(String key) {
+        return peers.get(key);
+    }
+
+    /** Removes and returns the peer, or null if it is not known. */
+    synchronized DiscoveredPeer remove(String key) {
+        return peers.remove(key);
+    }
+
+    synchronized boolean hasPeerSilentFor(long nowNanos, long silentNanos) {
+        for (DiscoveredPeer peer : peers.values()) {
+            if (nowNanos - peer.lastSeenNanos > silentNanos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The instance IDs of the peers seen within the last withinNanos whose beacon we have; a peer
+     * only seen scanning still has to answer.
+     */
+    synchronized List<Long> recentlyAnswered(long nowNanos, long withinNanos) {
+        List<Long> recent = new ArrayList<>();
+        for (DiscoveredPeer peer : peers.values()) {
+            if (peer.getBeacon() != null && nowNanos - peer.lastSeenNanos <= withinNanos) {
+                recent.add(peer.getBeacon().getInstanceId());
+            }
+        }
+        return recent;
+    }
+
+    /** Removes and returns the peers not seen for ttlNanos. */
+    synchronized List<DiscoveredPeer> expire(long nowNanos, long ttlNanos) {
+        List<DiscoveredPeer> expired = new ArrayList<>();
+        for (Iterator<DiscoveredPeer> it = peers.values().iterator(); it.hasNext(); ) {
+            DiscoveredPeer peer = it.next();
+            if (nowNanos - peer.lastSeenNanos > ttlNanos) {
+                it.remove();
+                expired.add(peer);
+            }
+        }
+        return expired;
+    }
+
+    /** Removes and returns every peer. */
+    synchronized List<DiscoveredPeer> clear() {
+        List<DiscoveredPeer> removed = new ArrayList<>(peers.values());
+        peers.clear();
+        return removed;
+    }
+
+    synchronized List<DiscoveredPeer> snapshot() {
+        return new ArrayList<>(peers.values());
+    }
+}
@@ -0,0 +1,186 @@
+package com.mui.lanchat.network;
+
+/**
+ * What a hub needs to route and deduplicate one received message, read straight from its encoded
+ * bytes: no strings are decoded and compressed content is not inflated. Each connection reuses
+ * one instance for every message it reads.
+ */
+final class RelayHeader {
+
+    private static final byte[] KEY_MESSAGE_ID = {'m', 'e', 's', 's', 'a', 'g', 'e', 'I', 'd'};
+    private static final byte[] KEY_TYPE = {'t', 'y', 'p', 'e'};
+    private static final byte[] LITERAL_NULL = {'n', 'u', 'l', 'l'};
+
+    long messageId;    // 0 if absent
+    int senderId;      // 0 if the message names its sender inline
+    boolean control;   // Has a type: the hub must decode it
+    boolean compressed;
+
+    void reset() {
+        messageId = 0;
+        senderId = 0;
+        control = false;
+        compressed = false;
+    }
+
+    /** Reads a binary frame body; false if it is malformed. */
+    boolean readFrame(byte[] data, int offset, int length) {
+        return BinaryWireCodec.readHeader(data, offset, length, this);
+    }
+
+    /**
+     * Reads the top-level "messageId" and "type" members of a JSON line. False if the line is not
+     * a plain JSON object this scanner is sure about (escaped keys, fractional IDs, repeated keys);
+     * such lines take the full decode, whose parser is more forgiving.
+     */
+    boolean readJsonLine(byte[] data, int offset, int length) {
+        reset();
+        int end = offset + length;
+        int position = skipWhitespace(data, offset, end);
+        if (position == end || data[position++] != '{') {
+            return false;
+        }
+        boolean sawId = false;
+        position = skipWhitespace(data, position, end);
+        if (position < end && data[position] == '}') {
+            return skipWhitespace(data, position + 1, end) == end;
+        }
+        while (position < end) {
+            if (data[position] != '"') {
+                return false;
+            }
+            int keyStart = position + 1;
+            int keyEnd = keyStart;
+            while (keyEnd < end && data[keyEnd] != '"') {
+                if (data[keyEnd] == '\\') {
+                    return false;
+                }
+                keyEnd++;
+            }
+            position = skipWhitespace(data, keyEnd + 1, end);
+            if (keyEnd == end || position == end || data[position++] != ':') {
+                return false;
+            }
+            position = skipWhitespace(data, position, end);
+            if (matches(data, keyStart, keyEnd, KEY_MESSAGE_ID)) {
+                if (sawId) {
+                    return false;
+                }
+                sawId = true;
+                position = readLong(data, position, end);
+            } else if (matches(data, keyStart, keyEnd, KEY_TYPE)) {
+                if (!startsWith(data, position, end, LITERAL_NULL)) {
+                    control = true;
+                }
+                position = skipValue(data, position, end);
+            } else {
+                position = skipValue(data, position, end);
+            }
+            if (position < 0) {
+                return false;
+            }
+            position = skipWhitespace(data, position, end);
+            if (position == end) {
+                return false;
+            }
+            byte next = data[position++];
+            if (next == '}') {
+                return skipWhitespace(data, position, end) == end;
+            }
+            if (next != ',') {
+                return false;
+            }
+            position = skipWhitespace(data, position, end);
+        }
+        return false;
+    }
+
+    // Stores the number in messageId; -1 unless it is a plain integer that fits a long
+    private int readLong(byte[] data, int position, int end) {
+        boolean negative = position < end && data[position] == '-';
+        if (negative) {
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < end && data[position] >= '0' && data[position] <= '9') {
+            int digit = data[position++] - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return -1;
+            }
+            value = value * 10 - digit; // Accumulate negatively so Long.MIN_VALUE fits
+        }
+        if (position == start
+                || (position < end && (data[position] == '.' || data[position] == 'e' || data[position] == 'E'))) {
+            return -1;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return -1;
+            }
+            value = -value;
+        }
+        messageId = value;
+        return position;
+    }
+
+    // Position after one JSON value, or -1 if it is malformed
+    private static int skipValue(byte[] data, int position, int end) {
+        int start = position;
+        int depth = 0;
+        while (position < end) {
+            byte b = data[position];
+            if (b == '"') {
+                position++;
+                while (position < end && data[position] != '"') {
+                    position += data[position] == '\\' ? 2 : 1;
+                }
+                if (position >= end) {
+                    return -1;
+                }
+                position++;
+            } else if (b == '{' || b == '[') {
+                depth++;
+                position++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    return position > start ? position : -1; // Closes the enclosing object
+                }
+                depth--;
+                position++;
+            } else if (b == ',' && depth == 0) {
+                return position > start ? position : -1;
+            } else {
+                position++;
+            }
+            if (depth == 0 && (b == '"' || b == '}' || b == ']')) {
+                return position;
+            }
+        }
+        return depth == 0 ? position : -1;
+    }
+
+    private static int skipWhitespace(byte[] data, int position, int end) {
+        while (position < end && (data[position] == ' ' || data[position] == '\t'
+                || data[position] == '\r' || data[position] == '\n')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean matches(byte[] data, int start, int end, byte[] expected) {
+        return end - start == expected.length && startsWith(data, start, end, expected);
+    }
+
+    private static boolean startsWith(byte[] data, int start, int end, byte[] expected) {
+        if (end - start < expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
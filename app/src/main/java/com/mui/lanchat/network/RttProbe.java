@@ -0,0 +1,89 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures round trips to peers with one UDP ping each, {@code LAN_CHAT_PING:<token>}, sent to the
+ * peer's {@link MulticastDiscovery} port. Members of the group answer straight away with
+ * {@code LAN_CHAT_PONG:<token>}, without the delay discovery replies get. Peers that are not in
+ * the group, or predate pings, never answer.
+ */
+final class RttProbe {
+
+    private static final String TAG = "RttProbe";
+    static final String PING_MESSAGE = "LAN_CHAT_PING";
+    static final String PONG_MESSAGE = "LAN_CHAT_PONG";
+
+    private static final Random random = new Random();
+
+    private RttProbe() {
+    }
+
+    /** The answer to a ping. */
+    static String pongFor(String ping) {
+        return PONG_MESSAGE + ping.substring(PING_MESSAGE.length());
+    }
+
+    /**
+     * Pings every address at once and waits up to {@code timeoutMillis} for the answers; blocks.
+     * Returns the round trip in nanoseconds of each address that answered.
+     */
+    static Map<String, Long> measure(Collection<String> ipAddresses, long timeoutMillis) {
+        Map<String, Long> rtts = new HashMap<>();
+        Map<String, String> addressByToken = new HashMap<>();
+        Map<String, Long> sentNanos = new HashMap<>();
+        DatagramSocket socket = null;
+        try {
+            socket = new DatagramSocket();
+            for (String ipAddress : ipAddresses) {
+                String token = Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+                byte[] ping = (PING_MESSAGE + ":" + token).getBytes();
+                addressByToken.put(token, ipAddress);
+                sentNanos.put(ipAddress, System.nanoTime());
+                socket.send(new DatagramPacket(ping, ping.length, InetAddress.getByName(ipAddress),
+                        MulticastDiscovery.GROUP_PORT));
+            }
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            byte[] buffer = new byte[256];
+            while (rtts.size() < addressByToken.size()) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remainingMillis);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                long now = System.nanoTime();
+                String message = new String(packet.getData(), packet.getOffset(), packet.getLength());
+                if (!message.startsWith(PONG_MESSAGE + ":")) {
+                    continue;
+                }
+                String ipAddress = addressByToken.get(message.substring(PONG_MESSAGE.length() + 1));
+                if (ipAddress != null && !rtts.containsKey(ipAddress)) {
+                    rtts.put(ipAddress, now - sentNanos.get(ipAddress));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "RTT probe failed: " + e.getMessage());
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+        return rtts;
+    }
+}
@@ -0,0 +1,43 @@
+package com.mui.lanchat.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the most recent message IDs so a message that reaches us over more than one path is
+ * only delivered and relayed once. The window is bounded; the oldest IDs are forgotten first.
+ */
+public class SeenMessageWindow {
+
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private final Map<Long, Boolean> seen;
+
+    public SeenMessageWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SeenMessageWindow(final int capacity) {
+        this.seen = new LinkedHashMap<Long, Boolean>(capacity * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Records the ID and returns true the first time it is seen. ID 0 (unstamped) is never
+     * treated as a duplicate.
+     */
+    public synchronized boolean markSeen(long messageId) {
+        if (messageId == 0) {
+            return true;
+        }
+        return seen.put(messageId, Boolean.TRUE) == null;
+    }
+
+    public synchronized void clear() {
+        seen.clear();
+    }
+}
@@ -0,0 +1,725 @@
+package com.mui.lanchat.network;
+
+import android.util.Log;
+
+import com.mui.lanchat.model.ChatMessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking engine for {@link ChatServer}. Instead of one blocking thread per client, all
+ * connections are multiplexed over a small fixed set of selector loops, each holding one thread
+ * of the {@link NetworkScheduler} budget. The first loop also owns the listening channel and
+ * hands accepted connections out round-robin.
+ */
+class SelectorChatEngine {
+
+    private static final String TAG = "SelectorChatEngine";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_GATHER = 16; // Frames handed to one gathering write
+
+    private final int port;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final TransportProfile transportProfile;
+    private final AdmissionPolicy admissionPolicy;
+    private final ConnectionAdmission admission;
+    private final ChatMessageCodec codec;
+    private final FrameCompressor compressor;
+    private final long flushWindowNanos;
+    private final ChatServerStats stats;
+    private final NetworkScheduler scheduler;
+    private final ChatServer server;
+    private final ChatServer.OnClientConnectionListener connectionListener;
+    private final IoLoop[] loops;
+    private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private int nextLoop;
+
+    SelectorChatEngine(int port, int ioThreads, SlowConsumerPolicy slowConsumerPolicy,
+                       TransportProfile transportProfile, AdmissionPolicy admissionPolicy,
+                       ConnectionAdmission admission, ChatMessageCodec codec, FrameCompressor compressor,
+                       ChatServerStats stats, NetworkScheduler scheduler,
+                       ChatServer server, ChatServer.OnClientConnectionListener connectionListener) {
+        this.port = port;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.transportProfile = transportProfile;
+        this.admissionPolicy = admissionPolicy;
+        this.admission = admission;
+        this.codec = codec;
+        this.compressor = compressor;
+        this.flushWindowNanos = transportProfile.getFlushWindowMillis() * 1_000_000L;
+        this.stats = stats;
+        this.scheduler = scheduler;
+        this.server = server;
+        this.connectionListener = connectionListener;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+    }
+
+    /**
+     * Default number of selector threads: enough to use a couple of cores, never one per client.
+     */
+    static int defaultIoThreads() {
+        return Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    void start() throws IOException {
+        if (running) {
+            Log.w(TAG, "Selector engine already running.");
+            return;
+        }
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            transportProfile.applyTo(serverChannel.socket());
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop(i);
+            }
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+
+        running = true;
+        for (IoLoop loop : loops) {
+            try {
+                scheduler.executeLoop(loop.name, loop);
+            } catch (RejectedExecutionException e) {
+                stop();
+                throw e;
+            }
+        }
+        Log.d(TAG, "Selector engine started on port " + port + " with " + loops.length + " I/O thread(s)");
+    }
+
+    void stop() {
+        running = false;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing server channel: " + e.getMessage());
+            }
+        }
+        for (IoLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup(); // Loop notices !running, closes its connections and exits
+            }
+        }
+    }
+
+    /** The port the engine listens on, once started. */
+    int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel == null ? 0 : channel.socket().getLocalPort();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    Iterable<? extends PeerConnection> getConnections() {
+        return connections;
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    void broadcast(OutboundMessage message, PeerConnection exclude) {
+        for (Connection connection : connections) {
+            if (connection != exclude) {
+                connection.send(message);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            String ip = remoteIp(channel);
+            if (!admission.tryAdmit(ip)) {
+                stats.rejectedConnections.incrementAndGet();
+                Log.w(TAG, "Refusing client " + ip + ": connection limit reached");
+                closeQuietly(channel);
+                continue;
+            }
+            IoLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.pendingRegistrations.add(channel);
+            loop.selector.wakeup();
+        }
+    }
+
+    private static String remoteIp(SocketChannel channel) {
+        return channel.socket().getInetAddress().getHostAddress();
+    }
+
+    // For channels that were admitted but never became a Connection
+    private void releaseAndClose(SocketChannel channel) {
+        admission.release(remoteIp(channel));
+        closeQuietly(channel);
+    }
+
+    // A listener that throws must not take down the loop and every client on it
+    private void notifyListener(String clientIp, boolean connected) {
+        if (connectionListener == null) {
+            return;
+        }
+        try {
+            if (connected) {
+                connectionListener.onClientConnected(clientIp);
+            } else {
+                connectionListener.onClientDisconnected(clientIp);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Connection listener failed for " + clientIp, e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final String name;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingCloses = new ConcurrentLinkedQueue<>();
+        // Shared by every connection on this loop; incomplete frames are copied out per connection
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        IoLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.name = "chat-selector-" + index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long timeoutMillis = 0;
+                while (running) {
+                    if (timeoutMillis > 0) {
+                        selector.select(timeoutMillis);
+                    } else {
+                        selector.select();
+                    }
+                    closePending();
+                    registerPending();
+                    resumePending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+
+                    closePending(); // Closed while handling keys; tear down before the next select
+                    timeoutMillis = flushPendingWrites();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    Log.e(TAG, "I/O loop failed: " + e.getMessage());
+                    if (connectionListener != null) {
+                        connectionListener.onChatServerError("Server error: " + e.getMessage());
+                    }
+                }
+            } finally {
+                shutdown();
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isAcceptable()) {
+                    accept();
+                    return;
+                }
+                if (key.isReadable()) {
+                    connection.onReadable(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                if (connection != null) {
+                    Log.e(TAG, "Client " + connection.clientIp + " disconnected: " + e.getMessage());
+                    connection.close();
+                } else if (running) {
+                    Log.e(TAG, "Error accepting connection: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // A bug in decoding or in a listener costs this client its connection, not the
+                // loop and every other client on it
+                if (connection != null) {
+                    Log.e(TAG, "Error serving client " + connection.clientIp + ", disconnecting", e);
+                    connection.close();
+                } else {
+                    Log.e(TAG, "Error accepting connection", e);
+                }
+            }
+        }
+
+        /**
+         * Flushes connections whose flush window has elapsed, oldest first. Returns how long the
+         * selector may sleep before the next one is due, or 0 if nothing is waiting.
+         */
+        private long flushPendingWrites() {
+            long now = System.nanoTime();
+            Connection connection;
+            while ((connection = pendingWrites.peek()) != null) {
+                long remaining = connection.writeScheduledAtNanos + flushWindowNanos - now;
+                if (remaining > 0) {
+                    return Math.max(1, (remaining + 999_999) / 1_000_000);
+                }
+                pendingWrites.poll();
+                try {
+                    connection.flush();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error writing to client " + connection.clientIp + ", disconnecting", e);
+                    connection.close();
+                }
+            }
+            return 0;
+        }
+
+        // Connections closed since the last pass, by any thread, are torn down here
+        private void closePending() {
+            Connection connection;
+            while ((connection = pendingCloses.poll()) != null) {
+                connection.release();
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    transportProfile.applyTo(channel.socket());
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.add(connection);
+                    scheduler.schedule(connection::onHandshakeTimeout, Handshake.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    Log.d(TAG, "New client connected: " + connection.clientIp);
+                    notifyListener(connection.clientIp, true);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error registering client channel: " + e.getMessage());
+                    releaseAndClose(channel);
+                }
+            }
+        }
+
+        private void resumePending() {
+            Connection connection;
+            while ((connection = pendingResumes.poll()) != null) {
+                connection.resumeReading();
+            }
+        }
+
+        private void shutdown() {
+            List<Connection> owned = new ArrayList<>();
+            for (Connection connection : connections) {
+                if (connection.loop == this) {
+                    owned.add(connection);
+                }
+            }
+            for (Connection connection : owned) {
+                connection.close();
+            }
+            closePending();
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                releaseAndClose(channel);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing selector: " + e.getMessage());
+            }
+            Log.d(TAG, name + " stopped.");
+        }
+    }
+
+    private final class Connection implements PeerConnection, FrameDecoder.Sink {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final String clientIp;
+        private final OutboundQueue<OutboundMessage> outbound =
+                new OutboundQueue<>(slowConsumerPolicy, OutboundMessage::release);
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final InboundRateLimiter rateLimiter = new InboundRateLimiter(admissionPolicy);
+        private final FrameDecoder decoder =
+                new FrameDecoder(transportProfile.getMaxFrameBytes(), BufferPool.getShared());
+        private volatile WireFormat format; // Null until the handshake settles it; nothing is written before
+        private SelectionKey key;
+        private volatile long writeScheduledAtNanos;
+        private volatile long lastReadNanos = System.nanoTime();
+        private volatile SenderIdentity sender;
+        // A client may only refer to the identity it registered itself
+        private final SenderIdentity.Table senderTable = id -> {
+            SenderIdentity own = sender;
+            return own != null && own.id == id ? own : null;
+        };
+        private final SenderAnnouncements announcements = new SenderAnnouncements();
+        private final RelayHeader relayHeader = new RelayHeader(); // Reader only
+        private long pauseNanos; // Loop thread only: throttling owed for the current read
+        // Frames taken off the queue for the current gathering write; only touched by the loop
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        // The message each gathered buffer belongs to, released once its bytes are written; null for announcements
+        private final OutboundMessage[] gatherOwners = new OutboundMessage[MAX_GATHER];
+        private int gatherCount;
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.clientIp = remoteIp(channel);
+        }
+
+        @Override
+        public String getClientIp() {
+            return clientIp;
+        }
+
+        @Override
+        public long getLastReadNanos() {
+            return lastReadNanos;
+        }
+
+        @Override
+        public boolean understandsControls() {
+            WireFormat settled = format;
+            return settled != null && settled.isBinary();
+        }
+
+        @Override
+        public SenderIdentity getSender() {
+            return sender;
+        }
+
+        @Override
+        public void setSender(SenderIdentity sender) {
+            this.sender = sender;
+        }
+
+        /** Called from any thread; the owning loop performs the actual write. */
+        @Override
+        public void send(OutboundMessage message) {
+            if (closed.get()) {
+                return;
+            }
+            message.retain(); // Before the loop can see it
+            switch (outbound.offer(message)) {
+                case EVICT:
+                    message.release();
+                    stats.slowConsumerEvictions.incrementAndGet();
+                    Log.w(TAG, "Client " + clientIp + " is too slow (" + outbound.size() + " queued), disconnecting.");
+                    close();
+                    return;
+                case DROPPED_BACKLOG:
+                    long dropped = outbound.takeDroppedCount();
+                    stats.droppedOutboundMessages.addAndGet(dropped);
+                    Log.w(TAG, "Client " + clientIp + " is too slow, dropped " + dropped + " queued message(s).");
+                    break;
+                default:
+                    break;
+            }
+            if (format != null) {
+                scheduleWrite();
+            }
+        }
+
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                writeScheduledAtNanos = System.nanoTime();
+                loop.pendingWrites.add(this);
+                loop.selector.wakeup();
+            }
+        }
+
+        void onReadable(ByteBuffer buffer) throws IOException {
+            if (closed.get()) {
+                return; // Selected before the loop got to its pending close
+            }
+            try {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    Log.d(TAG, "Client " + clientIp + " closed the connection.");
+                    close();
+                    return;
+                }
+                lastReadNanos = System.nanoTime();
+                decoder.feed(buffer.array(), 0, read, this);
+                if (pauseNanos > 0 && !closed.get()) {
+                    pauseReading(pauseNanos);
+                }
+                pauseNanos = 0;
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void onLine(byte[] data, int offset, int length) {
+            if (closed.get()) {
+                return;
+            }
+            if (format == null) {
+                Handshake hello = Handshake.parse(new String(data, offset, length, StandardCharsets.UTF_8));
+                if (hello != null) {
+                    acceptHandshake(hello);
+                    return;
+                }
+                settleFormat(WireFormat.JSON_LINES); // First line is JSON: a client that predates the handshake
+            }
+            if (!admitInbound(length + 1)) {
+                return;
+            }
+            if (relayHeader.readJsonLine(data, offset, length)
+                    && server.relayAsReceived(relayHeader, WireFormat.JSON_LINES, data, offset, length, this)) {
+                return;
+            }
+            String line = new String(data, offset, length, StandardCharsets.UTF_8);
+            Log.d(TAG, "Received from client " + clientIp + ": " + line);
+            try {
+                server.onInboundMessage(codec.decode(line), this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error parsing received message from " + clientIp + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onFrame(byte[] data, int offset, int length) {
+            if (closed.get() || !admitInbound(length + 1)) {
+                return;
+            }
+            if (relayHeader.readFrame(data, offset, length)
+                    && server.relayAsReceived(relayHeader, format, data, offset, length, this)) {
+                return;
+            }
+            try {
+                server.onInboundMessage(BinaryWireCodec.decode(data, offset, length,
+                        format == WireFormat.BINARY_COMPRESSED ? compressor : null, senderTable,
+                        transportProfile.getMaxFrameBytes()), this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error decoding frame from " + clientIp + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onOversizedFrame(int length) {
+            Log.e(TAG, "Skipping " + length + "-byte frame from " + clientIp);
+            stats.oversizedFramesSkipped.incrementAndGet();
+            // Skipped bytes still cost bandwidth, so a stream of them is throttled like messages
+            if (rateLimiter.isThrottling()) {
+                pauseNanos = Math.max(pauseNanos, rateLimiter.acquire(length));
+            } else {
+                rateLimiter.tryAcquire(length);
+            }
+        }
+
+        // False if the message must be dropped; in throttle mode records how long to stop reading
+        private boolean admitInbound(int messageBytes) {
+            if (rateLimiter.isThrottling()) {
+                pauseNanos = Math.max(pauseNanos, rateLimiter.acquire(messageBytes));
+                return true;
+            }
+            if (!rateLimiter.tryAcquire(messageBytes)) {
+                stats.rateLimitedMessagesDropped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        /** Runs on the loop thread only. */
+        private synchronized void acceptHandshake(Handshake hello) {
+            if (format != null) {
+                return; // Too late: already fell back to JSON lines, and the client will too
+            }
+            Handshake reply = hello.agree(compressor.isEnabled());
+            // Nothing has been gathered yet, so the reply goes out ahead of anything queued
+            gather[gatherCount++] = reply.toFrame().buffer();
+            WireFormat agreedFormat = reply.format();
+            decoder.setFormat(agreedFormat);
+            format = agreedFormat;
+            writeScheduled.set(true);
+            flush();
+        }
+
+        // Timer thread: a client that has not spoken yet predates the handshake
+        void onHandshakeTimeout() {
+            settleFormat(WireFormat.JSON_LINES);
+        }
+
+        private synchronized void settleFormat(WireFormat settled) {
+            if (format != null) {
+                return;
+            }
+            format = settled;
+            if (!outbound.isEmpty()) {
+                scheduleWrite();
+            }
+        }
+
+        // Over its rate limit: stop reading so the socket buffers fill and TCP slows the sender
+        private void pauseReading(long pauseNanos) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            stats.throttledReads.incrementAndGet();
+            stats.throttledMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(pauseNanos));
+            scheduler.schedule(() -> {
+                loop.pendingResumes.add(this);
+                loop.selector.wakeup();
+            }, pauseNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** Runs on the loop thread only. */
+        void resumeReading() {
+            if (closed.get() || key == null || !key.isValid()) {
+                return;
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        /** Runs on the loop thread only. Queued frames go out in gathering writes. */
+        void flush() {
+            if (closed.get() || key == null || !key.isValid()) {
+                return;
+            }
+            WireFormat wireFormat = format;
+            try {
+                while (true) {
+                    OutboundMessage next;
+                    // Leave room for a sender announcement ahead of each message
+                    while (gatherCount < MAX_GATHER - 1 && (next = outbound.poll()) != null) {
+                        EncodedFrame frame = next.frameFor(wireFormat);
+                        if (frame == null) {
+                            next.release();
+                            continue;
+                        }
+                        EncodedFrame announcement = announcements.before(next, wireFormat);
+                        if (announcement != null) {
+                            gather[gatherCount++] = announcement.buffer();
+                        }
+                        gatherOwners[gatherCount] = next;
+                        gather[gatherCount++] = frame.buffer();
+                    }
+                    if (gatherCount == 0) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        writeScheduled.set(false);
+                        // A sender may have queued after we drained but before the flag was cleared
+                        if (outbound.isEmpty() || !writeScheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    long written = channel.write(gather, 0, gatherCount);
+                    int completed = 0;
+                    while (completed < gatherCount && !gather[completed].hasRemaining()) {
+                        completed++;
+                    }
+                    if (written > 0) {
+                        stats.transport.recordWrite(completed, written);
+                    }
+                    for (int i = 0; i < completed; i++) {
+                        if (gatherOwners[i] != null) {
+                            gatherOwners[i].release();
+                        }
+                    }
+                    System.arraycopy(gather, completed, gather, 0, gatherCount - completed);
+                    System.arraycopy(gatherOwners, completed, gatherOwners, 0, gatherCount - completed);
+                    for (int i = gatherCount - completed; i < gatherCount; i++) {
+                        gather[i] = null;
+                        gatherOwners[i] = null;
+                    }
+                    gatherCount -= completed;
+                    if (gatherCount > 0) {
+                        // Kernel buffer is full, wait for OP_WRITE
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+            } catch (IOException | CancelledKeyException e) {
+                Log.e(TAG, "Error writing to client " + clientIp + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * Called from any thread, including from inside this connection's own read or write. The
+         * gather buffers and decoder belong to the loop, so the loop tears them down once it is
+         * done with them; from here on nothing more is read or written.
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            loop.pendingCloses.add(this);
+            loop.selector.wakeup();
+        }
+
+        /** Runs on the loop thread only, once per connection, after {@link #close()}. */
+        void release() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing client channel: " + e.getMessage());
+            }
+            stats.droppedOutboundMessages.addAndGet(outbound.clear() + gatherCount);
+            for (int i = 0; i < gatherCount; i++) {
+                if (gatherOwners[i] != null) {
+                    gatherOwners[i].release();
+                }
+                gather[i] = null;
+                gatherOwners[i] = null;
+            }
+            gatherCount = 0;
+            decoder.release();
+            admission.release(clientIp);
+            if (connections.remove(this)) {
+                notifyListener(clientIp, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.mui.lanchat.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Which sender table entries one connection has already been taught. Confined to the connection's
+ * writer, which consults it right before writing each message, so an announcement always reaches
+ * the peer ahead of the first frame that refers to it.
+ */
+final class SenderAnnouncements {
+
+    private final Map<Integer, SenderIdentity> announced = new HashMap<>();
+
+    /** The announcement to write before this message, or null if the peer already knows its sender. */
+    EncodedFrame before(OutboundMessage message, WireFormat format) {
+        SenderIdentity sender = message.getSender();
+        if (sender == null || !format.isBinary() || announced.get(sender.id) == sender) {
+            return null;
+        }
+        announced.put(sender.id, sender);
+        return sender.announcement();
+    }
+}
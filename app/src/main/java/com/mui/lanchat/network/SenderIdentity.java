@@ -0,0 +1,51 @@
+package com.mui.lanchat.network;
+
+import com.mui.lanchat.model.ChatMessage;
+
+/**
+ * One entry of a session's sender table: the identity behind a compact sender ID. Binary frames
+ * from a registered sender carry only the ID instead of its IP and name.
+ *
+ * Immutable; a nickname change produces a new identity with the same ID, so every queued message
+ * keeps the identity it was sent under and writers can tell when to announce again.
+ */
+final class SenderIdentity {
+
+    /** Resolves sender IDs found in inbound frames; returns null for IDs the peer may not use. */
+    interface Table {
+        SenderIdentity lookup(int senderId);
+    }
+
+    final int id;
+    final String senderIp;
+    final String senderName;
+    private volatile EncodedFrame announcement;
+
+    SenderIdentity(int id, String senderIp, String senderName) {
+        this.id = id;
+        this.senderIp = senderIp;
+        this.senderName = senderName;
+    }
+
+    boolean matches(ChatMessage message) {
+        return equal(senderIp, message.getSenderIp()) && equal(senderName, message.getSenderName());
+    }
+
+    ChatMessage toControl(String type) {
+        return ChatMessage.senderControl(type, id, senderIp, senderName);
+    }
+
+    /** The frame that teaches a client this binding; shared by every connection it is sent to. */
+    EncodedFrame announcement() {
+        EncodedFrame frame = announcement;
+        if (frame == null) {
+            frame = BinaryWireCodec.encode(toControl(ChatMessage.TYPE_SENDER));
+            announcement = frame;
+        }
+        return frame;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
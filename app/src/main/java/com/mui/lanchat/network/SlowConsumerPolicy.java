@@ -0,0 +1,49 @@
+package com.mui.lanchat.network;
+
+/**
+ * Limits how far a single peer may fall behind on outbound messages. Every connection gets a
+ * bounded queue; once it stays above the high-water mark for longer than the grace period (or
+ * fills up completely) the configured action is applied to that peer only.
+ */
+public class SlowConsumerPolicy {
+
+    public enum Action {
+        DISCONNECT,   // Close the connection and let the peer reconnect
+        DROP_BACKLOG  // Throw away everything still queued and keep the connection
+    }
+
+    private final int capacity;
+    private final int highWaterMark;
+    private final long maxOverMarkMillis;
+    private final Action action;
+
+    public SlowConsumerPolicy(int capacity, int highWaterMark, long maxOverMarkMillis, Action action) {
+        if (capacity <= 0 || highWaterMark <= 0 || highWaterMark > capacity) {
+            throw new IllegalArgumentException("Require 0 < highWaterMark <= capacity");
+        }
+        this.capacity = capacity;
+        this.highWaterMark = highWaterMark;
+        this.maxOverMarkMillis = maxOverMarkMillis;
+        this.action = action;
+    }
+
+    public static SlowConsumerPolicy defaultPolicy() {
+        return new SlowConsumerPolicy(512, 256, 5000, Action.DISCONNECT);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getMaxOverMarkMillis() {
+        return maxOverMarkMillis;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+}
@@ -0,0 +1,42 @@
+package com.mui.lanchat.network;
+
+/**
+ * Classic token bucket. Not thread-safe: each connection's reader owns its buckets.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double tokensPerSecond, double capacity) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+
+    boolean hasTokens(double amount) {
+        refill();
+        return tokens >= amount;
+    }
+
+    /** Takes the tokens even if that leaves the bucket in debt. */
+    void consume(double amount) {
+        refill();
+        tokens -= amount;
+    }
+
+    /** How long until the bucket is out of debt; 0 if it is not in debt. */
+    long nanosUntilSolvent() {
+        refill();
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+}
@@ -0,0 +1,96 @@
+package com.mui.lanchat.network;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket tuning for chat connections. A flush window holds written messages back for a few
+ * milliseconds so a burst leaves in one write instead of one small segment per message;
+ * a window of 0 flushes as soon as the outbound queue is empty.
+ *
+ * The frame limit caps a single line or binary frame, before and after decompression. It bounds
+ * the memory one connection can pin with a partial frame; larger binary frames are skipped.
+ */
+public class TransportProfile {
+
+    private final boolean tcpNoDelay;
+    private final int sendBufferSize;    // 0 keeps the system default
+    private final int receiveBufferSize; // 0 keeps the system default
+    private final long flushWindowMillis;
+    private final int maxCoalesceBytes;  // Flush early once this much is buffered
+    private final int maxFrameBytes;
+
+    public static final int DEFAULT_MAX_FRAME_BYTES = 256 * 1024;
+
+    public TransportProfile(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize,
+                            long flushWindowMillis, int maxCoalesceBytes) {
+        this(tcpNoDelay, sendBufferSize, receiveBufferSize, flushWindowMillis, maxCoalesceBytes,
+                DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    public TransportProfile(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize,
+                            long flushWindowMillis, int maxCoalesceBytes, int maxFrameBytes) {
+        if (sendBufferSize < 0 || receiveBufferSize < 0 || flushWindowMillis < 0 || maxCoalesceBytes <= 0
+                || maxFrameBytes <= 0) {
+            throw new IllegalArgumentException("Invalid transport profile");
+        }
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.flushWindowMillis = flushWindowMillis;
+        this.maxCoalesceBytes = maxCoalesceBytes;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /** Interactive chat: no Nagle delay, coalesce only what is already queued. */
+    public static TransportProfile lowLatency() {
+        return new TransportProfile(true, 0, 0, 0, 16 * 1024);
+    }
+
+    /** Busy hubs relaying bursts: larger buffers and a short window to pack writes. */
+    public static TransportProfile highThroughput() {
+        return new TransportProfile(true, 256 * 1024, 256 * 1024, 10, 64 * 1024);
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public long getFlushWindowMillis() {
+        return flushWindowMillis;
+    }
+
+    public int getMaxCoalesceBytes() {
+        return maxCoalesceBytes;
+    }
+
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    void applyTo(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    // Must run before bind() so accepted sockets can negotiate a matching TCP window
+    void applyTo(ServerSocket serverSocket) throws SocketException {
+        if (receiveBufferSize > 0) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.mui.lanchat.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write counters for one side of the chat transport, used to tune {@link TransportProfile}.
+ */
+public class TransportStats {
+
+    final AtomicLong messagesWritten = new AtomicLong();
+    final AtomicLong socketWrites = new AtomicLong();
+    final AtomicLong bytesWritten = new AtomicLong();
+
+    void recordWrite(int messages, long bytes) {
+        messagesWritten.addAndGet(messages);
+        socketWrites.incrementAndGet();
+        bytesWritten.addAndGet(bytes);
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten.get();
+    }
+
+    /** Write calls handed to the socket; each one is at least one TCP segment. */
+    public long getSocketWrites() {
+        return socketWrites.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** Messages that shared a socket write with another message instead of sending their own segment. */
+    public long getSegmentsSaved() {
+        return Math.max(0, messagesWritten.get() - socketWrites.get());
+    }
+}
@@ -9,9 +9,10 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class UdpDiscoveryServer {
 
@@ -20,9 +21,10 @@ public class UdpDiscoveryServer {
     public static final String DISCOVERY_MESSAGE = "LAN_CHAT_DISCOVER"; // Message clients send
     public static final String DISCOVERY_RESPONSE = "LAN_CHAT_HELLO"; // Message server responds with
 
-    private DatagramSocket socket;
-    private boolean running;
-    private ExecutorService executorService;
+    private volatile DatagramSocket socket;
+    private volatile boolean running;
+    private final NetworkScheduler scheduler;
+    private Future<?> serverTask;
     private OnDiscoveryListener listener;
     private Context context;
 
@@ -32,9 +34,13 @@ public class UdpDiscoveryServer {
     }
 
     public UdpDiscoveryServer(Context context, OnDiscoveryListener listener) {
+        this(context, listener, NetworkScheduler.getShared());
+    }
+
+    public UdpDiscoveryServer(Context context, OnDiscoveryListener listener, NetworkScheduler scheduler) {
         this.context = context;
         this.listener = listener;
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.scheduler = scheduler;
     }
 
     public void start() {
@@ -44,72 +50,88 @@ public class UdpDiscoveryServer {
         }
 
         running = true;
-        executorService.execute(() -> {
-            try {
-                socket = new DatagramSocket(DISCOVERY_PORT, NetworkUtils.getBroadcastAddress(context));
-                socket.setBroadcast(true); // Ensure socket is set for broadcast
-
-                Log.d(TAG, "UDP Discovery Server started on port " + DISCOVERY_PORT);
-
-                while (running) {
-                    byte[] buffer = new byte[1024];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet); // This blocks until a packet is received
-
-                    String message = new String(packet.getData(), 0, packet.getLength());
-                    String senderIp = packet.getAddress().getHostAddress();
-
-                    Log.d(TAG, "Received UDP packet from " + senderIp + ": " + message);
-
-                    // Ignore messages from self
-                    String localIp = NetworkUtils.getLocalIpAddress(context);
-                    if (localIp != null && localIp.equals(senderIp)) {
-                        continue;
-                    }
+        try {
+            serverTask = scheduler.executeLoop("udp-discovery-server", this::runServer);
+        } catch (RejectedExecutionException e) {
+            running = false;
+            Log.e(TAG, "Cannot start discovery server: " + e.getMessage());
+            if (listener != null) {
+                listener.onUdpServerError("Discovery unavailable: " + e.getMessage());
+            }
+        }
+    }
 
-                    if (message.startsWith(DISCOVERY_MESSAGE)) {
-                        // Respond to discovery request
-                        sendResponse(packet.getAddress(), packet.getPort());
-                        if (listener != null) {
-                            listener.onPeerDiscovered(senderIp, message);
-                        }
-                    }
-                }
-            } catch (SocketException e) {
-                if (running) { // Only log if it's an unexpected error, not due to stop()
-                    Log.e(TAG, "SocketException in UDP server: " + e.getMessage());
+    private void runServer() {
+        try {
+            socket = new DatagramSocket(null);
+            socket.setReuseAddress(true); // Other instances on this host listen on the port too
+            socket.bind(new InetSocketAddress(NetworkUtils.getBroadcastAddress(context), DISCOVERY_PORT));
+            socket.setBroadcast(true); // Ensure socket is set for broadcast
+
+            Log.d(TAG, "UDP Discovery Server started on port " + DISCOVERY_PORT);
+
+            while (running) {
+                byte[] buffer = new byte[DiscoveryScan.RECEIVE_BUFFER_BYTES];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet); // This blocks until a packet is received
+
+                String message = new String(packet.getData(), 0, packet.getLength());
+                String senderIp = packet.getAddress().getHostAddress();
+
+                Log.d(TAG, "Received UDP packet from " + senderIp + ": " + message);
+
+                DiscoveryScan scan = DiscoveryScan.parse(message);
+                String localIp = NetworkUtils.getLocalIpAddress(context);
+                if (scan != null && !DiscoveryResponder.getShared().isOwn(scan.instanceId, senderIp, localIp)) {
+                    // Respond to discovery request, after a random delay and only if the requester needs it
+                    final InetAddress clientAddress = packet.getAddress();
+                    final int clientPort = packet.getPort();
+                    DiscoveryResponder.getShared().answer(scan, localIp, scheduler,
+                            response -> sendResponse(response, clientAddress, clientPort));
                     if (listener != null) {
-                        listener.onUdpServerError("Socket error: " + e.getMessage()); // <--- MODIFIED LINE
+                        listener.onPeerDiscovered(senderIp, message);
                     }
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "IOException in UDP server: " + e.getMessage());
+            }
+        } catch (SocketException e) {
+            if (running) { // Only log if it's an unexpected error, not due to stop()
+                Log.e(TAG, "SocketException in UDP server: " + e.getMessage());
                 if (listener != null) {
-                    listener.onUdpServerError("IO error: " + e.getMessage()); // <--- MODIFIED LINE
-                }
-            } finally {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
+                    listener.onUdpServerError("Socket error: " + e.getMessage()); // <--- MODIFIED LINE
                 }
-                Log.d(TAG, "UDP Discovery Server stopped.");
             }
-        });
+        } catch (IOException e) {
+            Log.e(TAG, "IOException in UDP server: " + e.getMessage());
+            if (listener != null) {
+                listener.onUdpServerError("IO error: " + e.getMessage()); // <--- MODIFIED LINE
+            }
+        } finally {
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
+            }
+            Log.d(TAG, "UDP Discovery Server stopped.");
+        }
     }
 
-    private void sendResponse(InetAddress clientAddress, int clientPort) throws IOException {
-        String response = DISCOVERY_RESPONSE + ":" + NetworkUtils.getLocalIpAddress(context);
-        byte[] responseData = response.getBytes();
+    // Runs on an I/O thread once the reply delay is up
+    private void sendResponse(byte[] responseData, InetAddress clientAddress, int clientPort) {
         DatagramPacket responsePacket = new DatagramPacket(responseData, responseData.length, clientAddress, clientPort);
-        if (socket != null && !socket.isClosed()) {
-            socket.send(responsePacket);
-            Log.d(TAG, "Sent UDP response to " + clientAddress.getHostAddress() + ":" + clientPort);
+        DatagramSocket current = socket;
+        if (current != null && !current.isClosed()) {
+            try {
+                current.send(responsePacket);
+                Log.d(TAG, "Sent UDP response to " + clientAddress.getHostAddress() + ":" + clientPort);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot send UDP response: " + e.getMessage());
+            }
         }
     }
 
     public void stop() {
         running = false;
-        if (executorService != null) {
-            executorService.shutdownNow(); // Interrupt the running thread
+        if (serverTask != null) {
+            serverTask.cancel(true); // Interrupt the running thread
+            serverTask = null;
         }
         if (socket != null && !socket.isClosed()) {
             socket.close(); // Close the socket to unblock receive()
@@ -0,0 +1,31 @@
+package com.mui.lanchat.network;
+
+/**
+ * Unsigned LEB128 integers, as used for frame lengths and field tags in the binary protocol.
+ */
+final class Varint {
+
+    static final int MAX_INT_BYTES = 5;
+
+    private Varint() {
+    }
+
+    static int size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** Returns the offset just past the written bytes. */
+    static int write(long value, byte[] out, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+}
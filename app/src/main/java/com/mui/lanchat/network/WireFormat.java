@@ -0,0 +1,14 @@
+package com.mui.lanchat.network;
+
+/**
+ * How messages are framed on one connection, decided by the handshake.
+ */
+enum WireFormat {
+    JSON_LINES,       // Newline-terminated JSON, spoken by peers that predate the handshake
+    BINARY,           // Varint length prefix followed by typed fields, see BinaryWireCodec
+    BINARY_COMPRESSED; // BINARY, with large bodies deflated as negotiated by the handshake
+
+    boolean isBinary() {
+        return this != JSON_LINES;
+    }
+}
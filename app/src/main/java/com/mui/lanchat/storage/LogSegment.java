@@ -0,0 +1,312 @@
+package com.mui.lanchat.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the {@link MessageLog}: records stored back to back in a memory-mapped file, named
+ * after the log index of its first record. The active segment is mapped read-write at its full
+ * capacity and appended to in place; a zero length marks the end of the data. A sealed segment is
+ * cut to its data, mapped read-only, and has a {@code .idx} file with its sparse index, so opening
+ * the log never has to scan it.
+ *
+ * Record layout: int payload length, int CRC32 of the rest, long message ID, long timestamp, payload.
+ *
+ * Not thread-safe: the log serializes access.
+ */
+final class LogSegment {
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    // Every Nth record is indexed, so finding any record scans at most N-1 headers
+    static final int INDEX_INTERVAL = 32;
+    private static final int INDEX_MAGIC = 0x4C434958; // "LCIX"
+
+    final long baseIndex;
+    private final File file;
+    private final File indexFile;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private boolean sealed;
+    private int writePosition;
+    private int recordCount;
+    // Sparse index: offset and timestamp of records 0, N, 2N, ...
+    private int[] indexOffsets = new int[16];
+    private long[] indexTimestamps = new long[16];
+    private int indexSize;
+    private final CRC32 crc = new CRC32();
+
+    private LogSegment(File directory, long baseIndex) {
+        this.baseIndex = baseIndex;
+        String name = String.format(Locale.ROOT, "%020d", baseIndex);
+        this.file = new File(directory, name + LOG_SUFFIX);
+        this.indexFile = new File(directory, name + INDEX_SUFFIX);
+    }
+
+    /** A new, empty active segment of {@code capacity} bytes. */
+    static LogSegment create(File directory, long baseIndex, int capacity) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseIndex);
+        segment.raf = new RandomAccessFile(segment.file, "rw");
+        segment.raf.setLength(capacity);
+        segment.buffer = segment.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return segment;
+    }
+
+    /**
+     * An existing segment. A sealed one with a valid index is opened without reading its records;
+     * otherwise the records are scanned and checked, and the data ends at the first torn one.
+     */
+    static LogSegment open(File directory, long baseIndex, boolean active, int minCapacity) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseIndex);
+        segment.raf = new RandomAccessFile(segment.file, "rw");
+        if (!active && segment.readIndexFile()) {
+            segment.sealed = true;
+            segment.buffer = segment.raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.writePosition);
+            return segment;
+        }
+        int capacity = (int) Math.max(segment.raf.length(), minCapacity);
+        segment.raf.setLength(capacity);
+        segment.buffer = segment.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        segment.recover();
+        if (!active) {
+            segment.seal();
+        }
+        return segment;
+    }
+
+    static long parseBaseIndex(String fileName) {
+        if (!fileName.endsWith(LOG_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    int getDataBytes() {
+        return writePosition;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    /** False if the record does not fit; the caller seals this segment and starts another. */
+    boolean append(long messageId, long timestamp, byte[] payload) {
+        int needed = HEADER_BYTES + payload.length;
+        if (sealed || buffer.capacity() - writePosition < needed) {
+            return false;
+        }
+        crc.reset();
+        crc.update(longBytes(messageId, timestamp));
+        crc.update(payload);
+        int position = writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putLong(position + 8, messageId);
+        buffer.putLong(position + 16, timestamp);
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_BYTES);
+        view.put(payload);
+        buffer.putInt(position, payload.length); // Last: a record only exists once its length does
+        addIndexEntry(recordCount, position, timestamp);
+        writePosition += needed;
+        recordCount++;
+        if (buffer.capacity() - writePosition >= 4) {
+            buffer.putInt(writePosition, 0); // End marker, in case stale bytes follow
+        }
+        return true;
+    }
+
+    /** Payload of record {@code ordinal} (0-based within this segment). */
+    byte[] read(int ordinal) {
+        int position = positionOf(ordinal);
+        byte[] payload = new byte[buffer.getInt(position)];
+        copy(position + HEADER_BYTES, payload);
+        return payload;
+    }
+
+    long timestampOf(int ordinal) {
+        return buffer.getLong(positionOf(ordinal) + 16);
+    }
+
+    /** Ordinal of the first indexed block that may hold {@code timestamp}, assuming roughly ordered appends. */
+    int floorIndexedOrdinal(long timestamp) {
+        int low = 0;
+        int high = indexSize - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimestamps[mid] <= timestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found * INDEX_INTERVAL;
+    }
+
+    long firstTimestamp() {
+        return indexSize > 0 ? indexTimestamps[0] : Long.MAX_VALUE;
+    }
+
+    /** Cuts the file to its data, writes the sparse index and remaps read-only. */
+    void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        buffer.force();
+        raf.setLength(writePosition);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, writePosition);
+        writeIndexFile();
+        sealed = true;
+    }
+
+    void force() {
+        if (!sealed) {
+            buffer.force();
+        }
+    }
+
+    void close() throws IOException {
+        force();
+        raf.close();
+    }
+
+    void delete() throws IOException {
+        raf.close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        indexFile.delete();
+    }
+
+    private int positionOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + ordinal + " of " + recordCount);
+        }
+        int position = indexOffsets[ordinal / INDEX_INTERVAL];
+        for (int skip = ordinal % INDEX_INTERVAL; skip > 0; skip--) {
+            position += HEADER_BYTES + buffer.getInt(position);
+        }
+        return position;
+    }
+
+    private void recover() {
+        int position = 0;
+        int limit = buffer.capacity();
+        while (limit - position >= HEADER_BYTES) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > limit - position - HEADER_BYTES) {
+                break;
+            }
+            byte[] record = new byte[16 + length];
+            copy(position + 8, record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break; // Torn by a crash mid-append: everything from here on is discarded
+            }
+            addIndexEntry(recordCount, position, buffer.getLong(position + 16));
+            position += HEADER_BYTES + length;
+            recordCount++;
+        }
+        writePosition = position;
+        if (limit - position >= 4) {
+            buffer.putInt(position, 0);
+        }
+    }
+
+    private void copy(int position, byte[] into) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(into);
+    }
+
+    private void addIndexEntry(int ordinal, int position, long timestamp) {
+        if (ordinal % INDEX_INTERVAL != 0) {
+            return;
+        }
+        if (indexSize == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+        }
+        indexOffsets[indexSize] = position;
+        indexTimestamps[indexSize] = timestamp;
+        indexSize++;
+    }
+
+    private void writeIndexFile() throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(recordCount);
+            out.writeInt(writePosition);
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                out.writeInt(indexOffsets[i]);
+                out.writeLong(indexTimestamps[i]);
+            }
+        }
+        if (!temp.renameTo(indexFile)) {
+            throw new IOException("Cannot write " + indexFile);
+        }
+    }
+
+    // False if the index is missing or does not describe this file; the caller scans instead
+    private boolean readIndexFile() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return false;
+            }
+            int count = in.readInt();
+            int dataBytes = in.readInt();
+            int entries = in.readInt();
+            if (dataBytes != raf.length() || entries != (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL) {
+                return false;
+            }
+            indexOffsets = new int[Math.max(entries, 1)];
+            indexTimestamps = new long[Math.max(entries, 1)];
+            for (int i = 0; i < entries; i++) {
+                indexOffsets[i] = in.readInt();
+                indexTimestamps[i] = in.readLong();
+            }
+            indexSize = entries;
+            recordCount = count;
+            writePosition = dataBytes;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] longBytes(long first, long second) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (first >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (second >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+}
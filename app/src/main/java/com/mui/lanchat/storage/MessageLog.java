@@ -0,0 +1,299 @@
+package com.mui.lanchat.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.model.ChatMessageCodec;
+import com.mui.lanchat.model.JsonChatMessageCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Durable chat history: an append-only log split into memory-mapped segment files. Every message
+ * gets a log index, counting from 0 since the log was last cleared. Opening the log reads each
+ * sealed segment's small index file instead of its records, so start-up cost does not grow with
+ * the history; only the active segment is scanned.
+ *
+ * Old history is dropped a whole segment at a time, either when the log exceeds its segment
+ * budget or when the user clears it.
+ *
+ * The blocking methods are thread-safe. The async variants run in order on the log's own thread,
+ * so the UI thread never touches the disk.
+ */
+public class MessageLog {
+
+    private static final String TAG = "MessageLog";
+    public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 32;
+    private static final String DIRECTORY_NAME = "messages";
+    private static final String UNREADABLE_TEXT = "(This message could not be read)";
+
+    private static MessageLog shared;
+
+    public interface OnLogOpenedListener {
+        /** Called on the log thread with the opened log, or null if history cannot be stored. */
+        void onLogOpened(MessageLog log);
+    }
+
+    public interface OnMessagesLoadedListener {
+        /** Called on the log thread with the messages at log indexes [from, to), oldest first. */
+        void onMessagesLoaded(long from, long to, List<ChatMessage> messages);
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ChatMessageCodec codec;
+    private final List<LogSegment> segments = new ArrayList<>(); // Oldest first; the last one is active
+    // Shared by every log, so opening one is queued in order with work on the others
+    private static final ExecutorService ioThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LanChat-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MessageLog(File directory, int segmentBytes, int maxSegments, ChatMessageCodec codec) throws IOException {
+        if (segmentBytes <= LogSegment.HEADER_BYTES || maxSegments < 1) {
+            throw new IllegalArgumentException("Invalid message log limits");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.codec = codec;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        open();
+    }
+
+    /**
+     * The log in the app's private storage, opened on first use. Opening reads every segment's
+     * index and scans the active segment, so the UI thread uses {@link #openSharedAsync} instead.
+     */
+    public static synchronized MessageLog getShared(Context context) throws IOException {
+        if (shared == null) {
+            shared = new MessageLog(new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME),
+                    DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS, JsonChatMessageCodec.getInstance());
+        }
+        return shared;
+    }
+
+    /**
+     * Opens the shared log on the log thread and passes it to the listener there. The listener runs
+     * in order with the log's async work, so blocking calls made from it take effect where the open
+     * was queued.
+     */
+    public static void openSharedAsync(Context context, final OnLogOpenedListener listener) {
+        final Context appContext = context.getApplicationContext();
+        ioThread.execute(() -> {
+            MessageLog log;
+            try {
+                log = getShared(appContext);
+            } catch (IOException e) {
+                Log.e(TAG, "Chat history unavailable: " + e.getMessage());
+                log = null;
+            }
+            listener.onLogOpened(log);
+        });
+    }
+
+    private void open() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                long base = LogSegment.parseBaseIndex(name);
+                if (base >= 0) {
+                    bases.add(base);
+                }
+            }
+        }
+        Collections.sort(bases);
+        for (int i = 0; i < bases.size(); i++) {
+            boolean active = i == bases.size() - 1;
+            segments.add(LogSegment.open(directory, bases.get(i), active, segmentBytes));
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(directory, 0, segmentBytes));
+        }
+    }
+
+    public synchronized void append(ChatMessage message) throws IOException {
+        byte[] payload = codec.encode(message).getBytes(StandardCharsets.UTF_8);
+        LogSegment active = segments.get(segments.size() - 1);
+        if (active.append(message.getMessageId(), message.getTimestamp(), payload)) {
+            return;
+        }
+        active.seal();
+        long nextBase = active.baseIndex + active.getRecordCount();
+        // A message larger than a segment gets a segment of its own
+        LogSegment next = LogSegment.create(directory, nextBase,
+                Math.max(segmentBytes, LogSegment.HEADER_BYTES + payload.length + 4));
+        segments.add(next);
+        next.append(message.getMessageId(), message.getTimestamp(), payload);
+        while (segments.size() > maxSegments) {
+            segments.remove(0).delete();
+        }
+    }
+
+    /** Index of the oldest message still in the log. */
+    public synchronized long getFirstIndex() {
+        return segments.get(0).baseIndex;
+    }
+
+    /** Index the next appended message will get. */
+    public synchronized long getEndIndex() {
+        LogSegment active = segments.get(segments.size() - 1);
+        return active.baseIndex + active.getRecordCount();
+    }
+
+    /**
+     * Up to {@code count} messages starting at log index {@code from}, oldest first. A record that no
+     * longer decodes is returned as a system placeholder, so element i is always log index from + i.
+     */
+    public synchronized List<ChatMessage> read(long from, int count) {
+        long end = Math.min(getEndIndex(), from + count);
+        long index = Math.max(from, getFirstIndex());
+        List<ChatMessage> messages = new ArrayList<>((int) Math.max(0, end - index));
+        int segment = segmentFor(index);
+        while (index < end) {
+            LogSegment current = segments.get(segment);
+            int ordinal = (int) (index - current.baseIndex);
+            if (ordinal >= current.getRecordCount()) {
+                segment++;
+                continue;
+            }
+            ChatMessage message = decode(current.read(ordinal));
+            if (message == null) {
+                message = new ChatMessage(null, 0, "System", "System", UNREADABLE_TEXT,
+                        current.timestampOf(ordinal));
+            }
+            messages.add(message);
+            index++;
+        }
+        return messages;
+    }
+
+    /** The newest {@code count} messages, oldest first. */
+    public synchronized List<ChatMessage> readTail(int count) {
+        return read(Math.max(getFirstIndex(), getEndIndex() - count), count);
+    }
+
+    /**
+     * Index of the first message stamped at or after {@code timestamp}, found through the sparse
+     * index. Timestamps come from the senders' clocks, so this is exact only while they agree.
+     */
+    public synchronized long indexOfTimestamp(long timestamp) {
+        int segment = 0;
+        while (segment + 1 < segments.size() && segments.get(segment + 1).firstTimestamp() <= timestamp) {
+            segment++;
+        }
+        for (; segment < segments.size(); segment++) {
+            LogSegment current = segments.get(segment);
+            for (int ordinal = current.floorIndexedOrdinal(timestamp); ordinal < current.getRecordCount(); ordinal++) {
+                if (current.timestampOf(ordinal) >= timestamp) {
+                    return current.baseIndex + ordinal;
+                }
+            }
+        }
+        return getEndIndex();
+    }
+
+    /** Drops the whole history by deleting every segment; indexes start again from 0. */
+    public synchronized void clear() throws IOException {
+        for (LogSegment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        segments.add(LogSegment.create(directory, 0, segmentBytes));
+    }
+
+    /** Forces appended records to storage; they already survive the process dying without it. */
+    public synchronized void flush() {
+        segments.get(segments.size() - 1).force();
+    }
+
+    public void appendAsync(final ChatMessage message) {
+        ioThread.execute(() -> {
+            try {
+                append(message);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot append message: " + e.getMessage());
+            }
+        });
+    }
+
+    /** As {@link #read}; the range passed to the listener is clamped to what the log holds. */
+    public void readAsync(final long from, final int count, final OnMessagesLoadedListener listener) {
+        ioThread.execute(() -> {
+            long start;
+            long end;
+            List<ChatMessage> messages;
+            synchronized (this) {
+                end = Math.min(getEndIndex(), from + count);
+                start = Math.min(Math.max(from, getFirstIndex()), end);
+                messages = read(start, (int) (end - start));
+            }
+            listener.onMessagesLoaded(start, end, messages);
+        });
+    }
+
+    public void readTailAsync(final int count, final OnMessagesLoadedListener listener) {
+        ioThread.execute(() -> {
+            long start;
+            long end;
+            List<ChatMessage> messages;
+            synchronized (this) {
+                end = getEndIndex();
+                start = Math.max(getFirstIndex(), end - count);
+                messages = read(start, (int) (end - start));
+            }
+            listener.onMessagesLoaded(start, end, messages);
+        });
+    }
+
+    public void clearAsync() {
+        ioThread.execute(() -> {
+            try {
+                clear();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot clear message log: " + e.getMessage());
+            }
+        });
+    }
+
+    public void flushAsync() {
+        ioThread.execute(this::flush);
+    }
+
+    private int segmentFor(long index) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).baseIndex <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private ChatMessage decode(byte[] payload) {
+        try {
+            return codec.decode(new String(payload, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            Log.e(TAG, "Unreadable record: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,39 +1,32 @@
 package com.mui.lanchat.ui.home;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.mui.lanchat.R;
-import com.mui.lanchat.model.ChatMessage;
-import com.mui.lanchat.utils.NetworkUtils;
-
-import java.text.SimpleDateFormat;
-import java.util.List;
-import java.util.Locale;
 
+// Shows the window of messages held by a MessagePager, which pages the rest in and out as rows are bound.
+// Rows arrive fully prepared by MessageRowFactory, so binding only assigns them to the views.
 public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.MessageViewHolder> {
 
-    private List<ChatMessage> messageList;
-    private Context context;
-    private String localIp;
+    private MessagePager pager;
 
-    public ChatMessageAdapter(List<ChatMessage> messageList, Context context) {
-        this.messageList = messageList;
-        this.context = context;
-        this.localIp = NetworkUtils.getLocalIpAddress(context);
+    ChatMessageAdapter(MessagePager pager) {
+        this.pager = pager;
     }
 
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view;
-        if (viewType == 0) { // My message
+        if (viewType == MessageRow.VIEW_TYPE_SENT) { // My message
             view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_sent, parent, false);
         } else { // Received message
             view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_message_received, parent, false);
@@ -43,37 +36,33 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        ChatMessage message = messageList.get(position);
-        holder.messageTextView.setText(message.getMessage());
-
-        // Display nickname, fall back to IP if nickname is empty
-        String senderDisplay = message.getSenderName();
-        if (senderDisplay == null || senderDisplay.trim().isEmpty()) {
-            senderDisplay = message.getSenderIp();
-        } else {
-            // Optionally, combine name and IP for clarity
-            senderDisplay = message.getSenderName() + " (" + message.getSenderIp() + ")";
-        }
-        holder.senderTextView.setText(senderDisplay); // <--- MODIFIED LINE
-
-        holder.timeTextView.setText(formatTimestamp(message.getTimestamp()));
+        MessageRow row = pager.get(position);
+        setMessageText(holder.messageTextView, row.text);
+        holder.senderTextView.setText(row.senderLabel);
+        holder.timeTextView.setText(row.timeText);
+        pager.onBind(position);
     }
 
     @Override
     public int getItemCount() {
-        return messageList.size();
+        return pager.size();
     }
 
     @Override
     public int getItemViewType(int position) {
-        ChatMessage message = messageList.get(position);
-        // If sender IP matches local IP, it's a sent message (0), otherwise received (1)
-        return (localIp != null && localIp.equals(message.getSenderIp())) ? 0 : 1;
+        return pager.get(position).viewType;
     }
 
-    private String formatTimestamp(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        return sdf.format(timestamp);
+    private static void setMessageText(TextView view, CharSequence text) {
+        if (text instanceof PrecomputedTextCompat) {
+            try {
+                TextViewCompat.setPrecomputedText(view, (PrecomputedTextCompat) text);
+                return;
+            } catch (IllegalArgumentException e) {
+                // Measured for other text metrics (the theme changed, say); lay it out again here
+            }
+        }
+        view.setText(text);
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
@@ -90,4 +79,4 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
             messageCard = itemView.findViewById(R.id.messageCard);
         }
     }
-}
\ No newline at end of file
+}
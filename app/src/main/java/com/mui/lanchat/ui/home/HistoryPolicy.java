@@ -0,0 +1,66 @@
+package com.mui.lanchat.ui.home;
+
+import com.mui.lanchat.model.ChatMessage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits how much chat history the chat list keeps in memory, by message count and by an estimate
+ * of the bytes its rows take, whichever is reached first. Older history beyond the limits stays in
+ * the message log, if there is one, and is paged back in on scrolling up.
+ */
+public class HistoryPolicy {
+
+    public enum Eviction {
+        OLDEST_FIRST,       // Drop the oldest rows
+        KEEP_SELECTED_PEERS // Drop the oldest rows from other senders first; the selected peers' go last
+    }
+
+    public static final int DEFAULT_MAX_MESSAGES = 500;
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final Eviction eviction;
+    private final Set<String> keptPeers;
+
+    /** {@code keptPeers} are sender IPs; only used with {@link Eviction#KEEP_SELECTED_PEERS}. */
+    public HistoryPolicy(int maxMessages, long maxBytes, Eviction eviction, Collection<String> keptPeers) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("History limits must be positive");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.eviction = eviction;
+        this.keptPeers = Collections.unmodifiableSet(new HashSet<>(keptPeers));
+    }
+
+    public static HistoryPolicy defaultPolicy() {
+        return new HistoryPolicy(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES, Eviction.OLDEST_FIRST,
+                Collections.<String>emptySet());
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public Set<String> getKeptPeers() {
+        return keptPeers;
+    }
+
+    /** True if the message should outlast other rows when the oldest history is evicted. */
+    boolean keeps(ChatMessage message) {
+        return eviction == Eviction.KEEP_SELECTED_PEERS && keptPeers.contains(message.getSenderIp());
+    }
+}
@@ -1,5 +1,9 @@
 package com.mui.lanchat.ui.home;
 
+import static com.mui.lanchat.ui.settings.SettingsFragment.KEY_HISTORY_KEEP_PEERS;
+import static com.mui.lanchat.ui.settings.SettingsFragment.KEY_HISTORY_KEPT_PEERS;
+import static com.mui.lanchat.ui.settings.SettingsFragment.KEY_HISTORY_MAX_KB;
+import static com.mui.lanchat.ui.settings.SettingsFragment.KEY_HISTORY_MAX_MESSAGES;
 import static com.mui.lanchat.ui.settings.SettingsFragment.KEY_NICKNAME;
 import static com.mui.lanchat.ui.settings.SettingsFragment.PREFS_NAME;
 
@@ -26,37 +30,53 @@ import com.mui.lanchat.databinding.FragmentHomeBinding;
 import com.mui.lanchat.model.ChatMessage;
 import com.mui.lanchat.network.ChatClient;
 import com.mui.lanchat.network.ChatServer;
-import com.mui.lanchat.network.UdpDiscoveryClient;
+import com.mui.lanchat.network.SeenMessageWindow;
+import com.mui.lanchat.network.DiscoveredPeer;
+import com.mui.lanchat.network.DiscoveryService;
+import com.mui.lanchat.network.HubSelector;
 import com.mui.lanchat.network.UdpDiscoveryServer;
+import com.mui.lanchat.storage.MessageLog;
 import com.mui.lanchat.utils.NetworkUtils;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class HomeFragment extends Fragment implements UdpDiscoveryServer.OnDiscoveryListener,
-        UdpDiscoveryClient.OnDiscoveryResponseListener,
+        DiscoveryService.Listener, HubSelector.Listener,
         ChatServer.OnMessageReceivedListener, ChatServer.OnClientConnectionListener,
         ChatClient.OnMessageReceivedListener, ChatClient.OnConnectionStatusListener {
 
     private static final String TAG = "HomeFragment";
+    // History beyond the user's history limits stays in the message log, paged in this many at a time
+    private static final int HISTORY_PAGE_MESSAGES = 100;
     private FragmentHomeBinding binding;
     private ChatMessageAdapter chatMessageAdapter;
-    private List<ChatMessage> messageList;
+    private MessagePager messagePager;
+    private MessageRowFactory rowFactory;
+    private MessageBatcher messageBatcher;
     private EditText messageInput;
     private Button sendButton;
     private TextView statusText;
     private RecyclerView recyclerView;
 
     private UdpDiscoveryServer udpDiscoveryServer;
-    private UdpDiscoveryClient udpDiscoveryClient;
+    private DiscoveryService discoveryService;
+    private HubSelector hubSelector;
     private ChatServer chatServer;
     private ChatClient chatClient;
+    private MessageLog messageLog; // Null if history cannot be stored
 
     private String localIpAddress;
     private String localNickname; // <--- NEW FIELD
     private String connectedPeerIp = null; // IP of the peer we are actively chatting with
+    private DiscoveredPeer joinedHub; // The hub chatClient connects or is connected to
+    private boolean replacingClient; // Closing chatClient on purpose; its disconnect is not a loss
 
     private Handler uiHandler = new Handler(Looper.getMainLooper());
+    // We can hear the same message as a server and as a client; show it only once
+    private final SeenMessageWindow seenMessages = new SeenMessageWindow();
+    // Bumped by clearChatHistory; rows still being prepared for the old history are dropped
+    private volatile int rowGeneration;
 
 
     public View onCreateView(@NonNull LayoutInflater inflater,
@@ -67,12 +87,24 @@ public class HomeFragment extends Fragment implements UdpDiscoveryServer.OnDisco
         binding = FragmentHomeBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
 
-        messageList = new ArrayList<>();
-        chatMessageAdapter = new ChatMessageAdapter(messageList, getContext());
+        rowFactory = new MessageRowFactory(requireContext());
+        messagePager = new MessagePager(rowFactory, uiHandler, HISTORY_PAGE_MESSAGES, loadHistoryPolicy());
+        openMessageLog();
+        chatMessageAdapter = new ChatMessageAdapter(messagePager);
+        messagePager.setAdapter(chatMessageAdapter);
+        messageBatcher = new MessageBatcher(rows -> {
+            messagePager.addAll(rows);
+            scrollToLatest();
+        });
 
         recyclerView = binding.recyclerViewChat;
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         recyclerView.setAdapter(chatMessageAdapter);
+        messagePager.loadLatest(() -> {
+            if (binding != null) {
+                scrollToLatest();
+            }
+        });
 
         messageInput = binding.editTextMessage;
         sendButton = binding.buttonSend;
@@ -102,6 +134,23 @@ public class HomeFragment extends Fragment implements UdpDiscoveryServer.OnDisco
         SharedPreferences prefs = requireActivity().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         localNickname = prefs.getString(KEY_NICKNAME, "Me"); // Default to "Me" if not set
     }
+    // The limits set in SettingsFragment; they apply from the next time this view is created
+    private HistoryPolicy loadHistoryPolicy() {
+        SharedPreferences prefs = requireActivity().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        List<String> keptPeers = new ArrayList<>();
+        for (String peer : prefs.getString(KEY_HISTORY_KEPT_PEERS, "").split("[,\\s]+")) {
+            if (!peer.isEmpty()) {
+                keptPeers.add(peer);
+            }
+        }
+        return new HistoryPolicy(
+                prefs.getInt(KEY_HISTORY_MAX_MESSAGES, HistoryPolicy.DEFAULT_MAX_MESSAGES),
+                prefs.getInt(KEY_HISTORY_MAX_KB, (int) (HistoryPolicy.DEFAULT_MAX_BYTES / 1024)) * 1024L,
+                prefs.getBoolean(KEY_HISTORY_KEEP_PEERS, false)
+                        ? HistoryPolicy.Eviction.KEEP_SELECTED_PEERS : HistoryPolicy.Eviction.OLDEST_FIRST,
+                keptPeers);
+    }
+
 public void scrollToBottom() {
         uiHandler.post(() -> {
             if (chatMessageAdapter != null && chatMessageAdapter.getItemCount() > 0) {
@@ -110,13 +159,28 @@ public void scrollToBottom() {
         });
     }
 
-    // <--- NEW METHOD: Public method to clear chat history
+    // Called on the UI thread after MainActivity has queued the message log's clear; only the shown
+    // messages, and those not yet stored, are left to drop
     public void clearChatHistory() {
-        uiHandler.post(() -> {
-            messageList.clear();
-            chatMessageAdapter.notifyDataSetChanged();
-            addMessage(new ChatMessage("System", "System", "Chat history cleared.")); // Add a system message
-        });
+        rowGeneration++;
+        messageBatcher.discardPending();
+        messagePager.clear();
+        showSystemMessage("Chat history cleared.");
+    }
+
+    /** Timing of the once-per-frame updates that add new messages to the chat list. */
+    public MessageBatchStats getMessageBatchStats() {
+        return messageBatcher.getStats();
+    }
+
+    // Opening reads the disk, so it happens on the log thread; the pager holds what arrives meanwhile.
+    // The pager gets the log even if the view is gone by then, so those messages are still stored.
+    private void openMessageLog() {
+        final MessagePager pager = messagePager;
+        MessageLog.openSharedAsync(requireContext(), log -> uiHandler.post(() -> {
+            messageLog = log;
+            pager.onLogOpened(log);
+        }));
     }
 
     private void initializeNetworkComponents() {
@@ -125,13 +189,18 @@ public void scrollToBottom() {
         udpDiscoveryServer.start();
         Log.d(TAG, "UDP Discovery Server started.");
 
-        // Start UDP Client to discover peers
-        udpDiscoveryClient = new UdpDiscoveryClient(getContext(), this);
-        udpDiscoveryClient.startDiscovery();
-        Log.d(TAG, "UDP Discovery Client started.");
+        // Keep scanning for peers for as long as the chat is open
+        discoveryService = new DiscoveryService(getContext(), this);
+        // Join the best hub once discovery has heard from the ones nearby
+        hubSelector = new HubSelector(discoveryService, this);
+        discoveryService.start();
+        hubSelector.selectSoon();
+        Log.d(TAG, "Discovery service started.");
 
         // Start TCP Chat Server to accept incoming chat connections
         chatServer = new ChatServer(this, this);
+        chatServer.setRelayEnabled(true); // Forward each client's messages to the other clients
+        chatServer.setNickname(localNickname); // Advertised to peers in discovery beacons
         chatServer.startServer();
         Log.d(TAG, "TCP Chat Server started.");
 
@@ -145,6 +214,7 @@ public void scrollToBottom() {
         }
         // Use localNickname when creating ChatMessage
         ChatMessage chatMessage = new ChatMessage(localIpAddress, localNickname, messageContent); // <--- MODIFIED LINE
+        seenMessages.markSeen(chatMessage.getMessageId()); // Ignore our own message if it comes back
 
         // Add to local chat
         addMessage(chatMessage);
@@ -162,12 +232,31 @@ public void scrollToBottom() {
         }
     }
 
+    // Chat messages are stored; status notices are only shown. Both are applied on the UI thread once
+    // per frame, so the pager numbers stored messages in the order the log gets them. Rows are
+    // prepared on the row thread, in call order, so neither the UI nor a network thread lays out text.
     private void addMessage(ChatMessage message) {
-        uiHandler.post(() -> {
-            messageList.add(message);
-            chatMessageAdapter.notifyItemInserted(messageList.size() - 1);
-            recyclerView.scrollToPosition(messageList.size() - 1);
-        });
+        final int generation = rowGeneration;
+        rowFactory.createAsync(message, row -> addRow(row, generation));
+    }
+
+    private void showSystemMessage(String text) {
+        final int generation = rowGeneration;
+        rowFactory.createNoticeAsync(text, row -> addRow(row, generation));
+    }
+
+    // Row thread
+    private void addRow(MessageRow row, int generation) {
+        if (generation == rowGeneration) {
+            messageBatcher.add(row);
+        }
+    }
+
+    // Follows new messages unless the user has scrolled back through the history
+    private void scrollToLatest() {
+        if (messagePager.isAttached() && messagePager.size() > 0) {
+            recyclerView.scrollToPosition(messagePager.size() - 1);
+        }
     }
 
     private void updateStatus(String status) {
@@ -181,11 +270,15 @@ public void scrollToBottom() {
     public void onDestroyView() {
         super.onDestroyView();
         binding = null;
+        messageBatcher.stop();
         if (udpDiscoveryServer != null) {
             udpDiscoveryServer.stop();
         }
-        if (udpDiscoveryClient != null) {
-            udpDiscoveryClient.stopDiscovery();
+        if (hubSelector != null) {
+            hubSelector.stop();
+        }
+        if (discoveryService != null) {
+            discoveryService.stop();
         }
         if (chatServer != null) {
             chatServer.stopServer();
@@ -193,6 +286,9 @@ public void scrollToBottom() {
         if (chatClient != null) {
             chatClient.close();
         }
+        if (messageLog != null) {
+            messageLog.flushAsync();
+        }
         Log.d(TAG, "HomeFragment destroyed, networking components stopped.");
     }
 
@@ -200,13 +296,10 @@ public void scrollToBottom() {
     @Override
     public void onPeerDiscovered(String ipAddress, String senderMessage) {
         Log.d(TAG, "Server: Peer Discovered: " + ipAddress + " msg: " + senderMessage);
-        uiHandler.post(() -> {
-            if (connectedPeerIp == null && !ipAddress.equals(localIpAddress)) {
-                updateStatus("Found peer: " + ipAddress + ". Attempting to connect...");
-                // Automatically connect to the first discovered peer if not already connected
-                connectToPeer(ipAddress);
-            }
-        });
+        // A peer that is scanning is alive; the peer table reports it if it is new
+        if (discoveryService != null) {
+            discoveryService.reportPeer(ipAddress, senderMessage);
+        }
     }
 
     @Override
@@ -216,32 +309,72 @@ public void scrollToBottom() {
     }
     //endregion
 
-    //region UDP Discovery Client Callbacks
+    //region Discovery Service Callbacks
+    @Override
+    public void onPeerAdded(DiscoveredPeer peer) {
+        Log.d(TAG, "Peer added: " + peer);
+        uiHandler.post(() -> selectHubIfIdle(peer));
+    }
+
+    @Override
+    public void onPeerUpdated(DiscoveredPeer peer) {
+        Log.d(TAG, "Peer updated: " + peer);
+        hubSelector.onPeerUpdated(peer); // A beacon from our hub carries its current load
+        // A peer first seen scanning can be connected to once its beacon names its port
+        uiHandler.post(() -> selectHubIfIdle(peer));
+    }
+
+    // Discovery never reports this instance, but other instances on this host are peers
+    private void selectHubIfIdle(DiscoveredPeer peer) {
+        if (connectedPeerIp == null && peer.isConnectable()) {
+            updateStatus("Found peer: " + peer.getIpAddress() + ". Choosing a hub...");
+            hubSelector.selectSoon();
+        }
+    }
+
     @Override
-    public void onPeerFound(String ipAddress, String responseMessage) {
-        Log.d(TAG, "Client: Peer Found: " + ipAddress + " msg: " + responseMessage);
+    public void onPeerRemoved(DiscoveredPeer peer) {
+        Log.d(TAG, "Peer gone: " + peer.getIpAddress());
         uiHandler.post(() -> {
-            if (connectedPeerIp == null && !ipAddress.equals(localIpAddress)) {
-                updateStatus("Found peer: " + ipAddress + ". Attempting to connect...");
-                // Automatically connect to the first discovered peer if not already connected
-                connectToPeer(ipAddress);
+            if (connectedPeerIp == null && discoveryService.getPeers().isEmpty()) {
+                updateStatus("No peers found. Waiting for incoming connections...");
             }
         });
     }
 
     @Override
-    public void onDiscoveryFinished() {
-        Log.d(TAG, "UDP Discovery Client finished searching.");
-        // If no peer found after discovery, update status
-        if (connectedPeerIp == null) {
-            updateStatus("No peers found. Waiting for incoming connections...");
+    public void onDiscoveryError(String message) {
+        Log.e(TAG, "Discovery Error: " + message);
+        updateStatus("Discovery Error: " + message);
+    }
+
+    // After losing a peer, choose again once a rescan has refreshed the table
+    private void reselectHub() {
+        if (discoveryService == null) {
+            return;
         }
+        discoveryService.rescanNow();
+        hubSelector.selectSoon();
     }
 
     @Override
-    public void onDiscoveryError(String message) {
-        Log.e(TAG, "UDP Client Error: " + message);
-        updateStatus("Discovery Error (UDP Client): " + message);
+    public void onHubSelected(DiscoveredPeer hub) {
+        uiHandler.post(() -> {
+            if (binding == null) {
+                return; // The view is gone
+            }
+            boolean joined = chatClient != null && chatClient.isConnected();
+            if (joined && joinedHub != null && joinedHub.getIpAddress().equals(hub.getIpAddress())
+                    && joinedHub.getChatPort() == hub.getChatPort()) {
+                return; // Already there
+            }
+            if (!joined && connectedPeerIp != null) {
+                return; // Peers joined our own hub meanwhile
+            }
+            updateStatus((joined ? "Moving to hub: " : "Joining hub: ") + hub.getIpAddress() + "...");
+            joinedHub = hub;
+            connectToPeer(hub.getIpAddress(), hub.getChatPort());
+        });
     }
     //endregion
 
@@ -255,8 +388,7 @@ public void scrollToBottom() {
                 updateStatus("Connected to: " + ipAddress + " (acting as Server)");
                 sendButton.setEnabled(true);
             }
-            // Use "System" for system messages, as they don't have an IP in this context
-            addMessage(new ChatMessage("System", "System", ipAddress + " joined the chat.")); // <--- MODIFIED LINE
+            showSystemMessage(ipAddress + " joined the chat.");
         });
     }
 
@@ -268,22 +400,24 @@ public void scrollToBottom() {
                 connectedPeerIp = null; // Reset if the specific peer disconnected
                 updateStatus("Peer " + ipAddress + " disconnected. Searching for peers...");
                 sendButton.setEnabled(false);
-                // Restart discovery to find new peers
-                if (udpDiscoveryClient != null) udpDiscoveryClient.startDiscovery();
+                reselectHub();
             }
-            // Use "System" for system messages
-            addMessage(new ChatMessage("System", "System", ipAddress + " left the chat.")); // <--- MODIFIED LINE
+            showSystemMessage(ipAddress + " left the chat.");
         });
     }
 
-    // Message received by THIS device when it's acting as a server
+    // Message received by THIS device, either from one of our clients or from the hub we joined
     @Override
     public void onMessageReceived(ChatMessage message) {
-        Log.d(TAG, "Server Received: " + message.getMessage() + " from " + message.getSenderIp());
+        Log.d(TAG, "Received: " + message.getMessage() + " from " + message.getSenderIp());
+        if (!seenMessages.markSeen(message.getMessageId())) {
+            return; // Already shown via the other connection
+        }
         addMessage(message);
-        // If acting as server, broadcast to all connected clients
-        if (!message.getSenderIp().equals(localIpAddress)) { // Don't re-broadcast own messages
-             chatServer.broadcastMessage(message);
+        // Messages from our own clients were already relayed by the server, which skips IDs it
+        // has seen; this only bridges messages from the hub we joined to our own clients.
+        if (chatServer != null && !localIpAddress.equals(message.getSenderIp())) {
+            chatServer.broadcastMessage(message);
         }
     }
 
@@ -295,11 +429,13 @@ public void scrollToBottom() {
     //endregion
 
     //region TCP Chat Client Callbacks (for when THIS device acts as client)
-    private void connectToPeer(String ipAddress) {
+    private void connectToPeer(String ipAddress, int port) {
         if (chatClient != null && chatClient.isConnected()) {
+            replacingClient = true;
             chatClient.close(); // Close existing client connection if any
+            replacingClient = false;
         }
-        chatClient = new ChatClient(ipAddress, this, this);
+        chatClient = new ChatClient(ipAddress, port, this, this);
         chatClient.connect();
     }
 
@@ -308,24 +444,28 @@ public void scrollToBottom() {
         Log.d(TAG, "Connected to Peer " + serverIp + " (acting as Client)");
         uiHandler.post(() -> {
             connectedPeerIp = serverIp;
+            if (joinedHub != null && joinedHub.getIpAddress().equals(serverIp)) {
+                hubSelector.setCurrentHub(joinedHub); // Watched from now on for overload
+            }
             updateStatus("Connected to: " + serverIp + " (acting as Client)");
             sendButton.setEnabled(true);
-            // Use "System" for system messages
-            addMessage(new ChatMessage("System", "System", "Connected to " + serverIp)); // <--- MODIFIED LINE
+            showSystemMessage("Connected to " + serverIp);
         });
     }
 
     @Override
     public void onDisconnected() {
         Log.d(TAG, "Disconnected from Peer (acting as Client)");
+        if (replacingClient) {
+            return; // Fired synchronously from connectToPeer while moving to another hub
+        }
         uiHandler.post(() -> {
             connectedPeerIp = null;
+            hubSelector.setCurrentHub(null);
             updateStatus("Disconnected from peer. Searching for peers...");
             sendButton.setEnabled(false);
-            // Use "System" for system messages
-            addMessage(new ChatMessage("System", "System", "Disconnected.")); // <--- MODIFIED LINE
-            // Restart discovery to find new peers
-            if (udpDiscoveryClient != null) udpDiscoveryClient.startDiscovery();
+            showSystemMessage("Disconnected.");
+            reselectHub();
         });
     }
 
@@ -0,0 +1,63 @@
+package com.mui.lanchat.ui.home;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the once-per-frame application of new messages to the chat list. Values are
+ * cumulative for the life of the chat view and safe to read from any thread.
+ */
+public class MessageBatchStats {
+
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong maxBatchSize = new AtomicLong();
+    final AtomicLong lastApplyNanos = new AtomicLong();
+    final AtomicLong maxApplyNanos = new AtomicLong();
+    final AtomicLong totalApplyNanos = new AtomicLong();
+
+    /** Frames in which at least one message was applied. */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /** Messages and notices applied across all batches. */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /** Most messages applied in a single frame. */
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /** Time the latest batch took to apply, in nanoseconds. */
+    public long getLastApplyNanos() {
+        return lastApplyNanos.get();
+    }
+
+    /** Longest time any batch took to apply, in nanoseconds. */
+    public long getMaxApplyNanos() {
+        return maxApplyNanos.get();
+    }
+
+    /** Time spent applying all batches, in nanoseconds; divide by {@link #getBatches()} for the mean. */
+    public long getTotalApplyNanos() {
+        return totalApplyNanos.get();
+    }
+
+    void record(int batchSize, long applyNanos) {
+        batches.incrementAndGet();
+        messages.addAndGet(batchSize);
+        raise(maxBatchSize, batchSize);
+        lastApplyNanos.set(applyNanos);
+        raise(maxApplyNanos, applyNanos);
+        totalApplyNanos.addAndGet(applyNanos);
+    }
+
+    private static void raise(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Lost a race with another update; retry against its value
+        }
+    }
+}
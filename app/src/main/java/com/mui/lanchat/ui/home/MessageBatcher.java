@@ -0,0 +1,84 @@
+package com.mui.lanchat.ui.home;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects rows from any thread in a lock-free queue and hands them to the UI once per display
+ * frame, so a burst of messages costs one list update and one scroll instead of one per message.
+ * Only the first row queued after a frame schedules the next one.
+ *
+ * Create on the UI thread.
+ */
+final class MessageBatcher implements Choreographer.FrameCallback {
+
+    interface BatchListener {
+        /** Called on the UI thread with the rows queued since the last frame, in queue order. */
+        void onBatch(List<MessageRow> rows);
+    }
+
+    private final Queue<MessageRow> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Choreographer choreographer = Choreographer.getInstance(); // The UI thread's
+    private final BatchListener listener;
+    private final MessageBatchStats stats = new MessageBatchStats();
+    private final List<MessageRow> batch = new ArrayList<>(); // Reused; UI thread only
+    private volatile boolean stopped;
+
+    MessageBatcher(BatchListener listener) {
+        this.listener = listener;
+    }
+
+    MessageBatchStats getStats() {
+        return stats;
+    }
+
+    /** Queues a row for the next frame; any thread. */
+    void add(MessageRow row) {
+        if (stopped) {
+            return;
+        }
+        pending.add(row);
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /** Drops the rows queued for the next frame. UI thread. */
+    void discardPending() {
+        pending.clear();
+    }
+
+    /** Stops applying rows for good, once the views they go to are gone. UI thread. */
+    void stop() {
+        stopped = true;
+        choreographer.removeFrameCallback(this);
+        pending.clear();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared before draining: a row queued from here on schedules another frame
+        frameScheduled.set(false);
+        MessageRow row;
+        while ((row = pending.poll()) != null) {
+            batch.add(row);
+        }
+        if (batch.isEmpty() || stopped) {
+            batch.clear();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            listener.onBatch(batch);
+        } finally {
+            stats.record(batch.size(), System.nanoTime() - start);
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.mui.lanchat.ui.home;
+
+import android.os.Handler;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.storage.MessageLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The messages {@link ChatMessageAdapter} shows: a window onto the {@link MessageLog} kept within
+ * the limits of a {@link HistoryPolicy}, moved a page at a time as the user scrolls. Binding a row
+ * near either edge of the window loads the next page on the log thread, and rows beyond the limits
+ * are evicted from the far edge. Heap use is bounded by the policy, however long the history is.
+ *
+ * While the window reaches the newest stored message it is attached, and new messages appear
+ * at its end, evicting the oldest rows. Rows from peers the policy keeps are evicted last: they
+ * stay at the top of the window, above the evicted gap, until scrolling up pages the gap back in.
+ * Once the user has scrolled far enough back for the newest rows to be evicted, new messages only
+ * go to the log, and scrolling back down pages them in again.
+ *
+ * Status notices are shown but never stored, so they disappear once evicted. Without a log the
+ * window is all there is, and evicted history is gone.
+ *
+ * The log is opened on the log thread and handed over with {@link #onLogOpened}. Until then,
+ * messages are numbered as if stored and held back; they are appended once the newest page has
+ * been requested, so they land after it as they would have with the log open from the start.
+ *
+ * The window holds {@link MessageRow}s; pages read from the log are turned into rows on the log
+ * thread before they reach this class.
+ *
+ * UI thread only.
+ */
+final class MessagePager {
+
+    private static final int NOT_STORED = -1;
+
+    private MessageLog log;               // Null while opening, and for good if history cannot be stored
+    private boolean logOpening = true;
+    private final List<ChatMessage> unstored = new ArrayList<>(); // Held back while the log opens
+    private Runnable pendingLatest;       // loadLatest called while the log was opening
+    private final MessageRowFactory rowFactory;
+    private final Handler uiHandler;
+    private final HistoryPolicy policy;
+    private final int pageSize;
+    private final RowRing rows = new RowRing(); // Log index of each row; NOT_STORED for notices
+    private RecyclerView.Adapter<?> adapter;
+    // The stored messages in the window below the kept rows are the log range [startIndex, endIndex)
+    private long startIndex;
+    private long endIndex;
+    private int keptRows;          // Rows at the top that outlived the evicted rows below them
+    private long logEnd;           // Index the next stored message will get
+    private boolean attached = true;
+    private boolean reachedStart;  // Nothing older left in the log
+    private boolean loadingLatest; // The window is not trimmed until the newest page is in
+    private boolean loadingOlder;
+    private boolean loadingNewer;
+    private int generation;        // Bumped by clear(), so loads already in flight are discarded
+    private int lastBoundPosition; // Roughly where the user is looking
+
+    /** Pages are at most {@code pageSize} messages, and smaller if the policy allows few messages. */
+    MessagePager(MessageRowFactory rowFactory, Handler uiHandler, int pageSize, HistoryPolicy policy) {
+        this.rowFactory = rowFactory;
+        this.uiHandler = uiHandler;
+        this.policy = policy;
+        this.pageSize = Math.max(1, Math.min(pageSize, policy.getMaxMessages() / 4));
+    }
+
+    /** Hands over the opened log, or null if history cannot be stored; call once. */
+    void onLogOpened(MessageLog opened) {
+        logOpening = false;
+        log = opened;
+        Runnable onLoaded = pendingLatest;
+        pendingLatest = null;
+        if (opened == null) {
+            // What was numbered for the log is only shown
+            for (int i = 0; i < rows.size(); i++) {
+                rows.setIndex(i, NOT_STORED);
+            }
+            unstored.clear();
+            startIndex = 0;
+            endIndex = 0;
+            logEnd = 0;
+            reachedStart = true;
+            loadingLatest = false;
+            loadingOlder = false;
+            trimStart();
+            return;
+        }
+        if (onLoaded != null) {
+            loadLatest(onLoaded); // Read first, so the held-back messages are appended after it
+        }
+        for (ChatMessage message : unstored) {
+            log.appendAsync(message);
+        }
+        unstored.clear();
+    }
+
+    // Whether chat messages are numbered as stored: the log is open or still opening
+    private boolean storing() {
+        return log != null || logOpening;
+    }
+
+    void setAdapter(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    MessageRow get(int position) {
+        return rows.get(position);
+    }
+
+    boolean isAttached() {
+        return attached;
+    }
+
+    /** Loads the newest page, then runs {@code onLoaded}; call once, before any message is added. */
+    void loadLatest(final Runnable onLoaded) {
+        if (log == null) {
+            if (logOpening) {
+                pendingLatest = onLoaded;
+                loadingLatest = true;
+                loadingOlder = true;
+            }
+            return;
+        }
+        final int loadGeneration = generation;
+        loadingLatest = true;
+        loadingOlder = true;
+        log.readTailAsync(pageSize, (from, to, messages) -> {
+            List<MessageRow> page = rowFactory.createAll(messages);
+            uiHandler.post(() -> onLatestLoaded(loadGeneration, from, to, page, onLoaded));
+        });
+    }
+
+    private void onLatestLoaded(int loadGeneration, long from, long to, List<MessageRow> page, Runnable onLoaded) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        loadingLatest = false;
+        loadingOlder = false;
+        // Messages added while this was loading were queued to the log after the read
+        long added = logEnd;
+        startIndex = from;
+        logEnd = to + added;
+        endIndex = logEnd;
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.indexAt(i) != NOT_STORED) {
+                rows.setIndex(i, rows.indexAt(i) + to);
+            }
+        }
+        insertPage(0, from, page);
+        reachedStart = page.isEmpty() || from == 0;
+        trimStart();
+        onLoaded.run();
+    }
+
+    /**
+     * Adds rows in arrival order: chat messages are stored, notices only shown. They appear at the
+     * end of the window if it is at the newest messages, with one insertion for the whole batch.
+     */
+    void addAll(List<MessageRow> batch) {
+        long firstIndex = logEnd;
+        if (storing()) {
+            for (MessageRow row : batch) {
+                if (!row.notice) {
+                    if (log != null) {
+                        log.appendAsync(row.message); // The log thread runs appends in call order
+                    } else {
+                        unstored.add(row.message);
+                    }
+                    logEnd++;
+                }
+            }
+        }
+        if (!attached) {
+            return;
+        }
+        if (log != null && logEnd > firstIndex && isFull() && isScrolledBack()) {
+            attached = false; // Do not pull the page the user is reading out from under them
+            return;
+        }
+        // A batch larger than the window only needs its newest rows shown
+        int skip = Math.max(0, batch.size() - policy.getMaxMessages());
+        long index = firstIndex;
+        int position = rows.size();
+        for (int i = 0; i < batch.size(); i++) {
+            MessageRow row = batch.get(i);
+            boolean stored = storing() && !row.notice;
+            if (i >= skip) {
+                rows.addLast(row, stored ? index : NOT_STORED);
+            }
+            if (stored) {
+                index++;
+            }
+        }
+        endIndex = logEnd;
+        notifyInserted(position, rows.size() - position);
+        trimStart();
+    }
+
+    /** Empties the window; the caller has cleared the log itself. */
+    void clear() {
+        generation++;
+        rows.clear();
+        unstored.clear();
+        startIndex = 0;
+        endIndex = 0;
+        keptRows = 0;
+        logEnd = 0;
+        attached = true;
+        reachedStart = true;
+        loadingLatest = pendingLatest != null; // Still loads once the log is open
+        loadingOlder = loadingLatest;
+        loadingNewer = false;
+        if (adapter != null) {
+            adapter.notifyDataSetChanged();
+        }
+    }
+
+    /** Called as rows are bound; loads the adjacent page when the user nears an edge of the window. */
+    void onBind(int position) {
+        lastBoundPosition = position;
+        int prefetch = Math.max(1, pageSize / 3);
+        if (position < prefetch && !reachedStart && !loadingOlder) {
+            loadOlder();
+        } else if (position >= rows.size() - prefetch && !attached && !loadingNewer) {
+            loadNewer();
+        }
+    }
+
+    private void loadOlder() {
+        final int loadGeneration = generation;
+        loadingOlder = true;
+        log.readAsync(Math.max(0, startIndex - pageSize), (int) Math.min(pageSize, startIndex),
+                (from, to, messages) -> {
+                    List<MessageRow> page = rowFactory.createAll(messages);
+                    uiHandler.post(() -> onOlderLoaded(loadGeneration, from, to, page));
+                });
+    }
+
+    private void onOlderLoaded(int loadGeneration, long from, long to, List<MessageRow> page) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        loadingOlder = false;
+        if (to != startIndex || page.isEmpty()) {
+            reachedStart = true; // Older segments were dropped, or we are at index 0
+            return;
+        }
+        // Kept rows from the range just loaded are in the page too
+        int position = keptRows;
+        while (position > 0 && rows.indexAt(position - 1) >= from) {
+            position--;
+        }
+        if (position < keptRows) {
+            rows.removeRange(position, keptRows - position);
+            notifyRemoved(position, keptRows - position);
+        }
+        startIndex = from;
+        insertPage(position, from, page);
+        keptRows = position;
+        reachedStart = from == 0;
+        trimEnd();
+    }
+
+    private void loadNewer() {
+        final int loadGeneration = generation;
+        loadingNewer = true;
+        log.readAsync(endIndex, pageSize, (from, to, messages) -> {
+            List<MessageRow> page = rowFactory.createAll(messages);
+            uiHandler.post(() -> onNewerLoaded(loadGeneration, from, to, page));
+        });
+    }
+
+    private void onNewerLoaded(int loadGeneration, long from, long to, List<MessageRow> page) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        loadingNewer = false;
+        if (from != endIndex) {
+            return;
+        }
+        int position = rows.size();
+        for (int i = 0; i < page.size(); i++) {
+            rows.addLast(page.get(i), from + i);
+        }
+        endIndex = to;
+        attached = endIndex >= logEnd;
+        notifyInserted(position, page.size());
+        trimStart();
+    }
+
+    private void insertPage(int position, long from, List<MessageRow> page) {
+        rows.insertGap(position, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            rows.set(position + i, page.get(i), from + i);
+        }
+        if (lastBoundPosition >= position) {
+            lastBoundPosition += page.size();
+        }
+        notifyInserted(position, page.size());
+    }
+
+    /**
+     * Evicts from the top until the window is within the policy's limits. Rows the policy keeps are
+     * stepped over, and only evicted once nothing else above the newest row is left to evict.
+     */
+    private void trimStart() {
+        if (loadingLatest || !isOverLimits(0, 0)) {
+            return;
+        }
+        int position = 0;
+        while (position < rows.size() - 1 && isOverLimits(0, 0)) {
+            MessageRow row = rows.get(position);
+            if (!row.notice && policy.keeps(row.message)) {
+                position++;
+            } else {
+                evictRun(position, true);
+            }
+        }
+        if (storing()) {
+            keptRows = Math.max(keptRows, position); // Everything stepped over sits above a gap now
+        }
+        while (rows.size() > 1 && isOverLimits(0, 0)) {
+            keptRows = Math.max(0, keptRows - evictRun(0, false)); // Only kept rows are left to evict
+        }
+        startIndex = firstStoredIndex();
+        reachedStart = !storing();
+    }
+
+    // Evicts the rows from position on that must go to get within the limits, stopping before a kept
+    // row if spareKept, and never taking the newest row. Returns how many went.
+    private int evictRun(int position, boolean spareKept) {
+        int end = position;
+        long bytes = 0;
+        while (end < rows.size() - 1 && isOverLimits(end - position, bytes)) {
+            MessageRow row = rows.get(end);
+            if (spareKept && !row.notice && policy.keeps(row.message)) {
+                break;
+            }
+            bytes += row.estimatedBytes;
+            end++;
+        }
+        int count = end - position;
+        if (count > 0) {
+            rows.removeRange(position, count);
+            lastBoundPosition = lastBoundPosition >= end ? lastBoundPosition - count : Math.min(lastBoundPosition, position);
+            notifyRemoved(position, count);
+        }
+        return count;
+    }
+
+    // Evicts from the bottom until the window is within the policy's limits, keeping the kept rows
+    // and at least one row below them
+    private void trimEnd() {
+        int count = 0;
+        long bytes = 0;
+        while (rows.size() - count > keptRows + 1 && isOverLimits(count, bytes)) {
+            bytes += rows.get(rows.size() - 1 - count).estimatedBytes;
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+        int from = rows.size() - count;
+        rows.removeRange(from, count);
+        endIndex = lastStoredIndex() + 1;
+        attached = false;
+        notifyRemoved(from, count);
+    }
+
+    private long firstStoredIndex() {
+        for (int i = keptRows; i < rows.size(); i++) {
+            if (rows.indexAt(i) != NOT_STORED) {
+                return rows.indexAt(i);
+            }
+        }
+        return endIndex;
+    }
+
+    private long lastStoredIndex() {
+        for (int i = rows.size() - 1; i >= keptRows; i--) {
+            if (rows.indexAt(i) != NOT_STORED) {
+                return rows.indexAt(i);
+            }
+        }
+        return startIndex - 1;
+    }
+
+    // Whether the window would still be over the limits without removedRows rows of removedBytes
+    private boolean isOverLimits(int removedRows, long removedBytes) {
+        return rows.size() - removedRows > policy.getMaxMessages()
+                || rows.bytes() - removedBytes > policy.getMaxBytes();
+    }
+
+    private boolean isFull() {
+        return rows.size() >= policy.getMaxMessages() || rows.bytes() >= policy.getMaxBytes();
+    }
+
+    private boolean isScrolledBack() {
+        return lastBoundPosition < rows.size() - pageSize;
+    }
+
+    private void notifyInserted(int position, int count) {
+        if (adapter != null && count > 0) {
+            adapter.notifyItemRangeInserted(position, count);
+        }
+    }
+
+    private void notifyRemoved(int position, int count) {
+        if (adapter != null && count > 0) {
+            adapter.notifyItemRangeRemoved(position, count);
+        }
+    }
+}
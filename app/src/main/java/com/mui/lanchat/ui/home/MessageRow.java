@@ -0,0 +1,36 @@
+package com.mui.lanchat.ui.home;
+
+import com.mui.lanchat.model.ChatMessage;
+
+/**
+ * Everything a chat row shows, worked out once per message by {@link MessageRowFactory} so that
+ * binding a row only assigns fields. Immutable.
+ */
+final class MessageRow {
+
+    static final int VIEW_TYPE_SENT = 0;
+    static final int VIEW_TYPE_RECEIVED = 1;
+    // Rough heap cost of a row besides its characters: the objects themselves and the message's fields
+    private static final int OVERHEAD_BYTES = 256;
+
+    final ChatMessage message;
+    final int viewType;
+    final String senderLabel;
+    final String timeText;
+    final CharSequence text; // A PrecomputedTextCompat matching the row's TextView, or the plain text
+    final boolean notice;    // A status line: shown, never stored
+    final int estimatedBytes;
+
+    MessageRow(ChatMessage message, boolean notice, int viewType, String senderLabel, String timeText,
+               CharSequence text) {
+        this.message = message;
+        this.notice = notice;
+        this.viewType = viewType;
+        this.senderLabel = senderLabel;
+        this.timeText = timeText;
+        this.text = text;
+        // The message text is held twice (message and measured text) alongside per-character widths
+        this.estimatedBytes = OVERHEAD_BYTES + 8 * text.length()
+                + 2 * (senderLabel.length() + timeText.length());
+    }
+}
@@ -0,0 +1,120 @@
+package com.mui.lanchat.ui.home;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import com.mui.lanchat.R;
+import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.utils.NetworkUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Builds {@link MessageRow}s, measuring each message's text with {@link PrecomputedTextCompat} so
+ * the text layout work happens on the thread that creates the row rather than during binding.
+ * Pages loaded from the log are turned into rows on the log thread. Single messages go through
+ * {@link #createAsync} to the factory's own thread: network threads must not spend a burst's worth
+ * of text layout while every socket on them waits.
+ *
+ * Create on the UI thread; {@link #create} may then be called from any thread.
+ */
+final class MessageRowFactory {
+
+    private static final String TAG = "MessageRowFactory";
+    private static final ExecutorService rowThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LanChat-rows");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String localIp;
+    // Text metrics of each row layout's message view, indexed by view type
+    private final PrecomputedTextCompat.Params[] textParams = new PrecomputedTextCompat.Params[2];
+    private final ThreadLocal<SimpleDateFormat> timeFormats = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("HH:mm", Locale.getDefault());
+        }
+    };
+
+    MessageRowFactory(Context context) {
+        this.localIp = NetworkUtils.getLocalIpAddress(context);
+        // The rows are measured with the same paint the bound views will use, read off one throwaway
+        // inflation of each layout
+        LayoutInflater inflater = LayoutInflater.from(context);
+        textParams[MessageRow.VIEW_TYPE_SENT] = TextViewCompat.getTextMetricsParams(
+                (TextView) inflater.inflate(R.layout.item_message_sent, null, false)
+                        .findViewById(R.id.textViewMessage));
+        textParams[MessageRow.VIEW_TYPE_RECEIVED] = TextViewCompat.getTextMetricsParams(
+                (TextView) inflater.inflate(R.layout.item_message_received, null, false)
+                        .findViewById(R.id.textViewMessage));
+    }
+
+    MessageRow create(ChatMessage message) {
+        return create(message, false);
+    }
+
+    MessageRow createNotice(String text) {
+        return create(new ChatMessage("System", "System", text), true);
+    }
+
+    /** Builds the row on the row thread and passes it on there; rows come out in call order. */
+    void createAsync(final ChatMessage message, final Consumer<MessageRow> consumer) {
+        rowThread.execute(() -> deliver(message, false, consumer));
+    }
+
+    void createNoticeAsync(final String text, final Consumer<MessageRow> consumer) {
+        rowThread.execute(() -> deliver(new ChatMessage("System", "System", text), true, consumer));
+    }
+
+    // An exception escaping the row thread would kill the process; a message that cannot be shown is dropped
+    private void deliver(ChatMessage message, boolean notice, Consumer<MessageRow> consumer) {
+        try {
+            consumer.accept(create(message, notice));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot show message " + message.getMessageId(), e);
+        }
+    }
+
+    private MessageRow create(ChatMessage message, boolean notice) {
+        // If sender IP matches local IP, it's a sent message, otherwise received
+        int viewType = localIp != null && localIp.equals(message.getSenderIp())
+                ? MessageRow.VIEW_TYPE_SENT : MessageRow.VIEW_TYPE_RECEIVED;
+
+        // Display nickname, fall back to IP if nickname is empty; older peers may send neither
+        String senderName = message.getSenderName();
+        String senderIp = message.getSenderIp();
+        String senderLabel;
+        if (senderName == null || senderName.trim().isEmpty()) {
+            senderLabel = senderIp != null ? senderIp : "";
+        } else if (senderIp == null) {
+            senderLabel = senderName;
+        } else {
+            senderLabel = senderName + " (" + senderIp + ")";
+        }
+
+        String text = message.getMessage() != null ? message.getMessage() : "";
+        return new MessageRow(message, notice, viewType, senderLabel,
+                timeFormats.get().format(message.getTimestamp()),
+                PrecomputedTextCompat.create(text, textParams[viewType]));
+    }
+
+    List<MessageRow> createAll(List<ChatMessage> messages) {
+        List<MessageRow> rows = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            rows.add(create(message));
+        }
+        return rows;
+    }
+}
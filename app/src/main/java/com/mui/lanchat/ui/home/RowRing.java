@@ -0,0 +1,141 @@
+package com.mui.lanchat.ui.home;
+
+import java.util.Arrays;
+
+/**
+ * The rows of the chat window, with each row's log index, in a ring buffer. Rows come and go at
+ * both ends as the window moves, which costs only a head move here; the rare removal or insertion
+ * in the middle shifts whichever side is shorter. Keeps a running total of the rows' estimated size.
+ *
+ * Not thread-safe.
+ */
+final class RowRing {
+
+    private MessageRow[] rows = new MessageRow[16]; // Length is a power of two
+    private long[] indexes = new long[16];
+    private int head;
+    private int size;
+    private long bytes;
+
+    int size() {
+        return size;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    MessageRow get(int position) {
+        return rows[slot(position)];
+    }
+
+    long indexAt(int position) {
+        return indexes[slot(position)];
+    }
+
+    void setIndex(int position, long index) {
+        indexes[slot(position)] = index;
+    }
+
+    void addLast(MessageRow row, long index) {
+        ensureCapacity(size + 1);
+        int slot = slot(size);
+        rows[slot] = row;
+        indexes[slot] = index;
+        size++;
+        bytes += row.estimatedBytes;
+    }
+
+    /** Opens {@code count} slots at {@code position}; the caller fills them with {@link #set}. */
+    void insertGap(int position, int count) {
+        ensureCapacity(size + count);
+        if (position < size - position) {
+            head = (head - count) & (rows.length - 1);
+            move(count, 0, position);
+        } else {
+            move(position, position + count, size - position);
+        }
+        clearSlots(position, count);
+        size += count;
+    }
+
+    void set(int position, MessageRow row, long index) {
+        int slot = slot(position);
+        if (rows[slot] != null) {
+            bytes -= rows[slot].estimatedBytes;
+        }
+        rows[slot] = row;
+        indexes[slot] = index;
+        bytes += row.estimatedBytes;
+    }
+
+    void removeRange(int position, int count) {
+        for (int i = position; i < position + count; i++) {
+            bytes -= rows[slot(i)].estimatedBytes;
+        }
+        int after = size - position - count;
+        if (position < after) {
+            move(0, count, position);
+            clearSlots(0, count);
+            head = slot(count);
+        } else {
+            move(position + count, position, after);
+            clearSlots(size - count, count);
+        }
+        size -= count;
+    }
+
+    void clear() {
+        Arrays.fill(rows, null);
+        head = 0;
+        size = 0;
+        bytes = 0;
+    }
+
+    // Copies count entries from position from to position to, in whichever order is safe
+    private void move(int from, int to, int count) {
+        if (to < from) {
+            for (int i = 0; i < count; i++) {
+                copy(from + i, to + i);
+            }
+        } else {
+            for (int i = count - 1; i >= 0; i--) {
+                copy(from + i, to + i);
+            }
+        }
+    }
+
+    private void copy(int from, int to) {
+        rows[slot(to)] = rows[slot(from)];
+        indexes[slot(to)] = indexes[slot(from)];
+    }
+
+    private void clearSlots(int position, int count) {
+        for (int i = position; i < position + count; i++) {
+            rows[slot(i)] = null;
+        }
+    }
+
+    private int slot(int position) {
+        return (head + position) & (rows.length - 1);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= rows.length) {
+            return;
+        }
+        int capacity = rows.length;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        MessageRow[] newRows = new MessageRow[capacity];
+        long[] newIndexes = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            newRows[i] = rows[slot(i)];
+            newIndexes[i] = indexes[slot(i)];
+        }
+        rows = newRows;
+        indexes = newIndexes;
+        head = 0;
+    }
+}
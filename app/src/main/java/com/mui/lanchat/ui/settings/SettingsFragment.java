@@ -7,6 +7,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Toast;
 
@@ -18,6 +19,7 @@ import androidx.lifecycle.ViewModelProvider;
 import com.mui.lanchat.R;
 import com.mui.lanchat.MainActivity; // <--- NEW IMPORT
 import com.mui.lanchat.databinding.FragmentSettingsBinding;
+import com.mui.lanchat.ui.home.HistoryPolicy;
 
 public class SettingsFragment extends Fragment {
 
@@ -25,10 +27,20 @@ public class SettingsFragment extends Fragment {
     private EditText nicknameInput;
     private Button saveNicknameButton;
     private Button clearChatHistoryButton;
+    private EditText historyMaxMessagesInput;
+    private EditText historyMaxKbInput;
+    private CheckBox historyKeepPeersCheckBox;
+    private EditText historyKeptPeersInput;
+    private Button saveHistorySettingsButton;
 
     // Key for SharedPreferences
     public static final String PREFS_NAME = "LanChatPrefs";
     public static final String KEY_NICKNAME = "nickname";
+    // Limits of the chat history kept in memory; see HistoryPolicy
+    public static final String KEY_HISTORY_MAX_MESSAGES = "history_max_messages";
+    public static final String KEY_HISTORY_MAX_KB = "history_max_kb";
+    public static final String KEY_HISTORY_KEEP_PEERS = "history_keep_peers";
+    public static final String KEY_HISTORY_KEPT_PEERS = "history_kept_peers"; // Comma-separated IPs
 
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
@@ -41,11 +53,18 @@ public class SettingsFragment extends Fragment {
         nicknameInput = binding.editTextNickname;
         saveNicknameButton = binding.buttonSaveNickname;
         clearChatHistoryButton = binding.buttonClearChatHistory;
+        historyMaxMessagesInput = binding.editTextHistoryMaxMessages;
+        historyMaxKbInput = binding.editTextHistoryMaxKb;
+        historyKeepPeersCheckBox = binding.checkBoxHistoryKeepPeers;
+        historyKeptPeersInput = binding.editTextHistoryKeptPeers;
+        saveHistorySettingsButton = binding.buttonSaveHistorySettings;
 
         // Load existing nickname when the fragment starts
         loadNickname();
+        loadHistorySettings();
 
         saveNicknameButton.setOnClickListener(v -> saveNickname());
+        saveHistorySettingsButton.setOnClickListener(v -> saveHistorySettings());
         clearChatHistoryButton.setOnClickListener(v -> {
             clearChatHistory();
             // Communicate to MainActivity to clear history in HomeFragment
@@ -73,6 +92,41 @@ public class SettingsFragment extends Fragment {
         Toast.makeText(getContext(), R.string.nickname_saved_toast, Toast.LENGTH_SHORT).show();
     }
 
+    private void loadHistorySettings() {
+        SharedPreferences prefs = requireActivity().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        historyMaxMessagesInput.setText(String.valueOf(
+                prefs.getInt(KEY_HISTORY_MAX_MESSAGES, HistoryPolicy.DEFAULT_MAX_MESSAGES)));
+        historyMaxKbInput.setText(String.valueOf(
+                prefs.getInt(KEY_HISTORY_MAX_KB, (int) (HistoryPolicy.DEFAULT_MAX_BYTES / 1024))));
+        historyKeepPeersCheckBox.setChecked(prefs.getBoolean(KEY_HISTORY_KEEP_PEERS, false));
+        historyKeptPeersInput.setText(prefs.getString(KEY_HISTORY_KEPT_PEERS, ""));
+    }
+
+    private void saveHistorySettings() {
+        int maxMessages;
+        int maxKb;
+        try {
+            maxMessages = Integer.parseInt(historyMaxMessagesInput.getText().toString().trim());
+            maxKb = Integer.parseInt(historyMaxKbInput.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            maxMessages = 0;
+            maxKb = 0;
+        }
+        if (maxMessages <= 0 || maxKb <= 0) {
+            Toast.makeText(getContext(), R.string.history_settings_invalid_toast, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        SharedPreferences prefs = requireActivity().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit()
+                .putInt(KEY_HISTORY_MAX_MESSAGES, maxMessages)
+                .putInt(KEY_HISTORY_MAX_KB, maxKb)
+                .putBoolean(KEY_HISTORY_KEEP_PEERS, historyKeepPeersCheckBox.isChecked())
+                .putString(KEY_HISTORY_KEPT_PEERS, historyKeptPeersInput.getText().toString().trim())
+                .apply();
+
+        Toast.makeText(getContext(), R.string.history_settings_saved_toast, Toast.LENGTH_SHORT).show();
+    }
+
     private void clearChatHistory() {
         Toast.makeText(getContext(), R.string.chat_history_cleared_toast, Toast.LENGTH_SHORT).show();
         // The actual clearing will happen in HomeFragment via MainActivity
@@ -0,0 +1,68 @@
+package com.mui.lanchat.model;
+
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class JsonChatMessageCodecTest {
+
+    private final JsonChatMessageCodec codec = JsonChatMessageCodec.getInstance();
+
+    @Test
+    public void chatMessageRoundTrips() {
+        ChatMessage message = new ChatMessage(null, 42, "192.168.1.7", "Zoë", "say \"hi\" <b>\n👋", 1700000000123L);
+        String json = codec.encode(message);
+        assertFalse(json.contains("type"));
+        assertFalse(json.contains("\\u003c")); // Not HTML-escaped
+
+        ChatMessage decoded = codec.decode(json);
+        assertEquals(42, decoded.getMessageId());
+        assertNull(decoded.getType());
+        assertEquals("192.168.1.7", decoded.getSenderIp());
+        assertEquals("Zoë", decoded.getSenderName());
+        assertEquals("say \"hi\" <b>\n👋", decoded.getMessage());
+        assertEquals(1700000000123L, decoded.getTimestamp());
+    }
+
+    @Test
+    public void controlMessageKeepsItsType() {
+        ChatMessage decoded = codec.decode(codec.encode(ChatMessage.ping()));
+        assertEquals(ChatMessage.TYPE_PING, decoded.getType());
+    }
+
+    @Test
+    public void unknownAndNullFieldsAreSkipped() {
+        ChatMessage decoded = codec.decode("{\"messageId\":7,\"extra\":{\"a\":[1,2]},\"senderName\":null,"
+                + "\"message\":\"hi\",\"timestamp\":5}");
+        assertEquals(7, decoded.getMessageId());
+        assertNull(decoded.getSenderName());
+        assertEquals("hi", decoded.getMessage());
+        assertEquals(5, decoded.getTimestamp());
+    }
+
+    @Test
+    public void messageFromAnOlderPeerHasNoId() {
+        ChatMessage decoded = codec.decode("{\"senderIp\":\"10.0.0.2\",\"message\":\"hi\",\"timestamp\":5}");
+        assertEquals(0, decoded.getMessageId());
+        assertEquals("10.0.0.2", decoded.getSenderIp());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void truncatedJsonIsRejected() {
+        codec.decode("{\"messageId\":7,\"message\":\"h");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void wrongValueTypeIsRejected() {
+        codec.decode("{\"messageId\":\"seven\"}");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void nonObjectIsRejected() {
+        codec.decode("[1,2,3]");
+    }
+}
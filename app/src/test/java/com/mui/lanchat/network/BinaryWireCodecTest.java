@@ -0,0 +1,149 @@
+package com.mui.lanchat.network;
+
+import com.mui.lanchat.model.ChatMessage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryWireCodecTest {
+
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final long TIMESTAMP = 1700000000123L;
+
+    @Test
+    public void chatMessageRoundTrips() throws IOException {
+        ChatMessage message = new ChatMessage(null, 0x1234567890ABCDEFL, "192.168.1.7", "Zoë",
+                "hello 👋", TIMESTAMP);
+        ChatMessage decoded = decode(BinaryWireCodec.encode(message), null, null);
+        assertMessage(message, decoded);
+    }
+
+    @Test
+    public void controlMessageKeepsItsType() throws IOException {
+        ChatMessage decoded = decode(BinaryWireCodec.encode(ChatMessage.ping()), null, null);
+        assertEquals(ChatMessage.TYPE_PING, decoded.getType());
+        assertTrue(decoded.isControl());
+    }
+
+    @Test
+    public void senderAnnouncementKeepsItsId() throws IOException {
+        ChatMessage control = ChatMessage.senderControl(ChatMessage.TYPE_SENDER, 9, "10.0.0.2", "Ana");
+        ChatMessage decoded = decode(BinaryWireCodec.encode(control), null, null);
+        assertEquals(ChatMessage.TYPE_SENDER, decoded.getType());
+        assertEquals(9, decoded.getSenderId());
+        assertEquals("10.0.0.2", decoded.getSenderIp());
+        assertEquals("Ana", decoded.getSenderName());
+    }
+
+    @Test
+    public void senderIdIsResolvedThroughTheTable() throws IOException {
+        SenderIdentity sender = new SenderIdentity(3, "10.0.0.3", "Bo");
+        ChatMessage message = new ChatMessage(null, 77, "10.0.0.3", "Bo", "hi", TIMESTAMP);
+        EncodedFrame frame = BinaryWireCodec.encode(message, null, sender);
+        EncodedFrame full = BinaryWireCodec.encode(message);
+        assertTrue(frame.length() < full.length());
+
+        ChatMessage decoded = decode(frame, null, id -> id == 3 ? sender : null);
+        assertMessage(message, decoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownSenderIdIsRejected() throws IOException {
+        SenderIdentity sender = new SenderIdentity(3, "10.0.0.3", "Bo");
+        ChatMessage message = new ChatMessage(null, 77, "10.0.0.3", "Bo", "hi", TIMESTAMP);
+        decode(BinaryWireCodec.encode(message, null, sender), null, id -> null);
+    }
+
+    @Test
+    public void truncatedFrameIsRejected() {
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", "hello", TIMESTAMP);
+        EncodedFrame frame = BinaryWireCodec.encode(message);
+        int header = prefixLength(frame);
+        // Every cut inside a field, rather than between two, must fail instead of misreading
+        int[] cuts = {1, 5, 9 + 3, frame.length() - header - 1};
+        for (int cut : cuts) {
+            try {
+                BinaryWireCodec.decode(frame.array(), header, cut, null, null, MAX_FRAME_BYTES);
+                fail("Decoded a frame cut to " + cut + " bytes");
+            } catch (IOException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownWireTypeIsRejected() throws IOException {
+        byte[] body = {(byte) BinaryWireCodec.tag(9, 5), 0};
+        BinaryWireCodec.decode(body, 0, body.length, null, null, MAX_FRAME_BYTES);
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws IOException {
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", "hello", TIMESTAMP);
+        EncodedFrame frame = BinaryWireCodec.encode(message);
+        int header = prefixLength(frame);
+        int bodyLength = frame.length() - header;
+        byte[] body = new byte[bodyLength + 6];
+        System.arraycopy(frame.array(), header, body, 0, bodyLength);
+        int offset = bodyLength;
+        body[offset++] = (byte) BinaryWireCodec.tag(12, BinaryWireCodec.WIRE_VARINT);
+        body[offset++] = 42;
+        body[offset++] = (byte) BinaryWireCodec.tag(13, BinaryWireCodec.WIRE_LENGTH_DELIMITED);
+        body[offset++] = 2;
+        body[offset++] = 'x';
+        body[offset] = 'y';
+
+        assertMessage(message, BinaryWireCodec.decode(body, 0, body.length, null, null, MAX_FRAME_BYTES));
+    }
+
+    @Test
+    public void messageWithoutTextRoundTrips() throws IOException {
+        ChatMessage message = new ChatMessage(null, 5, null, null, null, 0);
+        ChatMessage decoded = decode(BinaryWireCodec.encode(message), null, null);
+        assertEquals(5, decoded.getMessageId());
+        assertNull(decoded.getSenderIp());
+        assertNull(decoded.getMessage());
+    }
+
+    private static ChatMessage decode(EncodedFrame frame, FrameCompressor compressor, SenderIdentity.Table senders)
+            throws IOException {
+        int header = prefixLength(frame);
+        assertEquals(frame.length() - header, readPrefix(frame));
+        return BinaryWireCodec.decode(frame.array(), header, frame.length() - header, compressor, senders,
+                MAX_FRAME_BYTES);
+    }
+
+    private static int prefixLength(EncodedFrame frame) {
+        int header = 1;
+        while ((frame.array()[header - 1] & 0x80) != 0) {
+            header++;
+        }
+        return header;
+    }
+
+    private static int readPrefix(EncodedFrame frame) {
+        int value = 0;
+        for (int i = 0, shift = 0; ; i++, shift += 7) {
+            byte b = frame.array()[i];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void assertMessage(ChatMessage expected, ChatMessage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        assertEquals(expected.getSenderIp(), actual.getSenderIp());
+        assertEquals(expected.getSenderName(), actual.getSenderName());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+}
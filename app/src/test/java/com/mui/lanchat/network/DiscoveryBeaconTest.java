@@ -0,0 +1,127 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryBeaconTest {
+
+    private static final int FEATURES = DiscoveryBeacon.FEATURE_BINARY_FRAMES | DiscoveryBeacon.FEATURE_RELAY;
+
+    @Test
+    public void beaconRoundTrips() {
+        DiscoveryBeacon beacon = new DiscoveryBeacon(0x0123456789ABCDEFL, 77, 8888, FEATURES, 12, 3600, "Zoë");
+        byte[] encoded = beacon.encode();
+        assertTrue(DiscoveryBeacon.isBeacon(encoded, 0, encoded.length));
+
+        DiscoveryBeacon decoded = DiscoveryBeacon.decode(encoded, 0, encoded.length);
+        assertNotNull(decoded);
+        assertEquals(DiscoveryBeacon.VERSION, decoded.getVersion());
+        assertEquals(0x0123456789ABCDEFL, decoded.getInstanceId());
+        assertEquals(77, decoded.nonce);
+        assertEquals(8888, decoded.getChatPort());
+        assertTrue(decoded.hasFeature(DiscoveryBeacon.FEATURE_RELAY));
+        assertFalse(decoded.hasFeature(DiscoveryBeacon.FEATURE_DEFLATE));
+        assertEquals(12, decoded.getClientCount());
+        assertEquals(3600, decoded.getUptimeSeconds());
+        assertEquals("Zoë", decoded.getNickname());
+        assertTrue(beacon.sameAdvertisement(decoded));
+    }
+
+    @Test
+    public void beaconInsideALargerBufferDecodes() {
+        byte[] encoded = new DiscoveryBeacon(5, 0, 8888, FEATURES, 0, 0, null).encode();
+        byte[] packet = new byte[encoded.length + 10];
+        System.arraycopy(encoded, 0, packet, 4, encoded.length);
+
+        DiscoveryBeacon decoded = DiscoveryBeacon.decode(packet, 4, encoded.length);
+        assertNotNull(decoded);
+        assertEquals(5, decoded.getInstanceId());
+        assertEquals("", decoded.getNickname());
+    }
+
+    @Test
+    public void everyTruncationIsDroppedWithoutThrowing() {
+        byte[] encoded = new DiscoveryBeacon(5, 1, 8888, FEATURES, 3, 60, "hub").encode();
+        for (int length = 0; length < encoded.length; length++) {
+            DiscoveryBeacon decoded = DiscoveryBeacon.decode(encoded, 0, length);
+            // A cut between fields may still leave a valid beacon, just never a misread one
+            if (decoded != null) {
+                assertEquals(5, decoded.getInstanceId());
+                assertEquals(8888, decoded.getChatPort());
+            }
+        }
+        assertNull(DiscoveryBeacon.decode(encoded, 0, encoded.length - 1)); // Inside the nickname
+    }
+
+    @Test
+    public void newerVersionIsDropped() {
+        byte[] encoded = new DiscoveryBeacon(5, 0, 8888, FEATURES, 0, 0, "hub").encode();
+        encoded[2] = (byte) (DiscoveryBeacon.VERSION + 1);
+        assertTrue(DiscoveryBeacon.isBeacon(encoded, 0, encoded.length));
+        assertNull(DiscoveryBeacon.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void beaconWithoutInstanceIdOrPortIsDropped() {
+        byte[] noInstance = new DiscoveryBeacon(0, 0, 8888, FEATURES, 0, 0, "hub").encode();
+        assertNull(DiscoveryBeacon.decode(noInstance, 0, noInstance.length));
+        byte[] noPort = new DiscoveryBeacon(5, 0, 0, FEATURES, 0, 0, "hub").encode();
+        assertNull(DiscoveryBeacon.decode(noPort, 0, noPort.length));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() {
+        byte[] encoded = new DiscoveryBeacon(5, 0, 8888, FEATURES, 2, 0, "hub").encode();
+        byte[] extended = Arrays.copyOf(encoded, encoded.length + 5);
+        int offset = encoded.length;
+        extended[offset++] = (byte) BinaryWireCodec.tag(8, BinaryWireCodec.WIRE_VARINT);
+        extended[offset++] = 1;
+        extended[offset++] = (byte) BinaryWireCodec.tag(9, BinaryWireCodec.WIRE_LENGTH_DELIMITED);
+        extended[offset++] = 1;
+        extended[offset] = 'x';
+
+        DiscoveryBeacon decoded = DiscoveryBeacon.decode(extended, 0, extended.length);
+        assertNotNull(decoded);
+        assertEquals(2, decoded.getClientCount());
+        assertEquals("hub", decoded.getNickname());
+    }
+
+    @Test
+    public void textDiscoveryMessageIsNotABeacon() {
+        byte[] text = UdpDiscoveryServer.DISCOVERY_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        assertFalse(DiscoveryBeacon.isBeacon(text, 0, text.length));
+        assertNull(DiscoveryBeacon.decode(text, 0, text.length));
+        assertNull(DiscoveryBeacon.decode(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void longNicknameIsCutAtACharacterBoundary() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            name.append("😀"); // Four UTF-8 bytes, two chars
+        }
+        DiscoveryBeacon beacon = new DiscoveryBeacon(5, 0, 8888, FEATURES, 0, 0, name.toString());
+        String nickname = beacon.getNickname();
+        assertEquals(DiscoveryBeacon.MAX_NICKNAME_BYTES, nickname.getBytes(StandardCharsets.UTF_8).length);
+        assertFalse(Character.isHighSurrogate(nickname.charAt(nickname.length() - 1)));
+
+        byte[] encoded = beacon.encode();
+        assertEquals(nickname, DiscoveryBeacon.decode(encoded, 0, encoded.length).getNickname());
+    }
+
+    @Test
+    public void nonceAndUptimeDoNotChangeTheAdvertisement() {
+        DiscoveryBeacon first = new DiscoveryBeacon(5, 1, 8888, FEATURES, 2, 10, "hub");
+        assertTrue(first.sameAdvertisement(new DiscoveryBeacon(5, 2, 8888, FEATURES, 2, 99, "hub")));
+        assertFalse(first.sameAdvertisement(new DiscoveryBeacon(5, 1, 8888, FEATURES, 3, 10, "hub")));
+        assertFalse(first.sameAdvertisement(null));
+    }
+}
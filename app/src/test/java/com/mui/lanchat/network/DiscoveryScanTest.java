@@ -0,0 +1,97 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryScanTest {
+
+    @Test
+    public void scanRoundTrips() {
+        String message = DiscoveryScan.format("10.0.0.2", 0xABCL, 0x1234L, Arrays.asList(5L, 0x7FFFFFFFFFFFFFFFL));
+        DiscoveryScan scan = DiscoveryScan.parse(message);
+        assertEquals("10.0.0.2", scan.senderIp);
+        assertEquals(0xABCL, scan.nonce);
+        assertEquals(0x1234L, scan.instanceId);
+        assertEquals(new HashSet<>(Arrays.asList(5L, 0x7FFFFFFFFFFFFFFFL)), scan.knownInstances);
+    }
+
+    @Test
+    public void scanWithNoKnownPeersListsNoOne() {
+        DiscoveryScan scan = DiscoveryScan.parse(
+                DiscoveryScan.format("10.0.0.2", 1, 2, Collections.<Long>emptyList()));
+        assertEquals(1, scan.nonce);
+        assertTrue(scan.knownInstances.isEmpty());
+    }
+
+    @Test
+    public void knownListIsCutToFitOneFrame() {
+        List<Long> known = new ArrayList<>();
+        for (long i = 0; i < 200; i++) {
+            known.add(0x7000000000000000L + i); // 16 hex digits each
+        }
+        String message = DiscoveryScan.format("192.168.100.200", Long.MAX_VALUE, Long.MAX_VALUE, known);
+        assertTrue(message.length() <= DiscoveryScan.MAX_SCAN_BYTES);
+
+        DiscoveryScan scan = DiscoveryScan.parse(message);
+        assertTrue(scan.knownInstances.size() > 50);
+        assertTrue(scan.knownInstances.size() < known.size());
+        // The list is cut at an entry, never inside one
+        assertTrue(known.containsAll(scan.knownInstances));
+        assertTrue(scan.knownInstances.contains(known.get(0)));
+    }
+
+    @Test
+    public void olderPeersScanWithoutNonceOrInstance() {
+        DiscoveryScan scan = DiscoveryScan.parse(UdpDiscoveryServer.DISCOVERY_MESSAGE + ":10.0.0.7");
+        assertEquals("10.0.0.7", scan.senderIp);
+        assertEquals(0, scan.nonce);
+        assertEquals(0, scan.instanceId);
+        assertTrue(scan.knownInstances.isEmpty());
+
+        DiscoveryScan bare = DiscoveryScan.parse(UdpDiscoveryServer.DISCOVERY_MESSAGE);
+        assertNull(bare.senderIp);
+        assertEquals(0, bare.nonce);
+    }
+
+    @Test
+    public void malformedNumbersReadAsZero() {
+        DiscoveryScan scan = DiscoveryScan.parse(UdpDiscoveryServer.DISCOVERY_MESSAGE + ":10.0.0.2:xyz:-:5,zz");
+        assertEquals(0, scan.nonce);
+        assertEquals(0, scan.instanceId);
+        assertEquals(new HashSet<>(Arrays.asList(5L, 0L)), scan.knownInstances);
+    }
+
+    @Test
+    public void otherMessagesAreNotScans() {
+        assertNull(DiscoveryScan.parse(DiscoveryScan.formatLegacyReply("10.0.0.2")));
+        assertNull(DiscoveryScan.parse(MulticastDiscovery.JOIN_MESSAGE + ":10.0.0.2:ff"));
+    }
+
+    @Test
+    public void announcementRoundTrips() {
+        String message = DiscoveryScan.formatAnnouncement(MulticastDiscovery.LEAVE_MESSAGE, "10.0.0.2", 0xBEEFL);
+        DiscoveryScan leave = DiscoveryScan.parseAnnouncement(message);
+        assertEquals("10.0.0.2", leave.senderIp);
+        assertEquals(0xBEEFL, leave.instanceId);
+        assertEquals(0, leave.nonce);
+    }
+
+    @Test
+    public void answerKeysTellScansApart() {
+        assertEquals(0, DiscoveryScan.answerKey(5, 0)); // No nonce: never a duplicate
+        assertNotEquals(0, DiscoveryScan.answerKey(5, 1));
+        assertNotEquals(DiscoveryScan.answerKey(5, 1), DiscoveryScan.answerKey(6, 1));
+        assertNotEquals(DiscoveryScan.answerKey(5, 1), DiscoveryScan.answerKey(5, 2));
+        assertEquals(DiscoveryScan.answerKey(5, 1), DiscoveryScan.answerKey(5, 1));
+    }
+}
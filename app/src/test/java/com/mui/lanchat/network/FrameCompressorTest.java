@@ -0,0 +1,128 @@
+package com.mui.lanchat.network;
+
+import com.mui.lanchat.model.ChatMessage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCompressorTest {
+
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final long TIMESTAMP = 1700000000123L;
+
+    @Test
+    public void compressedBytesRoundTrip() throws IOException {
+        CompressionStats stats = new CompressionStats();
+        FrameCompressor compressor = new FrameCompressor(CompressionPolicy.defaultPolicy(), stats);
+        byte[] data = repeat("thanks, see you later ", 60).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compressor.compress(data);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < data.length);
+        assertEquals(1, stats.getFramesCompressed());
+
+        assertArrayEquals(data, compressor.decompress(compressed, 0, compressed.length, MAX_FRAME_BYTES));
+    }
+
+    @Test
+    public void smallOrIncompressibleInputIsLeftAlone() {
+        CompressionStats stats = new CompressionStats();
+        FrameCompressor compressor = new FrameCompressor(new CompressionPolicy(true, 64, Deflater.BEST_SPEED), stats);
+        assertNull(compressor.compress(new byte[63]));
+        assertEquals(1, stats.getFramesBelowThreshold());
+
+        byte[] random = new byte[512];
+        new Random(1).nextBytes(random);
+        assertNull(compressor.compress(random));
+        assertEquals(1, stats.getFramesIncompressible());
+    }
+
+    @Test(expected = IOException.class)
+    public void declaredLengthOverTheLimitIsRejected() throws IOException {
+        FrameCompressor compressor = compressor();
+        byte[] compressed = compressor.compress(new byte[10000]);
+        compressor.decompress(compressed, 0, compressed.length, 1000);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedStreamIsRejected() throws IOException {
+        FrameCompressor compressor = compressor();
+        byte[] compressed = compressor.compress(repeat("lol haha ", 200).getBytes(StandardCharsets.UTF_8));
+        compressor.decompress(compressed, 0, compressed.length / 2, MAX_FRAME_BYTES);
+    }
+
+    @Test(expected = IOException.class)
+    public void garbageIsRejected() throws IOException {
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0xFF);
+        garbage[0] = 100; // A plausible original length
+        compressor().decompress(garbage, 0, garbage.length, MAX_FRAME_BYTES);
+    }
+
+    @Test
+    public void compressedMessageRoundTrips() throws IOException {
+        FrameCompressor compressor = compressor();
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", repeat("thanks, see you later ", 60),
+                TIMESTAMP);
+        EncodedFrame compressed = BinaryWireCodec.encode(message, compressor, null);
+        assertTrue(compressed.length() < BinaryWireCodec.encode(message).length());
+
+        ChatMessage decoded = decode(compressed, compressor, MAX_FRAME_BYTES);
+        assertEquals(message.getMessage(), decoded.getMessage());
+        assertEquals(message.getSenderName(), decoded.getSenderName());
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+    }
+
+    @Test
+    public void shortMessageIsSentPlain() throws IOException {
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", "ok", TIMESTAMP);
+        // Decodes without a compressor, so it carries no compressed field
+        assertEquals("ok", decode(BinaryWireCodec.encode(message, compressor(), null), null, MAX_FRAME_BYTES)
+                .getMessage());
+    }
+
+    @Test(expected = IOException.class)
+    public void compressedFrameWithoutCompressionIsRejected() throws IOException {
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", repeat("lol haha ", 200), TIMESTAMP);
+        decode(BinaryWireCodec.encode(message, compressor(), null), null, MAX_FRAME_BYTES);
+    }
+
+    @Test(expected = IOException.class)
+    public void compressedFrameMayNotExpandPastTheLimit() throws IOException {
+        FrameCompressor compressor = compressor();
+        ChatMessage message = new ChatMessage(null, 5, "192.168.1.7", "Zoë", repeat("a", 10000), TIMESTAMP);
+        decode(BinaryWireCodec.encode(message, compressor, null), compressor, 1000);
+    }
+
+    private static ChatMessage decode(EncodedFrame frame, FrameCompressor compressor, int maxFrameBytes)
+            throws IOException {
+        int header = 1;
+        while ((frame.array()[header - 1] & 0x80) != 0) {
+            header++;
+        }
+        return BinaryWireCodec.decode(frame.array(), header, frame.length() - header, compressor, null,
+                maxFrameBytes);
+    }
+
+    private static FrameCompressor compressor() {
+        return new FrameCompressor(CompressionPolicy.defaultPolicy(), new CompressionStats());
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameDecoderTest {
+
+    private static final int MAX_FRAME_BYTES = 1024;
+
+    @Test
+    public void linesSplitAcrossReadsAreReassembled() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        RecordingSink sink = new RecordingSink();
+        byte[] data = "first\r\nsecond\n\nthird\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < data.length; i++) {
+            decoder.feed(data, i, 1, sink);
+        }
+        assertEquals(Arrays.asList("line:first", "line:second", "line:third"), sink.events);
+        decoder.release();
+    }
+
+    @Test
+    public void framesSplitAcrossReadsAreReassembled() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        decoder.setFormat(WireFormat.BINARY);
+        RecordingSink sink = new RecordingSink();
+        byte[] data = concat(frame(repeat('a', 300)), frame("b"), frame(""));
+        // Cut through the two-byte length prefix of the first frame, then in the middle of a body
+        decoder.feed(data, 0, 1, sink);
+        decoder.feed(data, 1, 100, sink);
+        decoder.feed(data, 101, data.length - 101, sink);
+        assertEquals(Arrays.asList("frame:" + repeat('a', 300), "frame:b", "frame:"), sink.events);
+        decoder.release();
+    }
+
+    @Test
+    public void oversizedFrameIsSkippedAndTheNextOneDelivered() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        decoder.setFormat(WireFormat.BINARY);
+        RecordingSink sink = new RecordingSink();
+        byte[] data = concat(frame(repeat('x', MAX_FRAME_BYTES + 1)), frame("after"));
+        for (int offset = 0; offset < data.length; offset += 100) {
+            decoder.feed(data, offset, Math.min(100, data.length - offset), sink);
+        }
+        assertEquals(Arrays.asList("oversized:" + (MAX_FRAME_BYTES + 1), "frame:after"), sink.events);
+        decoder.release();
+    }
+
+    @Test
+    public void handshakeLineSwitchesTheRestOfTheReadToBinary() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            public void onLine(byte[] data, int offset, int length) throws IOException {
+                super.onLine(data, offset, length);
+                decoder.setFormat(WireFormat.BINARY);
+            }
+        };
+        byte[] data = concat("hello\n".getBytes(StandardCharsets.UTF_8), frame("one"), frame("two"));
+        decoder.feed(data, 0, data.length, sink);
+        assertEquals(Arrays.asList("line:hello", "frame:one", "frame:two"), sink.events);
+    }
+
+    @Test(expected = IOException.class)
+    public void overlongLineFailsTheConnection() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        byte[] data = repeat('x', MAX_FRAME_BYTES + 1).getBytes(StandardCharsets.UTF_8);
+        decoder.feed(data, 0, data.length, new RecordingSink());
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedFrameLengthFailsTheConnection() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME_BYTES, new BufferPool(1 << 20));
+        decoder.setFormat(WireFormat.BINARY);
+        byte[] data = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        decoder.feed(data, 0, data.length, new RecordingSink());
+    }
+
+    private static byte[] frame(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] framed = new byte[Varint.size(bytes.length) + bytes.length];
+        int offset = Varint.write(bytes.length, framed, 0);
+        System.arraycopy(bytes, 0, framed, offset, bytes.length);
+        return framed;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] joined = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, offset, part.length);
+            offset += part.length;
+        }
+        return joined;
+    }
+
+    private static String repeat(char c, int times) {
+        char[] chars = new char[times];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static class RecordingSink implements FrameDecoder.Sink {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onLine(byte[] data, int offset, int length) throws IOException {
+            events.add("line:" + new String(data, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onFrame(byte[] data, int offset, int length) throws IOException {
+            events.add("frame:" + new String(data, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onOversizedFrame(int length) {
+            events.add("oversized:" + length);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HubSelectorTest {
+
+    // 800 ms probe timeout, 8 clients per hub, 25 ms per client
+    private final HubSelector selector = new HubSelector(null, null, null, HubSelectionPolicy.defaultPolicy());
+
+    @Test
+    public void scoreIsRoundTripPlusLoad() {
+        assertEquals(12 + 3 * 25, selector.score(hub("10.0.0.2", 3), rtt("10.0.0.2", 12)));
+    }
+
+    @Test
+    public void unansweredProbeCountsAsTheWholeTimeout() {
+        assertEquals(800 + 2 * 25, selector.score(hub("10.0.0.2", 2), Collections.<String, Long>emptyMap()));
+    }
+
+    @Test
+    public void peerWithoutABeaconCountsAsIdle() {
+        DiscoveredPeer legacy = new DiscoveredPeer("10.0.0.2", "10.0.0.2", null, 0);
+        assertEquals(40, selector.score(legacy, rtt("10.0.0.2", 40)));
+    }
+
+    @Test
+    public void fullHubSortsAfterAnyOtherHub() {
+        long full = selector.score(hub("10.0.0.2", 8), rtt("10.0.0.2", 1));
+        long slowAndBusy = selector.score(hub("10.0.0.3", 7), Collections.<String, Long>emptyMap());
+        assertTrue(full > slowAndBusy);
+        assertEquals(TimeUnit.HOURS.toMillis(1) + 1 + 8 * 25, full);
+    }
+
+    @Test
+    public void lighterHubWinsOverASlightlyCloserOne() {
+        Map<String, Long> rtts = new HashMap<>();
+        rtts.put("10.0.0.2", TimeUnit.MILLISECONDS.toNanos(5));
+        rtts.put("10.0.0.3", TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(selector.score(hub("10.0.0.3", 0), rtts) < selector.score(hub("10.0.0.2", 4), rtts));
+    }
+
+    private static DiscoveredPeer hub(String ip, int clients) {
+        DiscoveryBeacon beacon = new DiscoveryBeacon(ip.hashCode() & Long.MAX_VALUE, 0, 8888,
+                DiscoveryBeacon.FEATURE_BINARY_FRAMES, clients, 0, "hub");
+        return new DiscoveredPeer(PeerTable.keyFor(ip, beacon.getInstanceId()), ip, beacon, 0);
+    }
+
+    private static Map<String, Long> rtt(String ip, long millis) {
+        return Collections.singletonMap(ip, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
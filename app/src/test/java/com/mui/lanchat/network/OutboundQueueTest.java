@@ -0,0 +1,86 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void itemsComeOutInOrder() {
+        OutboundQueue<Integer> queue = new OutboundQueue<>(policy(10, 10, 1000, SlowConsumerPolicy.Action.DISCONNECT));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(i));
+        }
+        assertEquals(5, queue.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void fullQueueEvictsUnderDisconnect() {
+        List<Integer> discarded = new ArrayList<>();
+        OutboundQueue<Integer> queue = new OutboundQueue<>(policy(3, 3, 60000, SlowConsumerPolicy.Action.DISCONNECT),
+                discarded::add);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(i);
+        }
+        assertEquals(OutboundQueue.Verdict.EVICT, queue.offer(3));
+        // The refused item stays the caller's; the backlog is kept for the close to discard
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.clear());
+        assertEquals(Arrays.asList(0, 1, 2), discarded);
+    }
+
+    @Test
+    public void fullQueueDropsItsBacklogUnderDropBacklog() {
+        List<Integer> discarded = new ArrayList<>();
+        OutboundQueue<Integer> queue = new OutboundQueue<>(policy(3, 3, 60000, SlowConsumerPolicy.Action.DROP_BACKLOG),
+                discarded::add);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(i);
+        }
+        assertEquals(OutboundQueue.Verdict.DROPPED_BACKLOG, queue.offer(3));
+        assertEquals(Arrays.asList(0, 1, 2), discarded);
+        assertEquals(1, queue.size());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(3, queue.takeDroppedCount());
+        assertEquals(0, queue.takeDroppedCount());
+    }
+
+    @Test
+    public void stayingOverTheMarkTooLongOverflows() throws InterruptedException {
+        OutboundQueue<Integer> queue = new OutboundQueue<>(policy(100, 2, 0, SlowConsumerPolicy.Action.DISCONNECT));
+        assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(0));
+        assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(1));
+        assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(2)); // Starts the clock
+        Thread.sleep(5);
+        assertEquals(OutboundQueue.Verdict.EVICT, queue.offer(3));
+    }
+
+    @Test
+    public void drainingBelowTheMarkResetsTheClock() throws InterruptedException {
+        OutboundQueue<Integer> queue = new OutboundQueue<>(policy(100, 2, 0, SlowConsumerPolicy.Action.DISCONNECT));
+        queue.offer(0);
+        queue.offer(1);
+        queue.offer(2); // Starts the clock
+        queue.poll();
+        queue.poll(); // Below the mark again
+        Thread.sleep(5);
+        assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(3));
+        assertEquals(OutboundQueue.Verdict.QUEUED, queue.offer(4)); // Starts it again
+    }
+
+    private static SlowConsumerPolicy policy(int capacity, int highWaterMark, long maxOverMarkMillis,
+                                             SlowConsumerPolicy.Action action) {
+        return new SlowConsumerPolicy(capacity, highWaterMark, maxOverMarkMillis, action);
+    }
+}
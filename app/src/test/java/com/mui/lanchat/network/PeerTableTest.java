@@ -0,0 +1,99 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeerTableTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long START = 1000 * SECOND; // nanoTime may be anything, even negative
+
+    @Test
+    public void peersAreKeyedByInstanceIdOrAddress() {
+        assertEquals("ff", PeerTable.keyFor("10.0.0.2", 255));
+        assertEquals("10.0.0.2", PeerTable.keyFor("10.0.0.2", 0));
+    }
+
+    @Test
+    public void recordReportsWhatChanged() {
+        PeerTable table = new PeerTable();
+        assertEquals(PeerTable.Change.ADDED, table.record("a", "10.0.0.2", beacon(1, 2), START));
+        assertEquals(PeerTable.Change.REFRESHED, table.record("a", "10.0.0.2", beacon(1, 2), START + SECOND));
+        assertEquals(PeerTable.Change.UPDATED, table.record("a", "10.0.0.2", beacon(1, 3), START + 2 * SECOND));
+        assertEquals(PeerTable.Change.UPDATED, table.record("a", "10.0.0.9", null, START + 3 * SECOND));
+    }
+
+    @Test
+    public void sightingWithoutABeaconKeepsTheKnownOne() {
+        PeerTable table = new PeerTable();
+        DiscoveryBeacon beacon = beacon(1, 2);
+        table.record("a", "10.0.0.2", beacon, START);
+        assertEquals(PeerTable.Change.REFRESHED, table.record("a", "10.0.0.2", null, START + SECOND));
+        assertSame(beacon, table.get("a").getBeacon());
+        assertEquals(START + SECOND, table.get("a").lastSeenNanos);
+    }
+
+    @Test
+    public void silentPeersExpireAfterTheirTtl() {
+        PeerTable table = new PeerTable();
+        table.record("old", "10.0.0.2", null, START);
+        table.record("new", "10.0.0.3", null, START + 5 * SECOND);
+
+        assertFalse(table.hasPeerSilentFor(START + 10 * SECOND, 10 * SECOND));
+        assertTrue(table.expire(START + 10 * SECOND, 10 * SECOND).isEmpty()); // Exactly at the TTL is kept
+        assertTrue(table.hasPeerSilentFor(START + 10 * SECOND + 1, 10 * SECOND));
+
+        List<DiscoveredPeer> expired = table.expire(START + 12 * SECOND, 10 * SECOND);
+        assertEquals(1, expired.size());
+        assertEquals("old", expired.get(0).key);
+        assertNull(table.get("old"));
+        assertEquals(1, table.snapshot().size());
+    }
+
+    @Test
+    public void refreshedPeerDoesNotExpire() {
+        PeerTable table = new PeerTable();
+        table.record("a", "10.0.0.2", null, START);
+        table.record("a", "10.0.0.2", null, START + 8 * SECOND);
+        assertTrue(table.expire(START + 15 * SECOND, 10 * SECOND).isEmpty());
+    }
+
+    @Test
+    public void onlyRecentPeersWithABeaconCountAsAnswered() {
+        PeerTable table = new PeerTable();
+        table.record("a", "10.0.0.2", beacon(1, 0), START);
+        table.record("b", "10.0.0.3", beacon(2, 0), START + 5 * SECOND);
+        table.record("10.0.0.4", "10.0.0.4", null, START + 5 * SECOND); // Only seen scanning
+
+        assertEquals(Collections.singletonList(2L), table.recentlyAnswered(START + 6 * SECOND, 2 * SECOND));
+        assertEquals(Arrays.asList(1L, 2L), table.recentlyAnswered(START + 6 * SECOND, 10 * SECOND));
+    }
+
+    @Test
+    public void snapshotKeepsDiscoveryOrder() {
+        PeerTable table = new PeerTable();
+        table.record("b", "10.0.0.3", null, START);
+        table.record("a", "10.0.0.2", null, START);
+        table.record("b", "10.0.0.3", null, START + SECOND);
+
+        List<DiscoveredPeer> peers = table.snapshot();
+        assertEquals("b", peers.get(0).key);
+        assertEquals("a", peers.get(1).key);
+        assertEquals(2, table.clear().size());
+        assertTrue(table.snapshot().isEmpty());
+    }
+
+    private static DiscoveryBeacon beacon(long instanceId, int clients) {
+        return new DiscoveryBeacon(instanceId, 0, 8888, DiscoveryBeacon.FEATURE_BINARY_FRAMES, clients, 0, "hub");
+    }
+}
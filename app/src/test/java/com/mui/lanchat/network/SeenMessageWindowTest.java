@@ -0,0 +1,46 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeenMessageWindowTest {
+
+    @Test
+    public void secondSightingIsADuplicate() {
+        SeenMessageWindow window = new SeenMessageWindow(8);
+        assertTrue(window.markSeen(42));
+        assertFalse(window.markSeen(42));
+        assertTrue(window.markSeen(43));
+    }
+
+    @Test
+    public void unstampedMessagesAreNeverDuplicates() {
+        SeenMessageWindow window = new SeenMessageWindow(8);
+        assertTrue(window.markSeen(0));
+        assertTrue(window.markSeen(0));
+    }
+
+    @Test
+    public void oldestIdIsForgottenFirst() {
+        SeenMessageWindow window = new SeenMessageWindow(3);
+        window.markSeen(1);
+        window.markSeen(2);
+        window.markSeen(3);
+        assertFalse(window.markSeen(1)); // A repeat does not make an ID any younger
+        window.markSeen(4);
+
+        assertTrue(window.markSeen(1));
+        assertFalse(window.markSeen(3));
+        assertFalse(window.markSeen(4));
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        SeenMessageWindow window = new SeenMessageWindow(8);
+        window.markSeen(7);
+        window.clear();
+        assertTrue(window.markSeen(7));
+    }
+}
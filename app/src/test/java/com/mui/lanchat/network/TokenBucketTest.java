@@ -0,0 +1,40 @@
+package com.mui.lanchat.network;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void startsFull() {
+        TokenBucket bucket = new TokenBucket(1, 5);
+        assertTrue(bucket.hasTokens(5));
+        assertFalse(bucket.hasTokens(5.5));
+        assertEquals(0, bucket.nanosUntilSolvent());
+    }
+
+    @Test
+    public void debtTakesItsRateToRepay() {
+        TokenBucket bucket = new TokenBucket(1, 5); // Slow enough that the test's own time barely counts
+        bucket.consume(8);
+        assertFalse(bucket.hasTokens(1));
+        long nanos = bucket.nanosUntilSolvent();
+        assertTrue(nanos > TimeUnit.MILLISECONDS.toNanos(2900));
+        assertTrue(nanos <= TimeUnit.SECONDS.toNanos(3));
+    }
+
+    @Test
+    public void refillsOverTimeUpToCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 2);
+        bucket.consume(2);
+        assertFalse(bucket.hasTokens(2));
+        Thread.sleep(20);
+        assertTrue(bucket.hasTokens(2));
+        assertFalse(bucket.hasTokens(2.5));
+    }
+}
@@ -0,0 +1,204 @@
+package com.mui.lanchat.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogSegmentTest {
+
+    private static final int CAPACITY = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void activeSegmentReopensWithItsRecords() throws IOException {
+        File dir = folder.getRoot();
+        LogSegment segment = LogSegment.create(dir, 0, CAPACITY);
+        append(segment, 5);
+        int dataBytes = segment.getDataBytes();
+        segment.close();
+
+        LogSegment reopened = LogSegment.open(dir, 0, true, CAPACITY);
+        assertFalse(reopened.isSealed());
+        assertEquals(5, reopened.getRecordCount());
+        assertEquals(dataBytes, reopened.getDataBytes());
+        assertRecords(reopened, 5);
+        reopened.close();
+    }
+
+    @Test
+    public void tornLastRecordIsDroppedAndAppendsContinue() throws IOException {
+        File dir = folder.getRoot();
+        LogSegment segment = LogSegment.create(dir, 0, CAPACITY);
+        append(segment, 2);
+        int tornAt = segment.getDataBytes();
+        append(segment, 2, 1);
+        segment.close();
+        // A crash mid-append: the length made it to disk but part of the payload did not
+        corrupt(dir, 0, tornAt + LogSegment.HEADER_BYTES + 1);
+
+        LogSegment reopened = LogSegment.open(dir, 0, true, CAPACITY);
+        assertEquals(2, reopened.getRecordCount());
+        assertEquals(tornAt, reopened.getDataBytes());
+        assertRecords(reopened, 2);
+
+        assertTrue(reopened.append(100, 1000, payload(100)));
+        assertEquals(3, reopened.getRecordCount());
+        assertArrayEquals(payload(100), reopened.read(2));
+        reopened.close();
+
+        LogSegment again = LogSegment.open(dir, 0, true, CAPACITY);
+        assertEquals(3, again.getRecordCount());
+        assertArrayEquals(payload(100), again.read(2));
+        again.close();
+    }
+
+    @Test
+    public void lengthPastTheEndOfTheFileEndsTheData() throws IOException {
+        File dir = folder.getRoot();
+        LogSegment segment = LogSegment.create(dir, 0, 1024);
+        append(segment, 3);
+        int end = segment.getDataBytes();
+        segment.close();
+        try (RandomAccessFile raf = new RandomAccessFile(logFile(dir, 0), "rw")) {
+            raf.seek(end);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        LogSegment reopened = LogSegment.open(dir, 0, true, 1024);
+        assertEquals(3, reopened.getRecordCount());
+        assertEquals(end, reopened.getDataBytes());
+        reopened.close();
+    }
+
+    @Test
+    public void sealedSegmentReopensFromItsIndex() throws IOException {
+        File dir = folder.getRoot();
+        int records = LogSegment.INDEX_INTERVAL * 3 + 5;
+        LogSegment segment = LogSegment.create(dir, 40, CAPACITY);
+        append(segment, records);
+        segment.seal();
+        int dataBytes = segment.getDataBytes();
+        segment.close();
+        assertEquals(dataBytes, logFile(dir, 40).length());
+        assertTrue(indexFile(dir, 40).exists());
+        // Damage a record: only a scan would notice, and a sealed segment with an index is not scanned
+        corrupt(dir, 40, LogSegment.HEADER_BYTES + 1);
+
+        LogSegment reopened = LogSegment.open(dir, 40, false, CAPACITY);
+        assertTrue(reopened.isSealed());
+        assertEquals(records, reopened.getRecordCount());
+        assertEquals(dataBytes, reopened.getDataBytes());
+        for (int i = 1; i < records; i++) {
+            assertArrayEquals(payload(i), reopened.read(i));
+            assertEquals(1000L * i, reopened.timestampOf(i));
+        }
+        assertEquals(0, reopened.firstTimestamp());
+        assertEquals(LogSegment.INDEX_INTERVAL * 2, reopened.floorIndexedOrdinal(1000L * (LogSegment.INDEX_INTERVAL * 2 + 3)));
+        assertFalse(reopened.append(1, 1, payload(1)));
+        reopened.close();
+    }
+
+    @Test
+    public void sealedSegmentWithoutItsIndexIsScannedAndResealed() throws IOException {
+        File dir = folder.getRoot();
+        int records = LogSegment.INDEX_INTERVAL + 1;
+        LogSegment segment = LogSegment.create(dir, 0, CAPACITY);
+        append(segment, records);
+        segment.seal();
+        segment.close();
+        assertTrue(indexFile(dir, 0).delete());
+
+        LogSegment reopened = LogSegment.open(dir, 0, false, CAPACITY);
+        assertTrue(reopened.isSealed());
+        assertEquals(records, reopened.getRecordCount());
+        assertRecords(reopened, records);
+        reopened.close();
+        assertTrue(indexFile(dir, 0).exists());
+    }
+
+    @Test
+    public void indexThatDoesNotMatchTheFileIsIgnored() throws IOException {
+        File dir = folder.getRoot();
+        LogSegment segment = LogSegment.create(dir, 0, CAPACITY);
+        append(segment, 4);
+        segment.seal();
+        segment.close();
+        // A crash between cutting the file and renaming the index leaves the data longer than indexed
+        try (RandomAccessFile raf = new RandomAccessFile(logFile(dir, 0), "rw")) {
+            raf.setLength(raf.length() + 64);
+        }
+
+        LogSegment reopened = LogSegment.open(dir, 0, false, CAPACITY);
+        assertEquals(4, reopened.getRecordCount());
+        assertRecords(reopened, 4);
+        reopened.close();
+    }
+
+    @Test
+    public void appendRefusesRecordsThatDoNotFit() throws IOException {
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, 64);
+        assertTrue(segment.append(1, 1, new byte[64 - LogSegment.HEADER_BYTES]));
+        assertFalse(segment.append(2, 2, new byte[1]));
+        assertEquals(1, segment.getRecordCount());
+        segment.close();
+    }
+
+    @Test
+    public void parsesBaseIndexFromFileName() {
+        assertEquals(42, LogSegment.parseBaseIndex("00000000000000000042.log"));
+        assertEquals(-1, LogSegment.parseBaseIndex("00000000000000000042.idx"));
+        assertEquals(-1, LogSegment.parseBaseIndex("notes.log"));
+    }
+
+    // Records i = from .. from + count - 1: message ID i, timestamp 1000 * i, payload(i)
+    private static void append(LogSegment segment, int count) {
+        append(segment, 0, count);
+    }
+
+    private static void append(LogSegment segment, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            assertTrue(segment.append(i, 1000L * i, payload(i)));
+        }
+    }
+
+    private static void assertRecords(LogSegment segment, int count) {
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(payload(i), segment.read(i));
+            assertEquals(1000L * i, segment.timestampOf(i));
+        }
+    }
+
+    private static byte[] payload(int i) {
+        return ("record " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void corrupt(File dir, long baseIndex, int position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(logFile(dir, baseIndex), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static File logFile(File dir, long baseIndex) {
+        return new File(dir, String.format(Locale.ROOT, "%020d", baseIndex) + LogSegment.LOG_SUFFIX);
+    }
+
+    private static File indexFile(File dir, long baseIndex) {
+        return new File(dir, String.format(Locale.ROOT, "%020d", baseIndex) + LogSegment.INDEX_SUFFIX);
+    }
+}
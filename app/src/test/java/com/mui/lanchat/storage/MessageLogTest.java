@@ -0,0 +1,120 @@
+package com.mui.lanchat.storage;
+
+import com.google.gson.JsonSyntaxException;
+import com.mui.lanchat.model.ChatMessage;
+import com.mui.lanchat.model.ChatMessageCodec;
+import com.mui.lanchat.model.JsonChatMessageCodec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageLogTest {
+
+    private static final int SEGMENT_BYTES = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void messagesKeepTheirIndexesAcrossSegmentsAndReopening() throws IOException {
+        MessageLog log = new MessageLog(folder.getRoot(), SEGMENT_BYTES, 100, new FailingCodec());
+        for (int i = 0; i < 50; i++) {
+            log.append(message(i, "message " + i));
+        }
+        assertEquals(0, log.getFirstIndex());
+        assertEquals(50, log.getEndIndex());
+
+        MessageLog reopened = new MessageLog(folder.getRoot(), SEGMENT_BYTES, 100, new FailingCodec());
+        assertEquals(50, reopened.getEndIndex());
+        List<ChatMessage> page = reopened.read(10, 30);
+        assertEquals(30, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals("message " + (10 + i), page.get(i).getMessage());
+        }
+        assertEquals(1000L * 25, reopened.read(reopened.indexOfTimestamp(1000L * 25), 1).get(0).getTimestamp());
+    }
+
+    @Test
+    public void unreadableRecordKeepsItsPlaceInTheRange() throws IOException {
+        MessageLog log = new MessageLog(folder.getRoot(), SEGMENT_BYTES, 100, new FailingCodec());
+        log.append(message(0, "first"));
+        log.append(message(1, FailingCodec.UNREADABLE));
+        log.append(message(2, "third"));
+
+        List<ChatMessage> page = log.read(0, 3);
+        assertEquals(3, page.size());
+        assertEquals("first", page.get(0).getMessage());
+        assertEquals(1000L, page.get(1).getTimestamp());
+        assertEquals("third", page.get(2).getMessage());
+    }
+
+    @Test
+    public void oldestSegmentsAreDroppedPastTheBudget() throws IOException {
+        MessageLog log = new MessageLog(folder.getRoot(), SEGMENT_BYTES, 2, new FailingCodec());
+        for (int i = 0; i < 100; i++) {
+            log.append(message(i, "message " + i));
+        }
+        long first = log.getFirstIndex();
+        assertEquals(100, log.getEndIndex());
+        assertTrue(first > 0);
+        assertEquals("message " + first, log.read(first, 1).get(0).getMessage());
+
+        List<ChatMessage> tail = log.readTail(5);
+        assertEquals(5, tail.size());
+        assertEquals("message 99", tail.get(4).getMessage());
+    }
+
+    @Test
+    public void clearStartsIndexesAgain() throws IOException {
+        MessageLog log = new MessageLog(folder.getRoot(), SEGMENT_BYTES, 100, new FailingCodec());
+        for (int i = 0; i < 20; i++) {
+            log.append(message(i, "message " + i));
+        }
+        log.clear();
+        assertEquals(0, log.getEndIndex());
+        log.append(message(0, "again"));
+        assertEquals("again", log.read(0, 1).get(0).getMessage());
+    }
+
+    private static ChatMessage message(int i, String text) {
+        return new ChatMessage(null, i + 1, "10.0.0.2", "Ana", text, 1000L * i);
+    }
+
+    // The JSON codec, except that it refuses to read back one particular text
+    private static final class FailingCodec implements ChatMessageCodec {
+        static final String UNREADABLE = "unreadable";
+        private final ChatMessageCodec json = JsonChatMessageCodec.getInstance();
+
+        @Override
+        public String encode(ChatMessage message) {
+            return json.encode(message);
+        }
+
+        @Override
+        public ChatMessage decode(String text) {
+            if (text.contains("\"" + UNREADABLE + "\"")) {
+                throw new JsonSyntaxException("Unreadable");
+            }
+            return json.decode(text);
+        }
+
+        @Override
+        public void write(ChatMessage message, Writer out) throws IOException {
+            json.write(message, out);
+        }
+
+        @Override
+        public ChatMessage read(Reader in) throws IOException {
+            return json.read(in);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.mui.lanchat.ui.home;
+
+import com.mui.lanchat.model.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RowRingTest {
+
+    @Test
+    public void gapAtTheFrontWrapsAroundTheArray() {
+        RowRing ring = new RowRing();
+        List<MessageRow> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            add(ring, expected, i);
+        }
+        ring.insertGap(0, 3); // Head moves back past slot 0
+        for (int i = 0; i < 3; i++) {
+            MessageRow row = row(100 + i);
+            ring.set(i, row, 100 + i);
+            expected.add(i, row);
+        }
+        assertRing(expected, ring);
+    }
+
+    @Test
+    public void removalNearTheFrontMovesTheHeadPastTheEnd() {
+        RowRing ring = new RowRing();
+        List<MessageRow> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            add(ring, expected, i);
+        }
+        ring.removeRange(0, 12); // Head now near the end of the array
+        expected.subList(0, 12).clear();
+        for (int i = 16; i < 24; i++) {
+            add(ring, expected, i); // Wraps to the start of the array
+        }
+        ring.removeRange(1, 2); // Front side is shorter
+        expected.subList(1, 3).clear();
+        ring.removeRange(6, 2); // Back side is shorter
+        expected.subList(6, 8).clear();
+        assertRing(expected, ring);
+    }
+
+    @Test
+    public void randomEditsMatchAList() {
+        Random random = new Random(42);
+        RowRing ring = new RowRing();
+        List<MessageRow> expected = new ArrayList<>();
+        int next = 0;
+        for (int step = 0; step < 5000; step++) {
+            int op = random.nextInt(3);
+            if (op == 0 || expected.isEmpty()) {
+                add(ring, expected, next++);
+            } else if (op == 1 && expected.size() < 200) {
+                int position = random.nextInt(expected.size() + 1);
+                int count = 1 + random.nextInt(20);
+                ring.insertGap(position, count);
+                for (int i = 0; i < count; i++) {
+                    MessageRow row = row(next);
+                    ring.set(position + i, row, next++);
+                    expected.add(position + i, row);
+                }
+            } else {
+                int position = random.nextInt(expected.size());
+                int count = 1 + random.nextInt(expected.size() - position);
+                ring.removeRange(position, count);
+                expected.subList(position, position + count).clear();
+            }
+            assertRing(expected, ring);
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheRing() {
+        RowRing ring = new RowRing();
+        List<MessageRow> expected = new ArrayList<>();
+        add(ring, expected, 1);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.bytes());
+    }
+
+    private static void add(RowRing ring, List<MessageRow> expected, int index) {
+        MessageRow row = row(index);
+        ring.addLast(row, index);
+        expected.add(row);
+    }
+
+    // Rows of different sizes, so a lost or double-counted row shows in bytes()
+    private static MessageRow row(int index) {
+        String text = "row " + index;
+        return new MessageRow(new ChatMessage(null, index + 1, "10.0.0.2", "Ana", text, index), false,
+                MessageRow.VIEW_TYPE_RECEIVED, "Ana", "12:00", text);
+    }
+
+    private static void assertRing(List<MessageRow> expected, RowRing ring) {
+        assertEquals(expected.size(), ring.size());
+        long bytes = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), ring.get(i));
+            assertEquals(expected.get(i).message.getMessageId() - 1, ring.indexAt(i));
+            bytes += expected.get(i).estimatedBytes;
+        }
+        assertEquals(bytes, ring.bytes());
+    }
+}